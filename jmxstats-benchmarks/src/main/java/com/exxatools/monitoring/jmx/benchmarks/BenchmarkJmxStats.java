@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import com.exxatools.monitoring.jmx.JmxStats;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Makes the sampling steps of {@link JmxStats} available to the benchmarks.
+ *
+ * @author Malte Franken
+ */
+class BenchmarkJmxStats extends JmxStats {
+
+  void header() throws IOException {
+    outputHeader();
+  }
+
+  /**
+   * Read all attributes of all matching MBeans and output one row per MBean.
+   *
+   * @param timeSinceStart the time in nanoseconds since the benchmark has been started
+   */
+  void sample(long timeSinceStart) throws IOException, InstanceNotFoundException, ReflectionException {
+    outputStatistics(timeSinceStart);
+  }
+
+  /**
+   * Calculate and output a row of already read attribute values.
+   *
+   * @param timeSinceStart the time in nanoseconds since the benchmark has been started
+   * @param name the name of the MBean the values have been read from
+   * @param attributeValues the values read
+   */
+  void row(long timeSinceStart, ObjectName name, List<Object> attributeValues) throws IOException {
+    outputRow(timeSinceStart, name, attributeValues);
+  }
+
+  void close() throws IOException {
+    shutdown();
+  }
+}
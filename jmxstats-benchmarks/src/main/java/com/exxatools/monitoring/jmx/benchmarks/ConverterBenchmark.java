@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import com.exxatools.monitoring.jmx.converters.DelegatingConverter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts mixes of attribute values as read from real MBeans, both into strings and by appending to a builder.
+ *
+ * @author Malte Franken
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+  /**
+   * The kinds of attribute values to convert.
+   */
+  public enum AttributeMix {
+    /**
+     * Counters and gauges only, the most common case.
+     */
+    NUMBERS,
+    /**
+     * Numbers, flags, strings, arrays and dates.
+     */
+    MIXED,
+    /**
+     * Memory usages and system properties, as composite and tabular data.
+     */
+    OPEN_TYPES
+  }
+
+  @Param
+  private AttributeMix mix;
+
+  private DelegatingConverter converter;
+  private Object[] values;
+  private StringBuilder builder;
+
+  @Setup
+  public void setUp() throws JMException {
+    converter = Fixtures.converter();
+    builder = new StringBuilder(1024);
+    switch (mix) {
+      case NUMBERS:
+        values = new Object[]{12345678L, 42, 0.75d, 3.5f, Long.MAX_VALUE, -1, 1e-9d, 0L};
+        break;
+      case MIXED:
+        values = new Object[]{12345678L, 0.75d, true, "RUNNABLE", new String[]{"a", "b", "c"}, new Date(0), 42,
+            "jdbc:h2:mem:test"};
+        break;
+      default:
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        values = new Object[]{
+            server.getAttribute(new ObjectName("java.lang:type=Memory"), "HeapMemoryUsage"),
+            server.getAttribute(new ObjectName("java.lang:type=Memory"), "NonHeapMemoryUsage"),
+            server.getAttribute(new ObjectName("java.lang:type=Runtime"), "SystemProperties")};
+    }
+  }
+
+  @Benchmark
+  public void convert(Blackhole blackhole) {
+    for (Object value : values) {
+      blackhole.consume(converter.convert(value));
+    }
+  }
+
+  @Benchmark
+  public int append() {
+    builder.setLength(0);
+    for (Object value : values) {
+      converter.append(value, builder);
+    }
+    return builder.length();
+  }
+}
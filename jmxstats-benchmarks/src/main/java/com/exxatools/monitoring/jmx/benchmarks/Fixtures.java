@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import com.exxatools.monitoring.jmx.JmxStatsLauncher;
+import com.exxatools.monitoring.jmx.converters.*;
+import com.exxatools.monitoring.jmx.output.ChannelOutputSink;
+import com.exxatools.monitoring.jmx.output.OutputSink;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The objects shared by the benchmarks, set up the same way as the tool does.
+ *
+ * @author Malte Franken
+ */
+final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  /**
+   * Create the converter the tool uses for attribute values, with the same converters in the same order as the
+   * Spring configuration and the plain launcher.
+   *
+   * @return the delegating converter
+   */
+  static DelegatingConverter converter() {
+    return JmxStatsLauncher.createConverter();
+  }
+
+  /**
+   * Create the converter the tool uses for maps.
+   *
+   * @param valueConverter the converter for the values of the map
+   * @return the map converter
+   */
+  static GenericMapConverter mapConverter(Converter<Object> valueConverter) {
+    GenericMapConverter mapConverter = new GenericMapConverter();
+    mapConverter.setKeyConverter(new DefaultConverter());
+    mapConverter.setValueConverter(valueConverter);
+    return mapConverter;
+  }
+
+  /**
+   * Create a sink that encodes and buffers the output like the tool does, and then throws it away.
+   *
+   * @return the sink
+   */
+  static OutputSink discardingSink() {
+    return new ChannelOutputSink(new DiscardingChannel(), true, ChannelOutputSink.DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * A channel accepting and dropping everything written to it.
+   */
+  private static class DiscardingChannel implements WritableByteChannel {
+    private boolean open = true;
+
+    public int write(ByteBuffer buffer) {
+      int length = buffer.remaining();
+      buffer.position(buffer.limit());
+      return length;
+    }
+
+    public boolean isOpen() {
+      return open;
+    }
+
+    public void close() {
+      open = false;
+    }
+  }
+}
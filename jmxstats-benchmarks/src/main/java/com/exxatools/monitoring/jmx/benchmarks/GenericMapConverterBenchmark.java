@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import com.exxatools.monitoring.jmx.converters.GenericMapConverter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts maps of counters by name, from a handful of entries up to the size of a large cache's statistics.
+ *
+ * @author Malte Franken
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenericMapConverterBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  private int size;
+
+  private GenericMapConverter converter;
+  private Map<Object, Object> map;
+
+  @Setup
+  public void setUp() {
+    converter = Fixtures.mapConverter(Fixtures.converter());
+    map = new HashMap<Object, Object>();
+    for (int i = 0; i < size; i++) {
+      map.put("entry-" + i, (long) i * 31);
+    }
+  }
+
+  @Benchmark
+  public String convert() {
+    return converter.convert(map);
+  }
+}
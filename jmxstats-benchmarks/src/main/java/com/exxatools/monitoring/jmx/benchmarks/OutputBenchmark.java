@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import com.exxatools.monitoring.jmx.output.OutputFormatType;
+import org.openjdk.jmh.annotations.*;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates and outputs rows of already read attribute values, that is everything of a sample but reading from the
+ * MBean server.
+ *
+ * @author Malte Franken
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+
+  @Param
+  private OutputFormatType format;
+
+  /**
+   * Plain attributes only, or counters as rates as well.
+   */
+  @Param({"a0,a1,a2,a3,a4,a5,a6,a7", "a0,rate(a1),a2,delta(a3),a4,a5,a6,a7"})
+  private String columns;
+
+  private BenchmarkJmxStats jmxStats;
+  private ObjectName name;
+  private List<Object> attributeValues;
+  private long timeSinceStart;
+
+  @Setup
+  public void setUp() throws Exception {
+    name = new ObjectName("com.exxatools.jmxstats.benchmark:type=Synthetic,name=output");
+    jmxStats = new BenchmarkJmxStats();
+    jmxStats.setObjectName(name.toString());
+    jmxStats.setAttributeName(columns);
+    jmxStats.setShowTimestamp(true);
+    jmxStats.setConverter(Fixtures.converter());
+    jmxStats.setOutputFormat(format.create());
+    jmxStats.setOutputSink(Fixtures.discardingSink());
+    jmxStats.header();
+    attributeValues = new ArrayList<Object>();
+    attributeValues.add(12345678L);
+    attributeValues.add(987654L);
+    attributeValues.add(0.75d);
+    attributeValues.add(4711L);
+    attributeValues.add(true);
+    attributeValues.add("RUNNABLE");
+    attributeValues.add(42);
+    attributeValues.add(1e-3d);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    jmxStats.close();
+  }
+
+  @Benchmark
+  public void row() throws IOException {
+    timeSinceStart += 1000000000L;
+    // counters have to grow, otherwise every row is a reset
+    attributeValues.set(1, timeSinceStart);
+    attributeValues.set(3, timeSinceStart >> 10);
+    jmxStats.row(timeSinceStart, name, attributeValues);
+  }
+}
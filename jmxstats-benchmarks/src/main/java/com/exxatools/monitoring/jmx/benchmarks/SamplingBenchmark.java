@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import com.exxatools.monitoring.jmx.output.OutputFormatType;
+import org.openjdk.jmh.annotations.*;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples synthetic MBeans registered in the platform MBean server end to end: querying the matching names, reading
+ * the attributes, calculating and outputting the rows. The MBean server is read in-process, so the benchmark measures
+ * the tool rather than the network.
+ *
+ * @author Malte Franken
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplingBenchmark {
+  private static final String DOMAIN = "com.exxatools.jmxstats.benchmark";
+
+  /**
+   * The number of MBeans matching the object name pattern.
+   */
+  @Param({"1", "100"})
+  private int mbeans;
+
+  @Param({"TEXT", "BINARY"})
+  private OutputFormatType format;
+
+  private BenchmarkJmxStats jmxStats;
+  private long timeSinceStart;
+
+  @Setup
+  public void setUp() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (int i = 0; i < mbeans; i++) {
+      server.registerMBean(new Synthetic("synthetic-" + i), new ObjectName(DOMAIN + ":type=Synthetic,name=" + i));
+    }
+    // no service URL, so the platform MBean server is read directly
+    jmxStats = new BenchmarkJmxStats();
+    jmxStats.setObjectName(DOMAIN + ":type=Synthetic,*");
+    jmxStats.setAttributeName("Name,RequestCount,rate(RequestCount),ErrorRate,ActiveThreads,Enabled,HeapUsage.used,"
+        + "RequestsByStatus");
+    jmxStats.setShowTimestamp(true);
+    jmxStats.setConverter(Fixtures.converter());
+    jmxStats.setOutputFormat(format.create());
+    jmxStats.setOutputSink(Fixtures.discardingSink());
+    jmxStats.header();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException, JMException {
+    jmxStats.close();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : server.queryNames(new ObjectName(DOMAIN + ":*"), null)) {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Benchmark
+  public void sample() throws Exception {
+    timeSinceStart += 1000000000L;
+    jmxStats.sample(timeSinceStart);
+  }
+}
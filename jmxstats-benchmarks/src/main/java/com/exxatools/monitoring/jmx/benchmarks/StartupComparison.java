@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import com.exxatools.monitoring.jmx.JmxStatsLauncher;
+import org.springframework.shell.Bootstrap;
+
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the startup of the Spring Shell launcher with the plain {@link JmxStatsLauncher}: the time from starting a
+ * JVM until it has output its first sample, and the resident memory of the JVM at that moment. Both sample this
+ * process through a connector server started for the comparison, so no other JVM is needed. Process startup is out
+ * of reach of JMH, so this is a plain program, run after <code>mvn package</code> with
+ * <pre>
+ * java -cp jmxstats-benchmarks/target/benchmarks.jar com.exxatools.monitoring.jmx.benchmarks.StartupComparison [runs]
+ * </pre>
+ * The medians of all runs are reported, after one run to warm up the file system cache. The resident memory is read
+ * from <code>/proc</code>, it is only reported on Linux with Java 9 or later.
+ *
+ * @author Malte Franken
+ */
+public class StartupComparison {
+
+  private static final int DEFAULT_RUNS = 5;
+
+  /**
+   * A line containing a sample of the uptime.
+   */
+  private static final Pattern SAMPLE = Pattern.compile("[0-9]+");
+
+  public static void main(String[] args) throws Exception {
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RUNS;
+    int port = getFreePort();
+    LocateRegistry.createRegistry(port);
+    JMXServiceURL serviceUrl = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + port + "/jmxrmi");
+    JMXConnectorServer server = JMXConnectorServerFactory.newJMXConnectorServer(serviceUrl, null, ManagementFactory.getPlatformMBeanServer());
+    server.start();
+    try {
+      // both keep sampling, so that their memory can be read once the first sample is out
+      String options = "--serviceUrl " + serviceUrl + " --objectName java.lang:type=Runtime --attributeName Uptime --interval 1000";
+      List<String> shell = getCommand(Bootstrap.class.getName(), "stats " + options);
+      List<String> plain = getCommand(JmxStatsLauncher.class.getName(), options.split(" "));
+      Result shellResult = measure(shell, runs);
+      Result plainResult = measure(plain, runs);
+      System.out.println(String.format(Locale.ROOT, "%-14s %14s %10s", "Launcher", "Startup (ms)", "RSS (MB)"));
+      System.out.println(shellResult.format("spring-shell"));
+      System.out.println(plainResult.format("plain"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * Launch a command several times.
+   *
+   * @param command the command
+   * @param runs the number of runs to measure
+   * @return the medians of the runs
+   * @throws IOException in case the command cannot be launched or does not output a sample
+   * @throws InterruptedException if interrupted while waiting for the command to end
+   */
+  private static Result measure(List<String> command, int runs) throws IOException, InterruptedException {
+    launch(command);
+    long[] startupNanos = new long[runs];
+    long[] residentKilobytes = new long[runs];
+    for (int i = 0; i < runs; i++) {
+      long[] launch = launch(command);
+      startupNanos[i] = launch[0];
+      residentKilobytes[i] = launch[1];
+    }
+    return new Result(median(startupNanos), median(residentKilobytes));
+  }
+
+  /**
+   * Launch a command and wait for its first sample, then end it.
+   *
+   * @param command the command
+   * @return the time until the first sample in nanoseconds, and the resident memory in kilobytes or <code>-1</code>
+   * @throws IOException in case the command cannot be launched or does not output a sample
+   * @throws InterruptedException if interrupted while waiting for the command to end
+   */
+  private static long[] launch(List<String> command) throws IOException, InterruptedException {
+    File errors = File.createTempFile("startup", ".err");
+    errors.deleteOnExit();
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command).redirectError(errors).start();
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (SAMPLE.matcher(line.trim()).matches()) {
+          long startupNanos = System.nanoTime() - start;
+          return new long[]{startupNanos, getResidentKilobytes(process)};
+        }
+      }
+      throw new IOException("No sample from " + command + ", see " + errors);
+    } finally {
+      process.destroy();
+      process.waitFor();
+    }
+  }
+
+  /**
+   * Get the command launching a main class in a new JVM with the class path of this one.
+   *
+   * @param mainClass the name of the main class
+   * @param args the arguments
+   * @return the command
+   */
+  private static List<String> getCommand(String mainClass, String... args) {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(mainClass);
+    command.addAll(Arrays.asList(args));
+    return command;
+  }
+
+  /**
+   * Read the resident memory of a process.
+   *
+   * @param process the process
+   * @return the resident memory in kilobytes, or <code>-1</code> if unknown
+   */
+  private static long getResidentKilobytes(Process process) {
+    try {
+      // the process id is only available from Java 9 on
+      Object pid = Process.class.getMethod("pid").invoke(process);
+      BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/status"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith("VmRSS:")) {
+            return Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim());
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (Exception e) {
+      // not on Linux, or not on Java 9 or later
+    }
+    return -1;
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  private static int getFreePort() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * The medians of the runs of a launcher.
+   */
+  private static class Result {
+    private final long startupNanos;
+    private final long residentKilobytes;
+
+    private Result(long startupNanos, long residentKilobytes) {
+      this.startupNanos = startupNanos;
+      this.residentKilobytes = residentKilobytes;
+    }
+
+    private String format(String launcher) {
+      return String.format(Locale.ROOT, "%-14s %14.0f %10s", launcher, startupNanos / (double) TimeUnit.MILLISECONDS.toNanos(1),
+          residentKilobytes >= 0 ? String.format(Locale.ROOT, "%.1f", residentKilobytes / 1024d) : "n/a");
+    }
+  }
+}
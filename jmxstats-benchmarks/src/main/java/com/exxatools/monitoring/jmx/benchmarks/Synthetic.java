@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A synthetic MBean, its counters change with every read so that derived columns have something to compute.
+ *
+ * @author Malte Franken
+ */
+public class Synthetic implements SyntheticMXBean {
+  private final String name;
+  private long requestCount;
+
+  public Synthetic(String name) {
+    this.name = name;
+  }
+
+  public long getRequestCount() {
+    return requestCount += 17;
+  }
+
+  public double getErrorRate() {
+    return (requestCount % 1000) / 1000d;
+  }
+
+  public int getActiveThreads() {
+    return (int) (requestCount % 64);
+  }
+
+  public boolean isEnabled() {
+    return true;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public MemoryUsage getHeapUsage() {
+    return new MemoryUsage(64L << 20, (128L << 20) + requestCount, 256L << 20, 1024L << 20);
+  }
+
+  public Map<String, Long> getRequestsByStatus() {
+    Map<String, Long> requestsByStatus = new LinkedHashMap<String, Long>();
+    requestsByStatus.put("200", requestCount);
+    requestsByStatus.put("404", requestCount / 20);
+    requestsByStatus.put("500", requestCount / 100);
+    return requestsByStatus;
+  }
+}
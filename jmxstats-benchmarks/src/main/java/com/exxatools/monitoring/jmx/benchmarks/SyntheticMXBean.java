@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.benchmarks;
+
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+
+/**
+ * The attributes of a synthetic MBean, a mix of the types commonly found on real MBeans. As an MXBean, the memory
+ * usage is read as composite data and the map as tabular data.
+ *
+ * @author Malte Franken
+ */
+public interface SyntheticMXBean {
+  long getRequestCount();
+
+  double getErrorRate();
+
+  int getActiveThreads();
+
+  boolean isEnabled();
+
+  String getName();
+
+  MemoryUsage getHeapUsage();
+
+  Map<String, Long> getRequestsByStatus();
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import javax.management.ObjectName;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stretches the sampling interval while the target is under stress, and tightens it again when the target recovers.
+ * <p/>
+ * Stress is detected from the latency of fetching the attributes: a target is considered stressed if the smoothed
+ * latency has grown to more than {@link #STRESS_FACTOR} times its baseline, or if fetching takes more than
+ * {@link #MAXIMUM_DUTY_CYCLE} of the interval. The baseline follows the lowest latencies seen and only creeps up
+ * slowly, so that a lasting change of the network does not count as stress forever. While stressed the interval
+ * doubles with each sample up to the maximum, once recovered it shrinks by a quarter with each sample down to the
+ * minimum.
+ * <p/>
+ * Optionally one column is watched: as soon as its value changes by more than the {@link #changeThreshold} between two
+ * samples of the same MBean, the interval drops to the minimum to get a fine resolution of what is going on.
+ *
+ * @author Malte Franken
+ */
+public class AdaptiveInterval {
+
+  /**
+   * The default relative change of the watched column that tightens the interval.
+   */
+  public static final double DEFAULT_CHANGE_THRESHOLD = 0.1;
+
+  /**
+   * How much the smoothed latency may exceed the baseline before the target is considered stressed.
+   */
+  private static final double STRESS_FACTOR = 2;
+
+  /**
+   * How close to the baseline the smoothed latency has to be for the target to be considered recovered.
+   */
+  private static final double RECOVERY_FACTOR = 1.25;
+
+  /**
+   * The largest share of the interval fetching may take.
+   */
+  private static final double MAXIMUM_DUTY_CYCLE = 0.25;
+
+  /**
+   * The number of samples to take before adapting, the first samples are slow while the connection warms up.
+   */
+  private static final int WARMUP_SAMPLES = 5;
+
+  /**
+   * Latencies below this are never considered stress, as they are dominated by noise. In nanoseconds.
+   */
+  private static final long MINIMUM_STRESS_LATENCY = TimeUnit.MILLISECONDS.toNanos(2);
+
+  /**
+   * The shortest interval, the interval while nothing is wrong. In nanoseconds.
+   */
+  private final long minimumNanos;
+
+  /**
+   * The longest interval. In nanoseconds.
+   */
+  private final long maximumNanos;
+
+  /**
+   * The relative change of the watched column that tightens the interval.
+   */
+  private double changeThreshold = DEFAULT_CHANGE_THRESHOLD;
+
+  /**
+   * The current interval. In nanoseconds.
+   */
+  private long intervalNanos;
+
+  /**
+   * The number of samples taken so far, up to {@link #WARMUP_SAMPLES}.
+   */
+  private int samples;
+
+  /**
+   * The fetch latency of a healthy target. In nanoseconds.
+   */
+  private double baselineNanos;
+
+  /**
+   * The exponentially smoothed fetch latency. In nanoseconds.
+   */
+  private double smoothedNanos;
+
+  /**
+   * The last value of the watched column by MBean.
+   */
+  private final Map<ObjectName, Double> watchedValues = new HashMap<ObjectName, Double>();
+
+  /**
+   * Whether the watched column has changed quickly during the current sample.
+   */
+  private boolean changed;
+
+  public AdaptiveInterval(long minimumNanos, long maximumNanos) {
+    if (minimumNanos <= 0 || maximumNanos < minimumNanos) {
+      throw new IllegalArgumentException("Invalid interval range: " + minimumNanos + " to " + maximumNanos);
+    }
+    this.minimumNanos = minimumNanos;
+    this.maximumNanos = maximumNanos;
+    this.intervalNanos = minimumNanos;
+  }
+
+  public void setChangeThreshold(double changeThreshold) {
+    this.changeThreshold = changeThreshold;
+  }
+
+  public long getIntervalNanos() {
+    return intervalNanos;
+  }
+
+  /**
+   * Observe a value of the watched column.
+   *
+   * @param name the MBean the value has been read from
+   * @param value the value, anything but numbers is ignored
+   */
+  public void watch(ObjectName name, Object value) {
+    if (!(value instanceof Number)) {
+      return;
+    }
+    double current = ((Number) value).doubleValue();
+    Double previous = watchedValues.put(name, current);
+    if (previous != null && Math.abs(current - previous) > changeThreshold * Math.abs(previous)) {
+      changed = true;
+    }
+  }
+
+  /**
+   * Forget the watched values of MBeans that have gone.
+   *
+   * @param names the MBeans still present
+   */
+  public void retainAll(Set<ObjectName> names) {
+    if (watchedValues.size() > names.size()) {
+      watchedValues.keySet().retainAll(names);
+    }
+  }
+
+  /**
+   * Adapt the interval to the latest sample.
+   *
+   * @param fetchNanos how long fetching the attributes took
+   * @return the interval until the next sample, in nanoseconds
+   */
+  public long sampled(long fetchNanos) {
+    if (samples < WARMUP_SAMPLES) {
+      samples++;
+      baselineNanos = fetchNanos;
+      smoothedNanos = fetchNanos;
+      changed = false;
+      return intervalNanos;
+    }
+    // follow falling latencies faster than rising ones, so that a recovery is noticed soon
+    smoothedNanos += (fetchNanos - smoothedNanos) / (fetchNanos < smoothedNanos ? 2 : 4);
+    baselineNanos = fetchNanos < baselineNanos ? fetchNanos : baselineNanos + (fetchNanos - baselineNanos) / 64;
+    boolean stressed = smoothedNanos > MINIMUM_STRESS_LATENCY
+        && (smoothedNanos > STRESS_FACTOR * baselineNanos || smoothedNanos > MAXIMUM_DUTY_CYCLE * intervalNanos);
+    if (stressed) {
+      // back off even if the watched column is changing, the target has to come first
+      intervalNanos = Math.min(maximumNanos, intervalNanos * 2);
+    } else if (changed) {
+      intervalNanos = minimumNanos;
+    } else if (smoothedNanos <= RECOVERY_FACTOR * baselineNanos || smoothedNanos <= MINIMUM_STRESS_LATENCY) {
+      intervalNanos = Math.max(minimumNanos, intervalNanos - intervalNanos / 4);
+    }
+    changed = false;
+    return intervalNanos;
+  }
+
+  /**
+   * Adapt the interval to a failed sample, a target that does not answer is stressed.
+   *
+   * @return the interval until the next sample, in nanoseconds
+   */
+  public long failed() {
+    changed = false;
+    intervalNanos = Math.min(maximumNanos, intervalNanos * 2);
+    return intervalNanos;
+  }
+}
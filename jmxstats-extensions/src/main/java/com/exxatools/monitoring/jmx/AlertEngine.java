@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import com.exxatools.monitoring.jmx.output.OutputFormat;
+import com.exxatools.monitoring.jmx.output.OutputSink;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates alert rules on each row as it is sampled, and writes a row to a dedicated sink whenever an alert fires or
+ * resolves. Each rule is tracked separately per MBean. An alert fires once its condition has held for the number of
+ * samples and the duration of the rule, and resolves on the first sample the condition no longer holds. A sample
+ * without a value for a rule, e.g. a missing attribute or a zero divisor, leaves the state of the rule unchanged.
+ * <p/>
+ * The alerts of several targets may share a sink and format, the rows contain the {@link #COLUMNS}. The time is the
+ * unix time in milliseconds.
+ *
+ * @author Malte Franken
+ */
+public class AlertEngine {
+
+  /**
+   * The columns of the alert rows.
+   */
+  public static final String[] COLUMNS = {"time", "target", "objectName", "state", "rule", "value"};
+
+  public static final String FIRING = "FIRING";
+
+  public static final String RESOLVED = "RESOLVED";
+
+  private final List<AlertRule> rules;
+
+  private final String targetName;
+
+  private final OutputSink sink;
+
+  private final OutputFormat format;
+
+  /**
+   * The state of each rule by MBean, in the order of the rules.
+   */
+  private final Map<ObjectName, AlertState[]> states = new HashMap<ObjectName, AlertState[]>();
+
+  private final Object[] cells = new Object[COLUMNS.length];
+
+  public AlertEngine(List<AlertRule> rules, String targetName, OutputSink sink, OutputFormat format) {
+    this.rules = rules;
+    this.targetName = targetName;
+    this.sink = sink;
+    this.format = format;
+  }
+
+  /**
+   * Get the sink the alerts are written to, may be shared with other targets.
+   *
+   * @return the alert sink
+   */
+  public OutputSink getSink() {
+    return sink;
+  }
+
+  /**
+   * Evaluate all rules on a row.
+   *
+   * @param name the MBean the row has been read from
+   * @param values the values of the row, one per column
+   * @param nowNanos the time the values have been read, as returned by {@link System#nanoTime()}
+   * @throws IOException in case an alert cannot be written
+   */
+  public void evaluate(ObjectName name, Object[] values, long nowNanos) throws IOException {
+    AlertState[] ruleStates = states.get(name);
+    if (ruleStates == null) {
+      ruleStates = new AlertState[rules.size()];
+      for (int i = 0; i < ruleStates.length; i++) {
+        ruleStates[i] = new AlertState();
+      }
+      states.put(name, ruleStates);
+    }
+    for (int i = 0; i < ruleStates.length; i++) {
+      AlertRule rule = rules.get(i);
+      AlertState state = ruleStates[i];
+      double value = rule.getValue(values);
+      if (Double.isNaN(value)) {
+        // no information, e.g. an attribute that could not be read, keep the state until the next value
+        continue;
+      }
+      if (rule.test(value)) {
+        if (state.samples++ == 0) {
+          state.sinceNanos = nowNanos;
+        }
+        if (!state.firing && state.samples >= rule.getSamples() && nowNanos - state.sinceNanos >= rule.getDurationNanos()) {
+          state.firing = true;
+          write(name, FIRING, rule, value);
+        }
+      } else {
+        state.samples = 0;
+        if (state.firing) {
+          state.firing = false;
+          write(name, RESOLVED, rule, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Forget the state of MBeans that have gone, their alerts neither fire nor resolve anymore.
+   *
+   * @param names the MBeans still present
+   */
+  public void retainAll(Set<ObjectName> names) {
+    if (states.size() > names.size()) {
+      states.keySet().retainAll(names);
+    }
+  }
+
+  /**
+   * Write any alerts held back by the format and close the sink.
+   *
+   * @throws IOException in case the alerts cannot be written
+   */
+  public void close() throws IOException {
+    format.finish(sink);
+    sink.close();
+  }
+
+  private void write(ObjectName name, String state, AlertRule rule, double value) throws IOException {
+    cells[0] = System.currentTimeMillis();
+    cells[1] = targetName;
+    cells[2] = name;
+    cells[3] = state;
+    cells[4] = rule.getName();
+    cells[5] = value;
+    format.writeRow(COLUMNS, cells, sink);
+    sink.flush();
+  }
+
+  /**
+   * The state of a rule for a single MBean.
+   */
+  private static class AlertState {
+    /**
+     * The number of consecutive samples the condition has held for.
+     */
+    private long samples;
+
+    /**
+     * When the condition started to hold, in nanoseconds.
+     */
+    private long sinceNanos;
+
+    private boolean firing;
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled alert rule, a condition on the numeric values of one or two columns of a row, e.g.
+ * <code>Usage.used / Usage.max &gt; 90% for 3</code>. The columns are resolved to their indexes once, so that
+ * evaluating a rule does not involve any parsing. Rates of change are expressed through
+ * <code>rate(...)</code> or <code>delta(...)</code> columns.
+ * <p/>
+ * Syntax: <code>column [/ column] operator number[%] [for count | for duration(s|ms)]</code>, where the operator is one
+ * of <code>&gt; &gt;= &lt; &lt;= == !=</code>. A condition has to hold for the given number of consecutive samples,
+ * or for the given duration, before the alert fires. Without <code>for</code> it fires on the first sample.
+ *
+ * @author Malte Franken
+ */
+public class AlertRule {
+
+  private static final Pattern RULE = Pattern.compile(
+      "(.+?)\\s*(>=|<=|==|!=|>|<)\\s*([-+]?[0-9]*\\.?[0-9]+(?:[eE][-+]?[0-9]+)?)(%?)(?:\\s+for\\s+([0-9]+)\\s*(s|ms)?)?");
+
+  /**
+   * The comparison operators.
+   */
+  private enum Operator {
+    GREATER(">") {
+      boolean test(double value, double threshold) {
+        return value > threshold;
+      }
+    },
+    GREATER_OR_EQUAL(">=") {
+      boolean test(double value, double threshold) {
+        return value >= threshold;
+      }
+    },
+    LESS("<") {
+      boolean test(double value, double threshold) {
+        return value < threshold;
+      }
+    },
+    LESS_OR_EQUAL("<=") {
+      boolean test(double value, double threshold) {
+        return value <= threshold;
+      }
+    },
+    EQUAL("==") {
+      boolean test(double value, double threshold) {
+        return value == threshold;
+      }
+    },
+    NOT_EQUAL("!=") {
+      boolean test(double value, double threshold) {
+        return value != threshold;
+      }
+    };
+
+    private final String symbol;
+
+    Operator(String symbol) {
+      this.symbol = symbol;
+    }
+
+    abstract boolean test(double value, double threshold);
+
+    static Operator of(String symbol) {
+      for (Operator operator : values()) {
+        if (operator.symbol.equals(symbol)) {
+          return operator;
+        }
+      }
+      throw new IllegalArgumentException("Unknown operator " + symbol);
+    }
+  }
+
+  /**
+   * The rule as written, used as the name of its alerts.
+   */
+  private final String name;
+
+  /**
+   * The index of the column to compare.
+   */
+  private final int column;
+
+  /**
+   * The index of the column to divide by, or <code>-1</code>.
+   */
+  private final int divisorColumn;
+
+  private final Operator operator;
+
+  private final double threshold;
+
+  /**
+   * The number of consecutive samples the condition has to hold for.
+   */
+  private final int samples;
+
+  /**
+   * How long the condition has to hold for. In nanoseconds.
+   */
+  private final long durationNanos;
+
+  private AlertRule(String name, int column, int divisorColumn, Operator operator, double threshold, int samples, long durationNanos) {
+    this.name = name;
+    this.column = column;
+    this.divisorColumn = divisorColumn;
+    this.operator = operator;
+    this.threshold = threshold;
+    this.samples = samples;
+    this.durationNanos = durationNanos;
+  }
+
+  /**
+   * Compile a rule against the columns it refers to.
+   *
+   * @param rule the rule
+   * @param columns the columns of the rows the rule is evaluated on
+   * @return the compiled rule
+   * @throws IllegalArgumentException in case the rule is malformed or refers to an unknown column
+   */
+  public static AlertRule compile(String rule, ColumnDefinition[] columns) {
+    String name = rule.trim();
+    Matcher matcher = RULE.matcher(name);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Alert rule malformed: " + name);
+    }
+    String[] operands = StringUtils.split(matcher.group(1), '/');
+    if (operands.length > 2) {
+      throw new IllegalArgumentException("Alert rule may divide two columns at most: " + name);
+    }
+    int column = getColumnIndex(operands[0].trim(), columns, name);
+    int divisorColumn = operands.length == 2 ? getColumnIndex(operands[1].trim(), columns, name) : -1;
+    double threshold = Double.parseDouble(matcher.group(3));
+    if (!matcher.group(4).isEmpty()) {
+      threshold /= 100;
+    }
+    int samples = 1;
+    long durationNanos = 0;
+    if (matcher.group(5) != null) {
+      long count = Long.parseLong(matcher.group(5));
+      if (matcher.group(6) == null) {
+        samples = (int) Math.max(1, Math.min(count, Integer.MAX_VALUE));
+      } else {
+        durationNanos = "s".equals(matcher.group(6)) ? TimeUnit.SECONDS.toNanos(count) : TimeUnit.MILLISECONDS.toNanos(count);
+      }
+    }
+    return new AlertRule(name, column, divisorColumn, Operator.of(matcher.group(2)), threshold, samples, durationNanos);
+  }
+
+  /**
+   * Compile several rules.
+   *
+   * @param rules the rules, separated by commas
+   * @param columns the columns of the rows the rules are evaluated on
+   * @return the compiled rules
+   * @throws IllegalArgumentException in case a rule is malformed or refers to an unknown column
+   */
+  public static List<AlertRule> compileAll(String rules, ColumnDefinition[] columns) {
+    List<AlertRule> compiled = new ArrayList<AlertRule>();
+    for (String rule : StringUtils.split(rules, ',')) {
+      if (!rule.trim().isEmpty()) {
+        compiled.add(compile(rule, columns));
+      }
+    }
+    return compiled;
+  }
+
+  private static int getColumnIndex(String columnName, ColumnDefinition[] columns, String rule) {
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i].getName().equals(columnName)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Alert rule refers to unknown column " + columnName + ": " + rule);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getSamples() {
+    return samples;
+  }
+
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * Get the value the rule compares.
+   *
+   * @param values the values of a row, one per column
+   * @return the value, or {@link Double#NaN} if a column is not numeric or missing, or the divisor is zero
+   */
+  public double getValue(Object[] values) {
+    double value = toDouble(values[column]);
+    if (divisorColumn < 0) {
+      return value;
+    }
+    double divisor = toDouble(values[divisorColumn]);
+    return divisor == 0 ? Double.NaN : value / divisor;
+  }
+
+  /**
+   * Check the condition against a value, a value that is not a number never meets the condition.
+   *
+   * @param value the value as returned by {@link #getValue(Object[])}
+   * @return whether the condition holds
+   */
+  public boolean test(double value) {
+    return !Double.isNaN(value) && operator.test(value, threshold);
+  }
+
+  private static double toDouble(Object value) {
+    return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
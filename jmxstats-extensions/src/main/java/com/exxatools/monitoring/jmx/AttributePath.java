@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularType;
+import java.util.Map;
+
+/**
+ * A path into the value of an attribute, like <code>used</code> in <code>HeapMemoryUsage.used</code>. The path is
+ * compiled once, resolving it against a value does not parse or allocate anything. Each element of the path selects
+ * an item of {@link CompositeData}, a row of {@link TabularData} by its index, or an entry of a {@link Map}. Rows with
+ * just a key and a value, as used for maps by MXBeans, resolve to the value directly. As keys of such rows often
+ * contain dots themselves, the longest matching key is tried first.
+ *
+ * @author Malte Franken
+ */
+public class AttributePath {
+
+  /**
+   * The name of the value item of rows representing map entries.
+   */
+  private static final String VALUE_ITEM = "value";
+
+  /**
+   * The path as written.
+   */
+  private final String path;
+
+  /**
+   * The elements of the path.
+   */
+  private final String[] elements;
+
+  /**
+   * The elements from one index to another joined by dots, as index of a {@link TabularData} row. Prepared once, so
+   * that looking up a row does not allocate.
+   */
+  private final Object[][][] rowIndexes;
+
+  private AttributePath(String path, String[] elements) {
+    this.path = path;
+    this.elements = elements;
+    this.rowIndexes = new Object[elements.length][elements.length][];
+    for (int from = 0; from < elements.length; from++) {
+      StringBuilder key = new StringBuilder();
+      for (int to = from; to < elements.length; to++) {
+        if (to > from) {
+          key.append('.');
+        }
+        key.append(elements[to]);
+        rowIndexes[from][to] = new Object[]{key.toString()};
+      }
+    }
+  }
+
+  /**
+   * Compile a path.
+   *
+   * @param path the elements of the path separated by dots
+   * @return the compiled path
+   * @throws IllegalArgumentException in case the path contains an empty element
+   */
+  public static AttributePath compile(String path) {
+    String[] elements = path.split("\\.", -1);
+    for (String element : elements) {
+      if (element.isEmpty()) {
+        throw new IllegalArgumentException("Empty element in attribute path " + path);
+      }
+    }
+    return new AttributePath(path, elements);
+  }
+
+  /**
+   * Resolve the path against an attribute value.
+   *
+   * @param value the attribute value
+   * @return the value the path points to, or <code>null</code> if the path does not exist in the value
+   */
+  public Object resolve(Object value) {
+    return resolve(value, 0);
+  }
+
+  private Object resolve(Object value, int from) {
+    if (from == elements.length || value == null) {
+      return value;
+    }
+    if (value instanceof CompositeData) {
+      CompositeData compositeData = (CompositeData) value;
+      return compositeData.containsKey(elements[from]) ? resolve(compositeData.get(elements[from]), from + 1) : null;
+    }
+    if (value instanceof TabularData) {
+      TabularData tabularData = (TabularData) value;
+      if (tabularData.getTabularType().getIndexNames().size() != 1) {
+        return null;
+      }
+      for (int to = elements.length - 1; to >= from; to--) {
+        Object[] rowIndex = rowIndexes[from][to];
+        if (tabularData.containsKey(rowIndex)) {
+          CompositeData row = tabularData.get(rowIndex);
+          if (to == elements.length - 1 && row.getCompositeType().keySet().size() == 2 && row.containsKey(VALUE_ITEM)) {
+            return row.get(VALUE_ITEM);
+          }
+          return resolve(row, to + 1);
+        }
+      }
+      return null;
+    }
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      for (int to = elements.length - 1; to >= from; to--) {
+        Object key = rowIndexes[from][to][0];
+        if (map.containsKey(key)) {
+          return resolve(map.get(key), to + 1);
+        }
+      }
+      return null;
+    }
+    return null;
+  }
+
+  /**
+   * Resolve the path against the open type of an attribute, to tell the type of the values the path points to before
+   * any value has been read.
+   *
+   * @param type the open type of the attribute, or <code>null</code> if unknown
+   * @return the open type the path points to, or <code>null</code> if it cannot be told from the type alone
+   */
+  public OpenType<?> resolveType(OpenType<?> type) {
+    return resolveType(type, 0);
+  }
+
+  private OpenType<?> resolveType(OpenType<?> type, int from) {
+    if (from == elements.length || type == null) {
+      return type;
+    }
+    if (type instanceof CompositeType) {
+      CompositeType compositeType = (CompositeType) type;
+      return compositeType.containsKey(elements[from]) ? resolveType(compositeType.getType(elements[from]), from + 1) : null;
+    }
+    if (type instanceof TabularType) {
+      // which elements form the row index depends on the rows, unless the rows are map entries of simple values
+      CompositeType rowType = ((TabularType) type).getRowType();
+      if (rowType.keySet().size() == 2 && rowType.containsKey(VALUE_ITEM)
+          && !(rowType.getType(VALUE_ITEM) instanceof CompositeType || rowType.getType(VALUE_ITEM) instanceof TabularType)) {
+        return rowType.getType(VALUE_ITEM);
+      }
+      return null;
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and many consumers, after Dmitry Vyukov's bounded MPMC queue. Each
+ * slot carries a sequence number telling producers and consumers whether it is their turn, so neither side ever
+ * blocks: {@link #offer(Object)} fails if the queue is full, {@link #poll()} returns <code>null</code> if it is empty.
+ *
+ * @author Malte Franken
+ */
+public class BoundedQueue<E> {
+
+  private final int mask;
+
+  private final AtomicReferenceArray<E> elements;
+
+  /**
+   * The sequence number of each slot. A slot is free for the producer at position <code>p</code> if its sequence is
+   * <code>p</code>, and ready for the consumer at position <code>p</code> if its sequence is <code>p + 1</code>.
+   */
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong producerPosition = new AtomicLong();
+
+  private final AtomicLong consumerPosition = new AtomicLong();
+
+  /**
+   * @param capacity the maximum number of elements, rounded up to the next power of two, at least two
+   */
+  public BoundedQueue(int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity out of range: " + capacity);
+    }
+    // the sequence numbers only work with at least two slots
+    int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<E>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Add an element if there is room.
+   *
+   * @param element the element to add, not <code>null</code>
+   * @return <code>true</code> if added, <code>false</code> if the queue is full
+   */
+  public boolean offer(E element) {
+    if (element == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      long position = producerPosition.get();
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (producerPosition.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          // publishes the element to the consumers
+          sequences.set(index, position + 1);
+          return true;
+        }
+      } else if (difference < 0) {
+        // the slot has not been consumed since the last round
+        return false;
+      }
+      // another producer has taken the slot, try again
+    }
+  }
+
+  /**
+   * Remove the oldest element.
+   *
+   * @return the element, or <code>null</code> if the queue is empty
+   */
+  public E poll() {
+    while (true) {
+      long position = consumerPosition.get();
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - (position + 1);
+      if (difference == 0) {
+        if (consumerPosition.compareAndSet(position, position + 1)) {
+          E element = elements.get(index);
+          elements.lazySet(index, null);
+          // hands the slot to the producers of the next round
+          sequences.set(index, position + mask + 1);
+          return element;
+        }
+      } else if (difference < 0) {
+        // nothing has been published to the slot yet
+        return null;
+      }
+      // another consumer has taken the slot, try again
+    }
+  }
+
+  /**
+   * Get the approximate number of elements, exact only if no other thread is using the queue.
+   *
+   * @return the number of elements
+   */
+  public int size() {
+    long size = producerPosition.get() - consumerPosition.get();
+    return (int) Math.max(0, Math.min(size, mask + 1));
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import java.util.Locale;
+
+/**
+ * A single column of the statistics, either an attribute name like <code>CollectionCount</code> or a function of an
+ * attribute like <code>rate(CollectionCount)</code>. The attribute name may be followed by a dotted path into its
+ * value, like <code>HeapMemoryUsage.used</code>. An attribute name containing dots itself is quoted, in double or
+ * single quotes, like <code>"Cache.Hits"</code> or <code>'Cache.Stats'.hits</code>; the quotes are not part of the
+ * column name.
+ *
+ * @author Malte Franken
+ */
+public class ColumnDefinition {
+
+  /**
+   * The column name as written, used as the header.
+   */
+  private final String name;
+
+  /**
+   * The name of the attribute to read.
+   */
+  private final String attributeName;
+
+  /**
+   * The path into the attribute value, <code>null</code> to output the attribute value as a whole.
+   */
+  private final AttributePath path;
+
+  /**
+   * What to output for the attribute.
+   */
+  private final ColumnFunction function;
+
+  public ColumnDefinition(String name, String attributeName, AttributePath path, ColumnFunction function) {
+    this.name = name;
+    this.attributeName = attributeName;
+    this.path = path;
+    this.function = function;
+  }
+
+  /**
+   * Parse a column definition.
+   *
+   * @param definition an attribute name, or a function of an attribute name like <code>delta(CollectionCount)</code>,
+   *                   each optionally followed by a dotted path like <code>HeapMemoryUsage.used</code>, the attribute
+   *                   name quoted if it contains dots
+   * @return the column definition
+   * @throws IllegalArgumentException in case the function is unknown, a quote is not closed, or the attribute name or
+   *                                  a path element is missing
+   */
+  public static ColumnDefinition parse(String definition) {
+    String name = definition.trim();
+    int open = name.indexOf('(');
+    ColumnFunction function = ColumnFunction.VALUE;
+    String attribute = name;
+    if (open >= 0 && name.endsWith(")")) {
+      attribute = name.substring(open + 1, name.length() - 1).trim();
+      try {
+        function = ColumnFunction.valueOf(name.substring(0, open).trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown function in column " + name);
+      }
+    }
+    String attributeName;
+    String path;
+    char quote = attribute.isEmpty() ? 0 : attribute.charAt(0);
+    if (quote == '"' || quote == '\'') {
+      int close = attribute.indexOf(quote, 1);
+      if (close < 0) {
+        throw new IllegalArgumentException("Unterminated quote in column " + name);
+      }
+      if (close + 1 < attribute.length() && attribute.charAt(close + 1) != '.') {
+        throw new IllegalArgumentException("Dot expected after the quoted attribute name in column " + name);
+      }
+      attributeName = attribute.substring(1, close);
+      path = close + 1 < attribute.length() ? attribute.substring(close + 2) : null;
+      int start = name.indexOf(quote);
+      name = name.substring(0, start) + attributeName + name.substring(start + close + 1);
+    } else {
+      int dot = attribute.indexOf('.');
+      attributeName = dot < 0 ? attribute : attribute.substring(0, dot);
+      path = dot < 0 ? null : attribute.substring(dot + 1);
+    }
+    if (attributeName.isEmpty()) {
+      throw new IllegalArgumentException("Attribute name missing in column " + definition.trim());
+    }
+    return new ColumnDefinition(name, attributeName, path == null ? null : AttributePath.compile(path), function);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getAttributeName() {
+    return attributeName;
+  }
+
+  public AttributePath getPath() {
+    return path;
+  }
+
+  public ColumnFunction getFunction() {
+    return function;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+/**
+ * What a column outputs for the attribute it refers to. Written as <code>function(attribute)</code> in the list of
+ * attribute names, a plain attribute name outputs the raw value. The aggregate functions summarize the numeric values
+ * of an aggregation window.
+ *
+ * @author Malte Franken
+ */
+public enum ColumnFunction {
+  /**
+   * The raw attribute value.
+   */
+  VALUE,
+  /**
+   * The change of a counter since the previous sample.
+   */
+  DELTA,
+  /**
+   * The change of a counter per second, based on the actual time between the previous and the current sample.
+   */
+  RATE,
+  /**
+   * The smallest value of the window.
+   */
+  MIN,
+  /**
+   * The largest value of the window.
+   */
+  MAX,
+  /**
+   * The mean of the values of the window.
+   */
+  MEAN,
+  /**
+   * The median of the values of the window.
+   */
+  P50,
+  /**
+   * The 90th percentile of the values of the window.
+   */
+  P90,
+  /**
+   * The 99th percentile of the values of the window.
+   */
+  P99;
+
+  /**
+   * Whether the function calculates its value from the previous sample.
+   *
+   * @return <code>true</code> for counter functions, <code>false</code> otherwise
+   */
+  public boolean isDerived() {
+    return this == DELTA || this == RATE;
+  }
+
+  /**
+   * Whether the function summarizes the values of an aggregation window.
+   *
+   * @return <code>true</code> for aggregate functions, <code>false</code> otherwise
+   */
+  public boolean isAggregate() {
+    return ordinal() >= MIN.ordinal();
+  }
+}
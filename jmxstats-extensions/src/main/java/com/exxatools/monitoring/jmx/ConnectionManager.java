@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out {@link ManagedConnection}s, one per service URL and credentials. Targets sharing a service URL share a
+ * single connection, which is closed when the last of them has released it.
+ *
+ * @author Malte Franken
+ */
+public class ConnectionManager {
+
+  /**
+   * The default backoff after the first failed attempt to connect, in milliseconds.
+   */
+  public static final long DEFAULT_INITIAL_BACKOFF = 500;
+
+  /**
+   * The default maximum backoff between attempts to connect, in milliseconds.
+   */
+  public static final long DEFAULT_MAXIMUM_BACKOFF = 30000;
+
+  /**
+   * The connections in use, by service URL and credentials.
+   */
+  private final Map<String, ManagedConnection> connections = new HashMap<String, ManagedConnection>();
+
+  private long initialBackoffMilliseconds = DEFAULT_INITIAL_BACKOFF;
+
+  private long maximumBackoffMilliseconds = DEFAULT_MAXIMUM_BACKOFF;
+
+  public void setInitialBackoffMilliseconds(long initialBackoffMilliseconds) {
+    this.initialBackoffMilliseconds = initialBackoffMilliseconds;
+  }
+
+  public void setMaximumBackoffMilliseconds(long maximumBackoffMilliseconds) {
+    this.maximumBackoffMilliseconds = maximumBackoffMilliseconds;
+  }
+
+  /**
+   * Get the connection for a service URL, shared with all other users of the same URL and credentials. Does not
+   * connect yet. Each connection acquired has to be released.
+   *
+   * @param serviceUrl the JMX service URL, or <code>null</code> for the platform MBean server of the JVM running the tool
+   * @param username the JMX username, may be <code>null</code>
+   * @param password the password of the JMX user, may be <code>null</code>
+   * @return the shared connection
+   */
+  public synchronized ManagedConnection acquire(JMXServiceURL serviceUrl, String username, String password) {
+    String key = serviceUrl == null ? "" : serviceUrl + "\n" + username + "\n" + password;
+    ManagedConnection connection = connections.get(key);
+    if (connection == null) {
+      Map<String, Object> environment = new HashMap<String, Object>();
+      if (username != null && password != null) {
+        environment.put(JMXConnector.CREDENTIALS, new String[]{username, password});
+      }
+      connection = new ManagedConnection(this, key, serviceUrl, environment);
+      connections.put(key, connection);
+    }
+    connection.retain();
+    return connection;
+  }
+
+  /**
+   * Release a connection, closes it if it is not used anymore.
+   *
+   * @param connection the connection acquired before
+   */
+  public synchronized void release(ManagedConnection connection) {
+    if (connection.release()) {
+      connections.remove(connection.getKey());
+    }
+  }
+
+  /**
+   * Get the time to wait before the next attempt to connect. The backoff doubles with each failed attempt up to the
+   * maximum, a random jitter of up to half the backoff keeps targets from reconnecting in lockstep.
+   *
+   * @param failedAttempts the number of failed attempts so far
+   * @return the backoff in nanoseconds
+   */
+  long getBackoffNanos(int failedAttempts) {
+    long backoff = initialBackoffMilliseconds << Math.min(failedAttempts - 1, 30);
+    if (backoff <= 0 || backoff > maximumBackoffMilliseconds) {
+      backoff = maximumBackoffMilliseconds;
+    }
+    long jitter = ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    return TimeUnit.MILLISECONDS.toNanos(backoff - jitter);
+  }
+}
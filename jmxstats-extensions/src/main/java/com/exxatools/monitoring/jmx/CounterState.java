@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import com.exxatools.monitoring.jmx.output.ColumnType;
+
+/**
+ * Keeps the previous sample of the counter columns of a single MBean, to calculate deltas and rates. The previous
+ * values are kept in primitive arrays indexed by column, so that no objects are created apart from the result.
+ * A counter that is lower than before is taken as reset to zero, the delta is then the current value.
+ *
+ * @author Malte Franken
+ */
+public class CounterState {
+
+  /**
+   * The previous value of integral counters.
+   */
+  private final long[] previousLongs;
+
+  /**
+   * The previous value of floating point counters.
+   */
+  private final double[] previousDoubles;
+
+  /**
+   * The time of the previous sample in nanoseconds, as returned by {@link System#nanoTime()}.
+   */
+  private final long[] previousNanos;
+
+  /**
+   * Whether there is a previous sample, and whether it was integral or floating point.
+   */
+  private final byte[] previousType;
+
+  private static final byte NONE = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+
+  /**
+   * @param columns the number of columns
+   */
+  public CounterState(int columns) {
+    this.previousLongs = new long[columns];
+    this.previousDoubles = new double[columns];
+    this.previousNanos = new long[columns];
+    this.previousType = new byte[columns];
+  }
+
+  /**
+   * Calculate a derived column value and remember the current value for the next sample.
+   *
+   * @param column the index of the column
+   * @param function {@link ColumnFunction#DELTA} or {@link ColumnFunction#RATE}
+   * @param value the current attribute value
+   * @param nowNanos the time the current value has been read, as returned by {@link System#nanoTime()}
+   * @return the delta as {@link Long} or {@link Double}, the rate per second as {@link Double}, or <code>null</code> if
+   *         there is no previous sample or the value is not a number
+   */
+  public Object derive(int column, ColumnFunction function, Object value, long nowNanos) {
+    return derive(column, function, ColumnType.OTHER, value, nowNanos);
+  }
+
+  /**
+   * Calculate a derived column value of a known type and remember the current value for the next sample.
+   *
+   * @param column the index of the column
+   * @param function {@link ColumnFunction#DELTA} or {@link ColumnFunction#RATE}
+   * @param valueType the type of the attribute values, {@link ColumnType#OTHER} to tell it from the value itself
+   * @param value the current attribute value
+   * @param nowNanos the time the current value has been read, as returned by {@link System#nanoTime()}
+   * @return the delta as {@link Long} or {@link Double}, the rate per second as {@link Double}, or <code>null</code> if
+   *         there is no previous sample or the value is not a number
+   */
+  public Object derive(int column, ColumnFunction function, ColumnType valueType, Object value, long nowNanos) {
+    byte type = previousType[column];
+    long elapsedNanos = nowNanos - previousNanos[column];
+    previousNanos[column] = nowNanos;
+    if (value == null) {
+      previousType[column] = NONE;
+      return null;
+    }
+    if (valueType == ColumnType.LONG
+        || (valueType == ColumnType.OTHER && (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte))) {
+      long current = ((Number) value).longValue();
+      long previous = previousLongs[column];
+      previousLongs[column] = current;
+      previousType[column] = LONG;
+      if (type != LONG) {
+        return null;
+      }
+      long delta = current >= previous ? current - previous : current;
+      if (function == ColumnFunction.DELTA) {
+        return delta;
+      }
+      return rate(delta, elapsedNanos);
+    } else if (valueType == ColumnType.DOUBLE || (valueType == ColumnType.OTHER && (value instanceof Double || value instanceof Float))) {
+      double current = ((Number) value).doubleValue();
+      double previous = previousDoubles[column];
+      previousDoubles[column] = current;
+      previousType[column] = DOUBLE;
+      if (type != DOUBLE) {
+        return null;
+      }
+      double delta = current >= previous ? current - previous : current;
+      if (function == ColumnFunction.DELTA) {
+        return delta;
+      }
+      return rate(delta, elapsedNanos);
+    }
+    previousType[column] = NONE;
+    return null;
+  }
+
+  private static Double rate(double delta, long elapsedNanos) {
+    if (elapsedNanos <= 0) {
+      return null;
+    }
+    return delta * 1000000000d / elapsedNanos;
+  }
+}
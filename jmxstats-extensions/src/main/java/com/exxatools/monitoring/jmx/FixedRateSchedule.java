@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A drift-free fixed-rate schedule based on {@link System#nanoTime()}. Ticks are placed on a fixed grid relative to
+ * the start of the schedule, so that the time taken by a sample does not shift the following ticks. Ticks that have
+ * passed while a sample was running are handled according to the {@link OverrunPolicy}.
+ *
+ * @author Malte Franken
+ */
+public class FixedRateSchedule {
+
+  /**
+   * The time between two ticks in nanoseconds.
+   */
+  private volatile long periodNanos;
+
+  /**
+   * What to do with ticks that have passed.
+   */
+  private final OverrunPolicy overrunPolicy;
+
+  /**
+   * The time of the first tick in nanoseconds.
+   */
+  private long startNanos;
+
+  /**
+   * The time of the next tick in nanoseconds.
+   */
+  private long nextTickNanos;
+
+  /**
+   * The number of ticks that have been dropped.
+   */
+  private volatile long missedTicks = 0;
+
+  /**
+   * The number of ticks that have run at least a whole period late.
+   */
+  private volatile long lateTicks = 0;
+
+  public FixedRateSchedule(long periodNanos, OverrunPolicy overrunPolicy) {
+    if (periodNanos <= 0) {
+      throw new IllegalArgumentException("Period must be positive: " + periodNanos);
+    }
+    this.periodNanos = periodNanos;
+    this.overrunPolicy = overrunPolicy;
+  }
+
+  /**
+   * Start the schedule, the first tick is due immediately.
+   */
+  public void start() {
+    startNanos = System.nanoTime();
+    nextTickNanos = startNanos;
+  }
+
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  /**
+   * Change the time between two ticks. The grid continues from the last tick with the new period. Must be called by
+   * the thread waiting for the ticks.
+   *
+   * @param periodNanos the new period in nanoseconds
+   */
+  public void setPeriodNanos(long periodNanos) {
+    if (periodNanos <= 0) {
+      throw new IllegalArgumentException("Period must be positive: " + periodNanos);
+    }
+    nextTickNanos += periodNanos - this.periodNanos;
+    this.periodNanos = periodNanos;
+  }
+
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public long getMissedTicks() {
+    return missedTicks;
+  }
+
+  public long getLateTicks() {
+    return lateTicks;
+  }
+
+  /**
+   * Wait until the next tick is due.
+   *
+   * @return the time the tick was scheduled for, in nanoseconds as returned by {@link System#nanoTime()}
+   * @throws InterruptedException in case the thread is interrupted while waiting
+   */
+  public long awaitNextTick() throws InterruptedException {
+    long tick = nextTick(System.nanoTime());
+    long delay = tick - System.nanoTime();
+    if (delay > 0) {
+      TimeUnit.NANOSECONDS.sleep(delay);
+    }
+    return tick;
+  }
+
+  /**
+   * Determine the next tick to run and advance the schedule, applying the overrun policy if the schedule is behind.
+   *
+   * @param now the current time in nanoseconds
+   * @return the time the next tick is scheduled for, in nanoseconds
+   */
+  public long nextTick(long now) {
+    long tick = nextTickNanos;
+    long behind = (now - tick) / periodNanos;
+    if (behind > 0) {
+      switch (overrunPolicy) {
+        case SKIP:
+          // drop the due tick and all passed ones, wait for the next one on the grid
+          missedTicks += behind + 1;
+          tick += (behind + 1) * periodNanos;
+          break;
+        case COALESCE:
+          // run the latest passed tick right now instead of all passed ones
+          missedTicks += behind;
+          tick += behind * periodNanos;
+          break;
+        case CATCH_UP:
+          // run the due tick right now, the following ones will be due immediately as well
+          lateTicks++;
+          break;
+        default:
+          throw new IllegalStateException("Unknown overrun policy " + overrunPolicy);
+      }
+    }
+    nextTickNanos = tick + periodNanos;
+    return tick;
+  }
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import com.exxatools.monitoring.jmx.output.ChannelOutputSink;
+import com.exxatools.monitoring.jmx.output.OutputFormat;
+import com.exxatools.monitoring.jmx.output.OutputSink;
+import com.exxatools.monitoring.jmx.output.TextOutputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects statistics from several targets concurrently. Each target is a {@link JmxStats} instance with its own
+ * connection. A scheduler thread hands out one sample per target and interval to a bounded thread pool. A target
+ * whose previous sample has not finished yet is skipped for that interval, so a slow or dead endpoint only ever
+ * occupies a single thread and never delays the other targets.
+ * <p/>
+ * The targets can be read from a targets file, which is watched for changes while the collector is running. Only
+ * the targets whose definition has changed are replaced, all other targets keep sampling on their connections.
+ *
+ * @author Malte Franken
+ */
+public class JmxCollector {
+  private final static Logger LOGGER = LoggerFactory.getLogger(JmxCollector.class);
+
+  /**
+   * The default maximum number of threads sampling targets at the same time.
+   */
+  public static final int DEFAULT_THREADS = 16;
+
+  /**
+   * How long to wait for a changed targets file to settle before reading it, as editors often write in several
+   * steps. In milliseconds.
+   */
+  private static final long RELOAD_DELAY_MILLISECONDS = 200;
+
+  /**
+   * How long to wait for the samples in flight when shutting down. In milliseconds.
+   */
+  private static final long SHUTDOWN_TIMEOUT = 5000;
+
+  /**
+   * Indicates whether the collector is started (true) or being shut down (false).
+   */
+  private volatile boolean started = true;
+
+  /**
+   * The targets to collect from. Replaced as a whole when the targets file changes, never modified.
+   */
+  private volatile List<Target> targets = Collections.emptyList();
+
+  /**
+   * The file to read the targets from, watched for changes. Optional.
+   */
+  private File targetsFile;
+
+  /**
+   * Creates the targets defined in the {@link #targetsFile}.
+   */
+  private TargetFactory targetFactory;
+
+  /**
+   * Watches the directory of the {@link #targetsFile}.
+   */
+  private WatchService watchService;
+
+  /**
+   * The distinct combinations of sink, format and columns a header has been outputted for.
+   */
+  private final Set<List<Object>> headers = new HashSet<List<Object>>();
+
+  /**
+   * How often the scheduler hands out samples, also the interval of all targets without an interval of their own.
+   * In milliseconds.
+   */
+  private long intervalMilliseconds;
+
+  /**
+   * The maximum number of threads sampling targets at the same time.
+   */
+  private int threads = DEFAULT_THREADS;
+
+  /**
+   * Where all targets write their statistics to. Defaults to the standard output, flushed after each row.
+   */
+  private OutputSink outputSink;
+
+  /**
+   * How all targets format their statistics. Defaults to tab-separated text.
+   */
+  private OutputFormat outputFormat;
+
+  /**
+   * The thread pool sampling the targets.
+   */
+  private ExecutorService executor;
+
+  /**
+   * The schedule handing out samples to the targets.
+   */
+  private FixedRateSchedule schedule;
+
+  /**
+   * How often to print a summary of the metrics of each target to the standard error. In milliseconds. Default is
+   * <code>0</code> (=never).
+   */
+  private long summaryMilliseconds = 0;
+
+  public void setTargets(List<JmxStats> targets) {
+    List<Target> newTargets = new ArrayList<Target>();
+    for (JmxStats jmxStats : targets) {
+      newTargets.add(new Target(jmxStats, null));
+    }
+    this.targets = newTargets;
+  }
+
+  /**
+   * Read the targets from a file instead, and pick up changes to the file while running.
+   *
+   * @param targetsFile the targets file, see {@link #loadDefinitions(File)}
+   * @param targetFactory creates the targets from their definitions
+   */
+  public void setTargetsFile(File targetsFile, TargetFactory targetFactory) {
+    this.targetsFile = targetsFile;
+    this.targetFactory = targetFactory;
+  }
+
+  public void setIntervalMilliseconds(long intervalMilliseconds) {
+    this.intervalMilliseconds = intervalMilliseconds;
+  }
+
+  public void setOutputSink(OutputSink outputSink) {
+    this.outputSink = outputSink;
+  }
+
+  public void setOutputFormat(OutputFormat outputFormat) {
+    this.outputFormat = outputFormat;
+  }
+
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public void setSummaryMilliseconds(long summaryMilliseconds) {
+    this.summaryMilliseconds = summaryMilliseconds;
+  }
+
+  /**
+   * Get the duration of the last completed sample of each target.
+   *
+   * @return the sample latency in milliseconds by target name
+   */
+  public Map<String, Double> getSampleLatencies() {
+    Map<String, Double> latencies = new LinkedHashMap<String, Double>();
+    for (Target target : targets) {
+      latencies.put(target.getName(), target.lastLatencyNanos / 1000000d);
+    }
+    return latencies;
+  }
+
+  /**
+   * Shut down the collector, closes all JMX connections.
+   */
+  protected void shutdown() {
+    started = false;
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        LOGGER.warn("Error while closing the watch service", e);
+      }
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      try {
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          LOGGER.warn("Samples still in progress after " + SHUTDOWN_TIMEOUT + "ms, closing the output anyway");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (schedule != null && schedule.getMissedTicks() > 0) {
+      LOGGER.info("Collector missed " + schedule.getMissedTicks() + " ticks");
+    }
+    List<Target> targets = this.targets;
+    for (Target target : targets) {
+      target.jmxStats.stop();
+      target.logStatistics();
+    }
+    // outputs and alert sinks are shared by targets, each is finished and closed once
+    Set<OutputSink> closedSinks = Collections.newSetFromMap(new IdentityHashMap<OutputSink, Boolean>());
+    for (Target target : targets) {
+      try {
+        target.jmxStats.closeOutputs(closedSinks);
+      } catch (IOException e) {
+        LOGGER.error("Error while closing the output of " + target.getName(), e);
+      }
+    }
+    if (outputSink != null && closedSinks.add(outputSink)) {
+      try {
+        if (outputFormat != null) {
+          outputFormat.finish(outputSink);
+        }
+        outputSink.close();
+      } catch (IOException e) {
+        LOGGER.error("Error while closing the output", e);
+      }
+    }
+  }
+
+  /**
+   * Run the collector until shut down.
+   *
+   * @throws InterruptedException in case the collector is interrupted while waiting for the next interval
+   * @throws IOException in case the targets file cannot be read or the headers cannot be written
+   * @throws JMException in case an object name in the targets file is malformed
+   */
+  protected void run() throws InterruptedException, IOException, JMException {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        shutdown();
+        Output.OUT.println();
+      }
+    });
+
+    if (outputSink == null) {
+      outputSink = ChannelOutputSink.stdout();
+    }
+    if (outputFormat == null) {
+      outputFormat = new TextOutputFormat();
+    }
+    if (targetsFile != null) {
+      List<Target> newTargets = new ArrayList<Target>();
+      for (Map.Entry<String, Properties> entry : loadDefinitions(targetsFile).entrySet()) {
+        newTargets.add(new Target(createTarget(entry.getKey(), entry.getValue()), entry.getValue()));
+      }
+      targets = newTargets;
+    }
+    for (Target target : targets) {
+      start(target);
+      target.jmxStats.getMetrics().register();
+    }
+
+    // targets may be added later on, so the pool is not sized by the number of targets
+    executor = Executors.newFixedThreadPool(Math.max(1, threads), new CollectorThreadFactory());
+    schedule = new FixedRateSchedule(TimeUnit.MILLISECONDS.toNanos(intervalMilliseconds), OverrunPolicy.SKIP);
+    schedule.start();
+    if (targetsFile != null) {
+      watch();
+    }
+    long nextSummary = schedule.getStartNanos() + TimeUnit.MILLISECONDS.toNanos(summaryMilliseconds);
+    while (started) {
+      long tick = schedule.awaitNextTick();
+      if (!started) {
+        break;
+      }
+      long timeSinceStart = tick - schedule.getStartNanos();
+      for (Target target : targets) {
+        target.schedule(timeSinceStart);
+      }
+      if (summaryMilliseconds > 0 && tick - nextSummary >= 0) {
+        for (Target target : targets) {
+          Output.ERR.println(target.jmxStats.getMetrics().getSummary());
+        }
+        nextSummary = tick + TimeUnit.MILLISECONDS.toNanos(summaryMilliseconds);
+      }
+    }
+  }
+
+  /**
+   * Read the target definitions from a targets file. Each property is prefixed with the name of its target, e.g.
+   * <code>broker1.serviceUrl=...</code>.
+   *
+   * @param file the targets file
+   * @return the properties of each target without the prefix, by target name in alphabetical order
+   * @throws IOException in case the file cannot be read
+   */
+  public static Map<String, Properties> loadDefinitions(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    Map<String, Properties> definitions = new TreeMap<String, Properties>();
+    for (String key : properties.stringPropertyNames()) {
+      int index = key.lastIndexOf('.');
+      if (index > 0) {
+        String targetName = key.substring(0, index);
+        Properties definition = definitions.get(targetName);
+        if (definition == null) {
+          definition = new Properties();
+          definitions.put(targetName, definition);
+        }
+        definition.setProperty(key.substring(index + 1), properties.getProperty(key));
+      }
+    }
+    return definitions;
+  }
+
+  /**
+   * Create a target from its definition.
+   *
+   * @param targetName the name of the target
+   * @param definition the properties of the target
+   * @return the new target
+   * @throws IOException in case the service URL is malformed, or the output of the target cannot be opened
+   * @throws JMException in case the object name is malformed
+   * @throws IllegalArgumentException in case the definition is incomplete, with the name of the target
+   */
+  private JmxStats createTarget(String targetName, Properties definition) throws IOException, JMException {
+    try {
+      return targetFactory.createTarget(targetName, definition);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(targetName + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Prepare a target for sampling. Targets without an output of their own write to the collector's output.
+   *
+   * @param target the target
+   * @throws IOException in case the header cannot be written
+   */
+  private void start(Target target) throws IOException {
+    JmxStats jmxStats = target.jmxStats;
+    if (!jmxStats.hasOutputSink()) {
+      jmxStats.setOutputSink(outputSink);
+    }
+    if (!jmxStats.hasOutputFormat()) {
+      jmxStats.setOutputFormat(outputFormat);
+    }
+    // output each distinct header only once per sink and format
+    List<Object> header = Arrays.<Object>asList(jmxStats.getOutputSink(), jmxStats.getOutputFormat(),
+        Arrays.asList(jmxStats.getColumns()));
+    synchronized (headers) {
+      if (headers.add(header)) {
+        jmxStats.outputHeader();
+      }
+    }
+  }
+
+  /**
+   * Watch the targets file for changes in a background thread, and reload the targets whenever it has changed.
+   *
+   * @throws IOException in case the directory of the targets file cannot be watched
+   */
+  private void watch() throws IOException {
+    final Path file = targetsFile.getAbsoluteFile().toPath();
+    watchService = file.getFileSystem().newWatchService();
+    // editors often replace the file rather than writing to it, so the directory is watched
+    file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    Thread watcher = new Thread("targets-watcher") {
+      @Override
+      public void run() {
+        try {
+          while (started) {
+            WatchKey key = watchService.take();
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+              if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+              }
+            }
+            key.reset();
+            if (changed) {
+              Thread.sleep(RELOAD_DELAY_MILLISECONDS);
+              reload();
+            }
+          }
+        } catch (InterruptedException e) {
+          // shut down
+        } catch (ClosedWatchServiceException e) {
+          // shut down
+        }
+      }
+    };
+    watcher.setDaemon(true);
+    watcher.start();
+    LOGGER.info("Watching " + file + " for changes");
+  }
+
+  /**
+   * Read the targets file again and apply the differences: new targets are started, removed targets are stopped, and
+   * targets with a changed definition are replaced. Unchanged targets keep running untouched. A replaced target
+   * acquires its connection before the old target releases it, so that a connection shared by both stays open. If a
+   * target cannot be created, its previous definition is kept.
+   */
+  private synchronized void reload() {
+    if (!started) {
+      return;
+    }
+    Map<String, Properties> definitions;
+    try {
+      definitions = loadDefinitions(targetsFile);
+    } catch (IOException e) {
+      LOGGER.error("Targets file cannot be read, keeping the current targets: " + targetsFile, e);
+      return;
+    }
+    Map<String, Target> currentTargets = new HashMap<String, Target>();
+    for (Target target : targets) {
+      currentTargets.put(target.getName(), target);
+    }
+    List<Target> newTargets = new ArrayList<Target>();
+    List<Target> oldTargets = new ArrayList<Target>();
+    List<Target> startedTargets = new ArrayList<Target>();
+    int added = 0;
+    int changed = 0;
+    for (Map.Entry<String, Properties> entry : definitions.entrySet()) {
+      Target current = currentTargets.remove(entry.getKey());
+      if (current != null && entry.getValue().equals(current.definition)) {
+        newTargets.add(current);
+        continue;
+      }
+      try {
+        Target target = new Target(createTarget(entry.getKey(), entry.getValue()), entry.getValue());
+        start(target);
+        target.jmxStats.getManagedConnection();
+        newTargets.add(target);
+        startedTargets.add(target);
+        if (current != null) {
+          oldTargets.add(current);
+          changed++;
+        } else {
+          added++;
+        }
+      } catch (Exception e) {
+        LOGGER.error("Target " + entry.getKey() + " cannot be created, " + (current != null ? "keeping its previous definition" : "skipping it"), e);
+        if (current != null) {
+          newTargets.add(current);
+        }
+      }
+    }
+    // whatever is left has been removed from the file
+    oldTargets.addAll(currentTargets.values());
+    targets = newTargets;
+    for (Target target : oldTargets) {
+      target.jmxStats.stop();
+      target.logStatistics();
+      try {
+        targetFactory.releaseTarget(target.jmxStats);
+      } catch (IOException e) {
+        LOGGER.error("Error while releasing " + target.getName(), e);
+      }
+    }
+    // the metrics of a replaced target are only registered once the previous ones are gone
+    for (Target target : startedTargets) {
+      target.jmxStats.getMetrics().register();
+    }
+    LOGGER.info("Reloaded " + targetsFile + ": " + added + " added, " + changed + " changed, " + currentTargets.size()
+        + " removed, " + (newTargets.size() - added - changed) + " unchanged");
+  }
+
+  /**
+   * A single target, keeps track of its samples in flight.
+   */
+  private class Target implements Runnable {
+    private final JmxStats jmxStats;
+
+    /**
+     * The properties the target has been created from, or <code>null</code> if not read from a targets file.
+     */
+    private final Properties definition;
+
+    /**
+     * How often to sample the target, rounded up to the interval of the collector. In nanoseconds.
+     */
+    private final long intervalNanos;
+
+    /**
+     * Whether a sample of this target is currently queued or running.
+     */
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    /**
+     * The time since start of the collector the next sample is due at. Only accessed by the scheduler thread.
+     */
+    private long nextSample = Long.MIN_VALUE;
+
+    private volatile long timeSinceStart;
+    private volatile long lastLatencyNanos;
+    private volatile long samples;
+    private volatile long skipped;
+
+    private Target(JmxStats jmxStats, Properties definition) {
+      this.jmxStats = jmxStats;
+      this.definition = definition;
+      this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(jmxStats.getIntervalMilliseconds());
+    }
+
+    private String getName() {
+      return jmxStats.getTargetName();
+    }
+
+    /**
+     * Hand out a new sample to the thread pool if one is due, unless the previous one is still in progress.
+     *
+     * @param timeSinceStart the time in nanoseconds since the collector has been started
+     */
+    private void schedule(long timeSinceStart) {
+      if (nextSample != Long.MIN_VALUE && timeSinceStart - nextSample < 0) {
+        return;
+      }
+      // keep to the interval on average, but never try to catch up on samples due long ago
+      nextSample = nextSample == Long.MIN_VALUE || timeSinceStart - nextSample >= intervalNanos
+          ? timeSinceStart + intervalNanos : nextSample + intervalNanos;
+      if (busy.compareAndSet(false, true)) {
+        this.timeSinceStart = timeSinceStart;
+        executor.execute(this);
+      } else {
+        skipped++;
+        jmxStats.getMetrics().skipped();
+        LOGGER.debug("Target " + getName() + " still busy, skipping sample");
+      }
+    }
+
+    private void logStatistics() {
+      LOGGER.info("Target " + getName() + ": " + samples + " samples, " + skipped + " skipped, last sample took "
+          + lastLatencyNanos / 1000000d + "ms");
+    }
+
+    public void run() {
+      long start = System.nanoTime();
+      try {
+        jmxStats.outputStatistics(timeSinceStart);
+        samples++;
+      } catch (Exception e) {
+        LOGGER.warn("Unable to sample target " + getName() + ": " + e.getMessage());
+      } finally {
+        lastLatencyNanos = System.nanoTime() - start;
+        busy.set(false);
+      }
+    }
+  }
+
+  /**
+   * Creates daemon threads with a readable name.
+   */
+  private static class CollectorThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "collector-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Outputs the notifications emitted by MBeans as they arrive, instead of polling attribute values. A listener is
+ * registered on each MBean matching the object name. The listener only hands each notification to a
+ * {@link BoundedQueue} and returns, so the JMX client thread is never blocked. If a burst overflows the queue, the
+ * notifications that do not fit are dropped and counted. The queue is drained by the thread calling {@link #run()},
+ * which also registers listeners on MBeans registered later, and again after a reconnect.
+ * <p>
+ * The columns to output are fields of the notification: <code>type</code>, <code>sequence</code>,
+ * <code>timeStamp</code>, <code>message</code>, <code>source</code>, and for attribute change notifications
+ * <code>attributeName</code>, <code>attributeType</code>, <code>oldValue</code> and <code>newValue</code>. The
+ * <code>userData</code> is available as a whole, or with a dotted path into it, like
+ * <code>userData.gcInfo.duration</code> for garbage collection notifications.
+ *
+ * @author Malte Franken
+ */
+public class JmxEventStream implements NotificationListener {
+  private final static Logger LOGGER = LoggerFactory.getLogger(JmxEventStream.class);
+
+  /**
+   * The default maximum number of notifications waiting to be output.
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+  /**
+   * The columns outputted if none are given.
+   */
+  public static final String DEFAULT_FIELDS = "type,sequence,message";
+
+  /**
+   * How often to look for new MBeans and lost registrations. In milliseconds.
+   */
+  private static final long SYNC_INTERVAL = 1000;
+
+  private static final String USER_DATA = "userData";
+
+  /**
+   * Provides the connection, the MBeans and the output.
+   */
+  private final JmxStats source;
+
+  private volatile boolean started = true;
+
+  private String[] fields = StringUtils.split(DEFAULT_FIELDS, ",");
+
+  /**
+   * The path into the user data of each field, <code>null</code> for all other fields.
+   */
+  private AttributePath[] userDataPaths;
+
+  private boolean showTimestamp = false;
+
+  private boolean showUnixTime = false;
+
+  private BoundedQueue<Event> queue = new BoundedQueue<Event>(DEFAULT_QUEUE_CAPACITY);
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private long received;
+
+  /**
+   * The MBeans listened to, and the connection the listeners have been registered on.
+   */
+  private final Set<ObjectName> registered = new HashSet<ObjectName>();
+  private MBeanServerConnection registeredConnection;
+
+  private String[] columns;
+  private Object[] cells;
+
+  private long startNanos;
+
+  /**
+   * The thread draining the queue, woken up by the listener.
+   */
+  private volatile Thread consumer;
+
+  /**
+   * @param source provides the connection, the MBeans to listen to, and the output
+   */
+  public JmxEventStream(JmxStats source) {
+    this.source = source;
+  }
+
+  /**
+   * Set the columns to output.
+   *
+   * @param fields comma-separated notification fields
+   */
+  public void setFields(String fields) {
+    this.fields = StringUtils.split(fields, ",");
+    this.userDataPaths = null;
+    this.columns = null;
+  }
+
+  public void setShowTimestamp(boolean showTimestamp) {
+    this.showTimestamp = showTimestamp;
+  }
+
+  public void setShowUnixTime(boolean showUnixTime) {
+    this.showUnixTime = showUnixTime;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queue = new BoundedQueue<Event>(queueCapacity);
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Called by the JMX client thread. Never blocks.
+   */
+  public void handleNotification(Notification notification, Object handback) {
+    if (queue.offer(new Event(System.nanoTime(), (ObjectName) handback, notification))) {
+      LockSupport.unpark(consumer);
+    } else {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Stop listening, remove the listeners and close the output and the connection.
+   *
+   * @throws IOException in case something goes wrong while closing
+   */
+  protected void shutdown() throws IOException {
+    started = false;
+    LockSupport.unpark(consumer);
+    LOGGER.info("Received " + received + " notifications, dropped " + dropped.get());
+    synchronized (registered) {
+      for (ObjectName name : registered) {
+        try {
+          registeredConnection.removeNotificationListener(name, this);
+        } catch (Exception e) {
+          LOGGER.debug("Unable to remove listener from " + name + ": " + e.getMessage());
+        }
+      }
+      registered.clear();
+    }
+    source.shutdown();
+  }
+
+  /**
+   * Listen and output notifications until shut down.
+   *
+   * @throws Exception in case the MBeans cannot be listened to
+   */
+  protected void run() throws Exception {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          shutdown();
+        } catch (IOException e) {
+          LOGGER.error("Error while shutting down", e);
+        }
+        Output.OUT.println();
+      }
+    });
+
+    consumer = Thread.currentThread();
+    startNanos = System.nanoTime();
+    source.getOutputFormat().writeHeader(getColumns(), source.getOutputSink());
+    // fails fast if the MBeans cannot be listened to in the first place
+    synchronize();
+    long nextSync = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_INTERVAL);
+    long reportedDropped = 0;
+    while (started) {
+      Event event = queue.poll();
+      if (event != null) {
+        outputEvent(event);
+        continue;
+      }
+      long now = System.nanoTime();
+      if (now - nextSync >= 0) {
+        nextSync = now + TimeUnit.MILLISECONDS.toNanos(SYNC_INTERVAL);
+        try {
+          synchronize();
+        } catch (IOException e) {
+          // the connection is reestablished with backoff, the listeners are registered again then
+          LOGGER.debug("Unable to register listeners: " + e.getMessage());
+        }
+        if (dropped.get() > reportedDropped) {
+          LOGGER.warn("Dropped " + (dropped.get() - reportedDropped) + " notifications, queue full");
+          reportedDropped = dropped.get();
+        }
+        continue;
+      }
+      LockSupport.parkNanos(this, nextSync - now);
+    }
+  }
+
+  /**
+   * Register the listener on all MBeans not listened to yet. After a reconnect the listeners are registered again.
+   *
+   * @throws IOException in case of a communication problem
+   */
+  private void synchronize() throws IOException {
+    MBeanServerConnection connection = source.getConnection();
+    try {
+      synchronized (registered) {
+        if (connection != registeredConnection) {
+          registered.clear();
+          registeredConnection = connection;
+        }
+        Set<ObjectName> names = source.getObjectNames();
+        registered.retainAll(names);
+        for (ObjectName name : names) {
+          if (!registered.contains(name)) {
+            try {
+              // the name is handed back with each notification, as the source may be a different object
+              connection.addNotificationListener(name, this, null, name);
+              registered.add(name);
+            } catch (InstanceNotFoundException e) {
+              LOGGER.debug("MBean " + name + " disappeared");
+            } catch (IllegalArgumentException e) {
+              // not a notification broadcaster, or a remote listener is not supported
+              LOGGER.warn("Unable to listen to " + name + ": " + e.getMessage());
+              registered.add(name);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      source.getManagedConnection().failed(connection);
+      throw e;
+    }
+  }
+
+  /**
+   * Get the columns of the output.
+   *
+   * @return the column names
+   */
+  protected String[] getColumns() {
+    if (columns == null) {
+      List<String> headerValues = new ArrayList<String>();
+      if (showTimestamp) {
+        headerValues.add("time");
+      }
+      headerValues.add("objectName");
+      userDataPaths = new AttributePath[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        String field = fields[i].trim();
+        fields[i] = field;
+        if (field.startsWith(USER_DATA + ".")) {
+          userDataPaths[i] = AttributePath.compile(field.substring(USER_DATA.length() + 1));
+        }
+        headerValues.add(field);
+      }
+      columns = headerValues.toArray(new String[headerValues.size()]);
+      cells = new Object[columns.length];
+    }
+    return columns;
+  }
+
+  /**
+   * Output a single notification.
+   *
+   * @param event the notification and when it has arrived
+   * @throws IOException in case the row cannot be written
+   */
+  private void outputEvent(Event event) throws IOException {
+    received++;
+    Notification notification = event.notification;
+    int cell = 0;
+    if (showTimestamp) {
+      cells[cell++] = showUnixTime ? notification.getTimeStamp() : TimeUnit.NANOSECONDS.toMillis(event.arrivalNanos - startNanos);
+    }
+    cells[cell++] = event.objectName.toString();
+    for (int i = 0; i < fields.length; i++) {
+      cells[cell++] = userDataPaths[i] != null ? userDataPaths[i].resolve(notification.getUserData()) : getField(notification, fields[i]);
+    }
+    source.getOutputFormat().writeRow(columns, cells, source.getOutputSink());
+  }
+
+  /**
+   * Get a field of a notification.
+   *
+   * @param notification the notification
+   * @param field the name of the field
+   * @return the value, or <code>null</code> if the notification does not have the field
+   */
+  private static Object getField(Notification notification, String field) {
+    if ("type".equals(field)) {
+      return notification.getType();
+    } else if ("sequence".equals(field)) {
+      return notification.getSequenceNumber();
+    } else if ("timeStamp".equals(field)) {
+      return notification.getTimeStamp();
+    } else if ("message".equals(field)) {
+      return notification.getMessage();
+    } else if ("source".equals(field)) {
+      return notification.getSource() != null ? notification.getSource().toString() : null;
+    } else if (USER_DATA.equals(field)) {
+      return notification.getUserData();
+    } else if (notification instanceof AttributeChangeNotification) {
+      AttributeChangeNotification change = (AttributeChangeNotification) notification;
+      if ("attributeName".equals(field)) {
+        return change.getAttributeName();
+      } else if ("attributeType".equals(field)) {
+        return change.getAttributeType();
+      } else if ("oldValue".equals(field)) {
+        return change.getOldValue();
+      } else if ("newValue".equals(field)) {
+        return change.getNewValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A notification waiting in the queue.
+   */
+  private static class Event {
+    private final long arrivalNanos;
+    private final ObjectName objectName;
+    private final Notification notification;
+
+    private Event(long arrivalNanos, ObjectName objectName, Notification notification) {
+      this.arrivalNanos = arrivalNanos;
+      this.objectName = objectName;
+      this.notification = notification;
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.io.IOException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads all readable attributes of all MBeans matching an object name pattern once, to capture the state of a JVM
+ * e.g. during an incident. Each MBean is read with one <code>getAttributes</code> call, several MBeans are read at the
+ * same time, but never more than {@link #parallelism}. The MBeans are written as they arrive, one row per MBean with
+ * its object name followed by its attributes, so the snapshot as a whole is never held in memory.
+ * <p>
+ * An MBean that cannot be read is counted as failed and left out, the snapshot goes on with the other MBeans. Only a
+ * communication problem aborts it.
+ *
+ * @author Malte Franken
+ */
+public class JmxSnapshot {
+  private final static Logger LOGGER = LoggerFactory.getLogger(JmxSnapshot.class);
+
+  /**
+   * The default maximum number of MBeans read at the same time.
+   */
+  public static final int DEFAULT_PARALLELISM = 8;
+
+  /**
+   * The column holding the object name of each MBean.
+   */
+  private static final String OBJECT_NAME_COLUMN = "objectName";
+
+  /**
+   * Provides the connection, the object name pattern and the output.
+   */
+  private final JmxStats source;
+
+  private int parallelism = DEFAULT_PARALLELISM;
+
+  /**
+   * The number of MBeans written, and of MBeans that could not be read.
+   */
+  private int written;
+  private int failed;
+
+  /**
+   * @param source provides the connection, the object name pattern and the output
+   */
+  public JmxSnapshot(JmxStats source) {
+    this.source = source;
+  }
+
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  public int getWritten() {
+    return written;
+  }
+
+  public int getFailed() {
+    return failed;
+  }
+
+  /**
+   * Read and write all matching MBeans, then close the output and the connection.
+   *
+   * @throws Exception in case the MBeans cannot be listed, or in case of a communication problem
+   */
+  protected void run() throws Exception {
+    final MBeanServerConnection connection = source.getConnection();
+    Set<ObjectName> names = new TreeSet<ObjectName>(connection.queryNames(source.getObjectName(), null));
+    LOGGER.info("Taking a snapshot of " + names.size() + " MBeans matching " + source.getObjectName());
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "snapshot-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    CompletionService<MBeanAttributes> completionService = new ExecutorCompletionService<MBeanAttributes>(executor);
+    try {
+      Iterator<ObjectName> iterator = names.iterator();
+      int pending = 0;
+      while (iterator.hasNext() || pending > 0) {
+        // keep all threads busy while writing, with a bounded number of MBeans read but not written yet
+        while (pending < parallelism * 2 && iterator.hasNext()) {
+          final ObjectName name = iterator.next();
+          completionService.submit(new Callable<MBeanAttributes>() {
+            public MBeanAttributes call() throws Exception {
+              return read(connection, name);
+            }
+          });
+          pending++;
+        }
+        Future<MBeanAttributes> future = completionService.take();
+        pending--;
+        try {
+          write(future.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          failed++;
+          LOGGER.debug("MBean not read: " + e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      source.shutdown();
+    }
+    LOGGER.info("Snapshot taken: " + written + " MBeans written, " + failed + " failed");
+  }
+
+  /**
+   * Read all readable attributes of an MBean.
+   *
+   * @param connection the connection to read from
+   * @param name the name of the MBean
+   * @return the attributes read
+   * @throws IOException in case of a communication problem
+   * @throws JMException in case the MBean cannot be read
+   */
+  private MBeanAttributes read(MBeanServerConnection connection, ObjectName name) throws IOException, JMException {
+    List<String> attributeNames = new ArrayList<String>();
+    for (MBeanAttributeInfo attributeInfo : connection.getMBeanInfo(name).getAttributes()) {
+      if (attributeInfo.isReadable()) {
+        attributeNames.add(attributeInfo.getName());
+      }
+    }
+    if (attributeNames.isEmpty()) {
+      return new MBeanAttributes(name, new AttributeList());
+    }
+    try {
+      return new MBeanAttributes(name, connection.getAttributes(name, attributeNames.toArray(new String[attributeNames.size()])));
+    } catch (UnmarshalException e) {
+      // some value is of a class unknown to the tool, read the attributes one by one to leave out just that value
+      AttributeList attributes = new AttributeList();
+      for (String attributeName : attributeNames) {
+        try {
+          attributes.add(new Attribute(attributeName, connection.getAttribute(name, attributeName)));
+        } catch (UnmarshalException unmarshalException) {
+          LOGGER.debug("Attribute " + attributeName + " of " + name + " not read: " + unmarshalException.getMessage());
+        } catch (JMException attributeException) {
+          LOGGER.debug("Attribute " + attributeName + " of " + name + " not read: " + attributeException.getMessage());
+        } catch (RuntimeException attributeException) {
+          LOGGER.debug("Attribute " + attributeName + " of " + name + " not read: " + attributeException.getMessage());
+        }
+      }
+      return new MBeanAttributes(name, attributes);
+    }
+  }
+
+  /**
+   * Write the attributes of an MBean as one row.
+   *
+   * @param mBeanAttributes the attributes read
+   * @throws IOException in case the row cannot be written
+   */
+  private void write(MBeanAttributes mBeanAttributes) throws IOException {
+    List<Attribute> attributes = mBeanAttributes.attributes.asList();
+    String[] columns = new String[attributes.size() + 1];
+    Object[] cells = new Object[columns.length];
+    columns[0] = OBJECT_NAME_COLUMN;
+    cells[0] = mBeanAttributes.name.toString();
+    for (int i = 0; i < attributes.size(); i++) {
+      columns[i + 1] = attributes.get(i).getName();
+      cells[i + 1] = attributes.get(i).getValue();
+    }
+    source.getOutputFormat().writeRow(columns, cells, source.getOutputSink());
+    written++;
+  }
+
+  /**
+   * The attributes read from one MBean.
+   */
+  private static class MBeanAttributes {
+    private final ObjectName name;
+    private final AttributeList attributes;
+
+    private MBeanAttributes(ObjectName name, AttributeList attributes) {
+      this.name = name;
+      this.attributes = attributes;
+    }
+  }
+}
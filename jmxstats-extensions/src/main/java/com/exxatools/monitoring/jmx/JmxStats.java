@@ -17,18 +17,26 @@
 package com.exxatools.monitoring.jmx;
 
 import com.exxatools.monitoring.jmx.converters.Converter;
+import com.exxatools.monitoring.jmx.output.ChannelOutputSink;
+import com.exxatools.monitoring.jmx.output.ColumnType;
+import com.exxatools.monitoring.jmx.output.OutputFormat;
+import com.exxatools.monitoring.jmx.output.OutputSink;
+import com.exxatools.monitoring.jmx.output.TextOutputFormat;
+import com.exxatools.monitoring.jmx.output.TypedOutputFormat;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 
 import javax.management.*;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
+import javax.management.openmbean.OpenMBeanAttributeInfo;
+import javax.management.openmbean.OpenType;
 import javax.management.remote.JMXServiceURL;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
@@ -46,62 +54,172 @@ public class JmxStats {
   private final static Logger LOGGER = LoggerFactory.getLogger(JmxStats.class);
 
   /**
-   * The minimum time between two statistic outputs in milliseconds.
+   * The minimum interval between two statistic outputs in milliseconds.
    */
   public static final int MINIMUM_WAIT_BETWEEN_STATISTICS_OUTPUT = 250;
 
-  private static final String SEPARATOR_CHAR = "\t";
+  /**
+   * The minimum interval between two statistic outputs in high-frequency mode in milliseconds.
+   */
+  public static final int MINIMUM_WAIT_BETWEEN_HIGH_FREQUENCY_OUTPUT = 10;
+
+  /**
+   * The number of threads fetching MBeans concurrently in high-frequency mode.
+   */
+  private static final int HIGH_FREQUENCY_FETCH_THREADS = 4;
+
+  /**
+   * How long to wait for the sample in flight when stopping. In milliseconds.
+   */
+  private static final long STOP_TIMEOUT = 5000;
 
   /**
    * Indicates whether the tool is started (true) or being shut down (false).
    */
-  private boolean started = true;
+  private volatile boolean started = true;
+
+  /**
+   * Held while sampling, so that stopping waits for the sample in flight.
+   */
+  private final ReentrantLock sampleLock = new ReentrantLock();
 
   /**
-   * The JMX connector.
+   * Hands out connections shared by all targets with the same service URL.
    */
-  private JMXConnector connector;
+  private ConnectionManager connectionManager;
 
   /**
-   * The MBean server connection.
+   * The connection to the target, reestablished after a failure.
    */
-  private MBeanServerConnection connection;
+  private ManagedConnection managedConnection;
 
   /**
    * The attribute value converter.
    */
   private Converter<Object> converter;
 
+  /**
+   * Where to write the statistics to. Defaults to the standard output, flushed after each row.
+   */
+  private OutputSink outputSink;
+
+  /**
+   * How to format the statistics. Defaults to tab-separated text.
+   */
+  private OutputFormat outputFormat;
+
   /**
    * The current number of statistic outputs.
    */
   private int counter = 0;
 
   /**
-   * The time in milliseconds when the tool was started up.
+   * The schedule of the statistic outputs, if outputted on a regular basis.
+   */
+  private FixedRateSchedule schedule;
+
+  /**
+   * The wall clock time in milliseconds when the schedule was started.
    */
   private long startTime = 0;
 
   /**
-   * Contains the header for the statistic output.
+   * Contains the column names of the statistic output.
    */
-  private String header;
+  private String[] columns;
 
   /**
-   * The JMX service URL to connect to.
+   * Reused for the cells of each output row.
+   */
+  private Object[] cells;
+
+  /**
+   * The name of the target, used to tag each row when collecting from several targets. Not outputted if not set.
+   */
+  private String targetName;
+
+  /**
+   * The JMX service URL to connect to, <code>null</code> to read from the JVM running the tool.
    */
   private JMXServiceURL serviceUrl;
 
   /**
-   * The JMX object name to read from.
+   * The JMX object name to read from. May be a pattern matching several MBeans.
    */
   private ObjectName objectName;
 
   /**
-   * The attribute name to read.
+   * The index of MBeans matching the object name, if the object name is a pattern.
+   */
+  private ObjectNameIndex objectNameIndex;
+
+  /**
+   * The metadata of the MBeans read from, fetched once per MBean.
+   */
+  private final MBeanMetadataCache metadataCache = new MBeanMetadataCache();
+
+  /**
+   * The metadata each MBean has last been described with, to tell MBeans seen for the first time or registered again.
+   */
+  private final ConcurrentMap<ObjectName, MBeanInfo> describedMBeans = new ConcurrentHashMap<ObjectName, MBeanInfo>();
+
+  /**
+   * The type of the attribute values of each column after resolving its path, combined over all MBeans described so
+   * far. <code>null</code> until the first MBean has been described.
+   */
+  private volatile ColumnType[] valueTypes;
+
+  /**
+   * The attributes of each MBean that could not be read and have been reported already.
+   */
+  private final ConcurrentMap<ObjectName, Set<String>> unreadableAttributes = new ConcurrentHashMap<ObjectName, Set<String>>();
+
+  /**
+   * The columns to output, each refers to one of the attribute names.
+   */
+  private ColumnDefinition[] columnDefinitions;
+
+  /**
+   * The index of the attribute name each column refers to.
+   */
+  private int[] columnAttributes;
+
+  /**
+   * Whether any column is calculated from the previous sample.
+   */
+  private boolean derivedColumns;
+
+  /**
+   * The previous sample of each MBean, if there are derived columns.
+   */
+  private final Map<ObjectName, CounterState> counterStates = new HashMap<ObjectName, CounterState>();
+
+  /**
+   * Whether any column summarizes an aggregation window.
+   */
+  private boolean aggregateColumns;
+
+  /**
+   * The current aggregation window of each MBean, if aggregating.
+   */
+  private final Map<ObjectName, WindowAggregate> windowAggregates = new HashMap<ObjectName, WindowAggregate>();
+
+  /**
+   * Reused for the column values of each sample, and for the summary of each aggregation window.
+   */
+  private Object[] sampleValues;
+  private Object[] windowValues;
+
+  /**
+   * The distinct attribute names to read.
    */
   private List<String> attributeNames;
 
+  /**
+   * The attribute names as an array, as required for fetching all attributes in one go.
+   */
+  private String[] attributeNamesArray;
+
   /**
    * The JMX username to connect with.
    */
@@ -117,6 +235,49 @@ public class JmxStats {
    */
   private long intervalMilliseconds;
 
+  /**
+   * The longest interval the interval may be stretched to while the target is under stress. In milliseconds. Default
+   * is <code>0</code> (=the interval is fixed).
+   */
+  private long maximumIntervalMilliseconds = 0;
+
+  /**
+   * The name of the column whose quick changes tighten an adaptive interval. Optional.
+   */
+  private String watchedColumn;
+
+  /**
+   * Adapts the interval while running, if a maximum interval has been set.
+   */
+  private AdaptiveInterval adaptiveInterval;
+
+  /**
+   * The index of the {@link #watchedColumn}, or <code>-1</code>.
+   */
+  private int watchedColumnIndex = -1;
+
+  /**
+   * Evaluates the alert rules on each sample. Optional.
+   */
+  private AlertEngine alertEngine;
+
+  /**
+   * How long fetching the attributes took during the last sample. In nanoseconds.
+   */
+  private long lastFetchNanos;
+
+  /**
+   * What to do if fetching and outputting the attributes takes longer than the interval. Default is
+   * {@link OverrunPolicy#SKIP}.
+   */
+  private OverrunPolicy overrunPolicy = OverrunPolicy.SKIP;
+
+  /**
+   * The length of the aggregation window in milliseconds. If set, one summary row per MBean and window is outputted
+   * instead of a row per sample. Default is <code>0</code> (=each sample is its own window).
+   */
+  private long windowMilliseconds = 0;
+
   /**
    * How often to repeat outputting the heading. Default is <code>0</code> (=never repeated).
    */
@@ -129,20 +290,104 @@ public class JmxStats {
 
   private boolean showUnixTime = false;
 
+  /**
+   * Whether to sample in high-frequency mode. In this mode the interval can be as short as
+   * {@link #MINIMUM_WAIT_BETWEEN_HIGH_FREQUENCY_OUTPUT}, timestamps are taken when the sample is fetched and have
+   * nanosecond resolution, and the requests for several MBeans are issued concurrently on the connection.
+   * Default is <code>false</code>.
+   */
+  private boolean highFrequency = false;
+
+  /**
+   * Fetches the attributes of several MBeans concurrently in high-frequency mode.
+   */
+  private ExecutorService fetchExecutor;
+
+  /**
+   * The tasks fetching one MBean each in high-frequency mode, reused from sample to sample.
+   */
+  private FetchTask[] fetchTasks = new FetchTask[0];
+
+  /**
+   * The metrics of the tool itself.
+   */
+  private final JmxStatsMetrics metrics = new JmxStatsMetrics(this);
+
+  /**
+   * How often to print a summary of the metrics of the tool itself to the standard error. In milliseconds. Default is
+   * <code>0</code> (=never).
+   */
+  private long summaryMilliseconds = 0;
+
+  /**
+   * The time spent on rows and on writing rows during the current sample, in nanoseconds.
+   */
+  private long sampleRowNanos;
+  private long sampleOutputNanos;
+
   public JmxStats() {
   }
 
+  public String getTargetName() {
+    return targetName;
+  }
+
+  public void setTargetName(String targetName) {
+    this.targetName = targetName;
+  }
+
   public void setServiceUrl(String serviceUrl) throws MalformedURLException {
     this.serviceUrl = new JMXServiceURL(serviceUrl);
   }
 
+  /**
+   * Connect to a local JVM by its process id instead of a service URL. The JVM running the tool is read through the
+   * platform MBean server directly, any other JVM is attached to through its local management agent.
+   *
+   * @param pid the process id
+   * @throws IOException in case the JVM cannot be attached to
+   */
+  public void setPid(String pid) throws IOException {
+    if (LocalAttach.isOwnPid(pid)) {
+      this.serviceUrl = null;
+    } else {
+      this.serviceUrl = new JMXServiceURL(LocalAttach.getServiceUrl(pid));
+    }
+  }
+
   public void setObjectName(String objectName) throws MalformedObjectNameException {
     this.objectName = new ObjectName(objectName);
+    this.objectNameIndex = this.objectName.isPattern() ? new ObjectNameIndex(this.objectName) : null;
   }
 
+  /**
+   * Set the columns to output, a comma-separated list of attribute names or functions of attribute names like
+   * <code>rate(CollectionCount)</code>. Each attribute is only read once, however often it is referred to.
+   *
+   * @param attributeName the column definitions
+   */
   public void setAttributeName(String attributeName) {
-    //this.attributeName = attributeName;
-    this.attributeNames = Arrays.asList(StringUtils.split(attributeName, ","));
+    String[] definitions = StringUtils.split(attributeName, ",");
+    this.columnDefinitions = new ColumnDefinition[definitions.length];
+    this.columnAttributes = new int[definitions.length];
+    this.derivedColumns = false;
+    this.aggregateColumns = false;
+    this.attributeNames = new ArrayList<String>();
+    for (int i = 0; i < definitions.length; i++) {
+      ColumnDefinition definition = ColumnDefinition.parse(definitions[i]);
+      int index = attributeNames.indexOf(definition.getAttributeName());
+      if (index < 0) {
+        index = attributeNames.size();
+        attributeNames.add(definition.getAttributeName());
+      }
+      columnDefinitions[i] = definition;
+      columnAttributes[i] = index;
+      derivedColumns |= definition.getFunction().isDerived();
+      aggregateColumns |= definition.getFunction().isAggregate();
+    }
+    this.attributeNamesArray = attributeNames.toArray(new String[attributeNames.size()]);
+    this.sampleValues = new Object[definitions.length];
+    this.windowValues = new Object[definitions.length];
   }
 
   public void setUsername(String username) {
@@ -157,6 +402,47 @@ public class JmxStats {
     this.intervalMilliseconds = intervalMilliseconds;
   }
 
+  /**
+   * Let the interval adapt to the target: it is stretched up to the maximum interval while fetching the attributes
+   * takes unusually long, and tightened again down to the interval when the target has recovered.
+   *
+   * @param maximumIntervalMilliseconds the longest interval, or <code>0</code> to keep the interval fixed
+   */
+  public void setMaximumIntervalMilliseconds(long maximumIntervalMilliseconds) {
+    this.maximumIntervalMilliseconds = maximumIntervalMilliseconds;
+  }
+
+  /**
+   * Watch a column while the interval adapts: quick changes of its value tighten the interval right away.
+   *
+   * @param watchedColumn the column name as given in the attribute names, e.g. <code>rate(CollectionTime)</code>
+   */
+  public void setWatchedColumn(String watchedColumn) {
+    this.watchedColumn = watchedColumn;
+  }
+
+  /**
+   * Evaluate alert rules on each sample, see {@link AlertRule} for the syntax. The attribute names have to be set
+   * first, as the rules are compiled against the columns.
+   *
+   * @param alerts the rules, separated by commas
+   * @param alertSink where to write the alerts to when they fire or resolve
+   * @param alertFormat the format of the alerts, its header is expected to have been written already
+   * @throws IllegalArgumentException in case a rule is malformed or refers to an unknown column
+   */
+  public void setAlerts(String alerts, OutputSink alertSink, OutputFormat alertFormat) {
+    alertFormat.setConverter(converter);
+    this.alertEngine = new AlertEngine(AlertRule.compileAll(alerts, columnDefinitions), targetName, alertSink, alertFormat);
+  }
+
+  public void setOverrunPolicy(OverrunPolicy overrunPolicy) {
+    this.overrunPolicy = overrunPolicy;
+  }
+
+  public void setWindowMilliseconds(long windowMilliseconds) {
+    this.windowMilliseconds = windowMilliseconds;
+  }
+
   public void setLinesHeading(int linesHeading) {
     this.linesHeading = linesHeading;
   }
@@ -169,28 +455,362 @@ public class JmxStats {
     this.showUnixTime = showUnixTime;
   }
 
+  public void setHighFrequency(boolean highFrequency) {
+    this.highFrequency = highFrequency;
+  }
+
+  public void setOutputSink(OutputSink outputSink) {
+    this.outputSink = outputSink;
+  }
+
+  protected boolean hasOutputSink() {
+    return outputSink != null;
+  }
+
+  /**
+   * Get the sink to write the statistics to, or create a sink for the standard output if none has been set.
+   *
+   * @return the output sink
+   */
+  protected OutputSink getOutputSink() {
+    if (outputSink == null) {
+      outputSink = ChannelOutputSink.stdout();
+    }
+    return outputSink;
+  }
+
+  public void setOutputFormat(OutputFormat outputFormat) {
+    this.outputFormat = outputFormat;
+  }
+
+  protected boolean hasOutputFormat() {
+    return outputFormat != null;
+  }
+
+  /**
+   * Get the format of the statistics without creating the default format.
+   *
+   * @return the output format, or <code>null</code> if none has been set or created yet
+   */
+  protected OutputFormat getCurrentOutputFormat() {
+    return outputFormat;
+  }
+
+  /**
+   * Get the format of the statistics, or create the default text format if none has been set.
+   *
+   * @return the output format
+   */
+  protected OutputFormat getOutputFormat() {
+    if (outputFormat == null) {
+      outputFormat = new TextOutputFormat();
+    }
+    outputFormat.setConverter(converter);
+    return outputFormat;
+  }
+
   @Required
   public void setConverter(Converter<Object> converter) {
     this.converter = converter;
   }
 
+  public void setConnectionManager(ConnectionManager connectionManager) {
+    this.connectionManager = connectionManager;
+  }
+
+  public void setSummaryMilliseconds(long summaryMilliseconds) {
+    this.summaryMilliseconds = summaryMilliseconds;
+  }
+
+  public ObjectName getObjectName() {
+    return objectName;
+  }
+
+  public long getIntervalMilliseconds() {
+    return intervalMilliseconds;
+  }
+
+  protected Converter<Object> getConverter() {
+    return converter;
+  }
+
+  protected FixedRateSchedule getSchedule() {
+    return schedule;
+  }
+
   /**
-   * Fetch the current attribute values.
+   * Get the metrics of the tool itself.
    *
-   * @return the attribute values
-   * @throws IOException
-   * @throws InstanceNotFoundException
-   * @throws ReflectionException
-   * @throws AttributeNotFoundException
-   * @throws MBeanException
+   * @return the metrics, registered as an MBean while running
+   */
+  public JmxStatsMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Get the connection to the target without acquiring one.
+   *
+   * @return the managed connection, or <code>null</code> if not acquired yet
+   */
+  protected synchronized ManagedConnection getCurrentConnection() {
+    return managedConnection;
+  }
+
+  /**
+   * Get the names of all MBeans to read from. Patterns are resolved through the {@link #objectNameIndex}.
+   *
+   * @return the object names
+   * @throws IOException in case of a communication problem
+   */
+  protected Set<ObjectName> getObjectNames() throws IOException {
+    if (objectNameIndex != null) {
+      return objectNameIndex.getObjectNames(getConnection());
+    }
+    return Collections.singleton(objectName);
+  }
+
+  /**
+   * Fetch the current attribute values. All attributes are requested in one round trip, only attributes missing from
+   * the response are fetched individually. An attribute that cannot be read is reported and results in a
+   * <code>null</code> value, it does not abort the whole sample.
+   *
+   * @param objectName the name of the MBean to read from
+   * @return the attribute values, in the same order as the attribute names
+   * @throws IOException in case of a communication problem
+   * @throws InstanceNotFoundException in case the MBean does not exist
+   * @throws ReflectionException in case the attributes cannot be requested from the MBean
+   */
+  protected List<Object> getAttributeValues(ObjectName objectName) throws IOException, InstanceNotFoundException, ReflectionException {
+    Object[] attributeValues = new Object[attributeNamesArray.length];
+    fetchAttributeValues(objectName, attributeValues, new boolean[attributeNamesArray.length]);
+    return Arrays.asList(attributeValues);
+  }
+
+  /**
+   * Fetch the current attribute values into the given arrays, which may be reused from sample to sample.
+   *
+   * @param objectName the name of the MBean to read from
+   * @param attributeValues receives the attribute values, in the same order as the attribute names
+   * @param found used to tell the attributes missing from the response
+   * @throws IOException in case of a communication problem
+   * @throws InstanceNotFoundException in case the MBean does not exist
+   * @throws ReflectionException in case the attributes cannot be requested from the MBean
+   */
+  private void fetchAttributeValues(ObjectName objectName, Object[] attributeValues, boolean[] found) throws IOException, InstanceNotFoundException, ReflectionException {
+    MBeanServerConnection serverConnection = getConnection();
+    describe(serverConnection, objectName, false);
+    AttributeList attributes = serverConnection.getAttributes(objectName, attributeNamesArray);
+    Arrays.fill(found, false);
+    for (Attribute attribute : attributes.asList()) {
+      int index = attributeNames.indexOf(attribute.getName());
+      if (index >= 0) {
+        attributeValues[index] = attribute.getValue();
+        found[index] = true;
+      }
+    }
+    for (int i = 0; i < attributeNamesArray.length; i++) {
+      if (!found[i]) {
+        // fall back to a single read, which tells us why the attribute is missing
+        attributeValues[i] = getAttributeValue(serverConnection, objectName, attributeNamesArray[i]);
+      }
+    }
+  }
+
+  /**
+   * Check the attribute names against the metadata of the MBean before the first sample, so that a misspelled
+   * attribute name is reported right away. MBeans matching a pattern are checked as they are found, an attribute
+   * missing from one of them is only reported.
+   *
+   * @throws IOException in case of a communication problem
+   * @throws InstanceNotFoundException in case the MBean does not exist
+   * @throws ReflectionException in case the metadata cannot be requested from the MBean
+   * @throws IllegalArgumentException in case an attribute does not exist or cannot be read
    */
-  protected List<Object> getAttributeValues() throws IOException, InstanceNotFoundException, ReflectionException, AttributeNotFoundException, MBeanException {
-    List<Object> attributeValues = new ArrayList<Object>();
-    for (String attributeName : attributeNames) {
-      Object attributeValue = getConnection().getAttribute(objectName, attributeName);
-      attributeValues.add(attributeValue);
+  protected void validate() throws IOException, InstanceNotFoundException, ReflectionException {
+    if (objectNameIndex == null) {
+      describe(getConnection(), objectName, true);
+    }
+  }
+
+  /**
+   * Describe an MBean from its metadata, unless already done: check that all attributes exist and can be read, and
+   * combine the types of the attributes with those of the MBeans described before.
+   *
+   * @param serverConnection the connection to read from
+   * @param objectName the name of the MBean
+   * @param strict whether attributes that cannot be read are an error, or just reported
+   * @throws IOException in case of a communication problem
+   * @throws InstanceNotFoundException in case the MBean does not exist
+   * @throws ReflectionException in case the metadata cannot be requested from the MBean
+   * @throws IllegalArgumentException if strict and an attribute does not exist or cannot be read
+   */
+  private void describe(MBeanServerConnection serverConnection, ObjectName objectName, boolean strict) throws IOException, InstanceNotFoundException, ReflectionException {
+    MBeanInfo info;
+    try {
+      info = metadataCache.getMBeanInfo(serverConnection, objectName);
+    } catch (IntrospectionException e) {
+      // the attributes are still read, their values are just not typed
+      LOGGER.warn("Unable to describe " + objectName + ": " + e.getMessage());
+      return;
+    }
+    if (describedMBeans.get(objectName) != info) {
+      describe(objectName, info, strict);
+    }
+  }
+
+  /**
+   * Describe an MBean from its metadata. The output format is told about the column types whenever they change.
+   *
+   * @param objectName the name of the MBean
+   * @param info the metadata of the MBean
+   * @param strict whether attributes that cannot be read are an error, or just reported
+   * @throws IllegalArgumentException if strict and an attribute does not exist or cannot be read
+   */
+  private synchronized void describe(ObjectName objectName, MBeanInfo info, boolean strict) {
+    Map<String, MBeanAttributeInfo> attributeInfos = new HashMap<String, MBeanAttributeInfo>();
+    List<String> readableNames = new ArrayList<String>();
+    for (MBeanAttributeInfo attributeInfo : info.getAttributes()) {
+      attributeInfos.put(attributeInfo.getName(), attributeInfo);
+      if (attributeInfo.isReadable()) {
+        readableNames.add(attributeInfo.getName());
+      }
+    }
+    for (String attributeName : attributeNamesArray) {
+      MBeanAttributeInfo attributeInfo = attributeInfos.get(attributeName);
+      if (attributeInfo == null || !attributeInfo.isReadable()) {
+        String message = "Attribute " + attributeName + (attributeInfo == null ? " not found in " : " not readable in ")
+            + objectName + ", readable attributes are " + StringUtils.join(readableNames, ", ");
+        if (attributeInfo == null) {
+          for (String readableName : readableNames) {
+            if (readableName.startsWith(attributeName + ".")) {
+              message += ", quote attribute names containing dots like \"" + readableName + "\"";
+              break;
+            }
+          }
+        }
+        if (strict) {
+          throw new IllegalArgumentException(message);
+        }
+        LOGGER.warn(message);
+      }
+    }
+    ColumnType[] previousTypes = valueTypes;
+    ColumnType[] types = new ColumnType[columnDefinitions.length];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = getValueType(attributeInfos.get(columnDefinitions[i].getAttributeName()), columnDefinitions[i].getPath());
+      if (previousTypes != null) {
+        types[i] = previousTypes[i].merge(types[i]);
+      }
+    }
+    describedMBeans.put(objectName, info);
+    if (!Arrays.equals(types, previousTypes)) {
+      LOGGER.debug("Column types of " + objectName + ": " + Arrays.toString(types));
+      valueTypes = types;
+      if (getOutputFormat() instanceof TypedOutputFormat) {
+        ((TypedOutputFormat) getOutputFormat()).setColumnTypes(getColumns(), getColumnTypes(types));
+      }
+    }
+  }
+
+  /**
+   * Get the type of the values of a column from the metadata of its attribute.
+   *
+   * @param attributeInfo the metadata of the attribute, or <code>null</code> if the attribute does not exist
+   * @param path the path into the attribute value, or <code>null</code>
+   * @return the type of the values
+   */
+  private static ColumnType getValueType(MBeanAttributeInfo attributeInfo, AttributePath path) {
+    if (attributeInfo == null) {
+      return ColumnType.OTHER;
+    }
+    // open MBeans and MXBeans tell the open type, which also describes the items of composite values
+    Object openType = attributeInfo instanceof OpenMBeanAttributeInfo ? ((OpenMBeanAttributeInfo) attributeInfo).getOpenType()
+        : attributeInfo.getDescriptor().getFieldValue("openType");
+    if (!(openType instanceof OpenType)) {
+      return path == null ? ColumnType.forClassName(attributeInfo.getType()) : ColumnType.OTHER;
+    }
+    return ColumnType.forOpenType(path == null ? (OpenType<?>) openType : path.resolveType((OpenType<?>) openType));
+  }
+
+  /**
+   * Get the type of each output column.
+   *
+   * @param valueTypes the type of the attribute values of each column
+   * @return the type of each output column, including the leading time, target and object name columns
+   */
+  private ColumnType[] getColumnTypes(ColumnType[] valueTypes) {
+    List<ColumnType> types = new ArrayList<ColumnType>();
+    if (showTimestamp) {
+      types.add(ColumnType.LONG);
+    }
+    if (targetName != null) {
+      types.add(ColumnType.STRING);
+    }
+    if (objectNameIndex != null) {
+      types.add(ColumnType.STRING);
+    }
+    for (int i = 0; i < columnDefinitions.length; i++) {
+      ColumnFunction function = columnDefinitions[i].getFunction();
+      if (function.isAggregate() || function == ColumnFunction.RATE) {
+        types.add(ColumnType.DOUBLE);
+      } else if (function == ColumnFunction.DELTA) {
+        types.add(valueTypes[i] == ColumnType.LONG || valueTypes[i] == ColumnType.DOUBLE ? valueTypes[i] : ColumnType.OTHER);
+      } else {
+        types.add(valueTypes[i]);
+      }
+    }
+    return types.toArray(new ColumnType[types.size()]);
+  }
+
+  /**
+   * Fetch a single attribute value.
+   *
+   * @param serverConnection the connection to read from
+   * @param objectName the name of the MBean to read from
+   * @param attributeName the name of the attribute to read
+   * @return the attribute value, or <code>null</code> if the attribute cannot be read
+   * @throws IOException in case of a communication problem
+   * @throws InstanceNotFoundException in case the MBean does not exist
+   * @throws ReflectionException in case the attribute cannot be requested from the MBean
+   */
+  private Object getAttributeValue(MBeanServerConnection serverConnection, ObjectName objectName, String attributeName) throws IOException, InstanceNotFoundException, ReflectionException {
+    try {
+      return serverConnection.getAttribute(objectName, attributeName);
+    } catch (AttributeNotFoundException e) {
+      reportUnreadable(objectName, attributeName, "Attribute " + attributeName + " not found in " + objectName, null);
+    } catch (MBeanException e) {
+      reportUnreadable(objectName, attributeName, "Unable to read attribute " + attributeName + " from " + objectName, e.getTargetException());
+    } catch (RuntimeException e) {
+      // e.g. a RuntimeMBeanException or RuntimeErrorException wrapping what the getter has thrown
+      Throwable cause = e instanceof JMRuntimeException && e.getCause() != null ? e.getCause() : e;
+      reportUnreadable(objectName, attributeName, "Unable to read attribute " + attributeName + " from " + objectName, cause);
+    }
+    return null;
+  }
+
+  /**
+   * Report an attribute that cannot be read. Each attribute is only reported once per MBean, as it most likely fails
+   * on every sample.
+   *
+   * @param objectName the name of the MBean read from
+   * @param attributeName the name of the attribute
+   * @param message what went wrong
+   * @param cause the exception thrown while reading, may be <code>null</code>
+   */
+  private void reportUnreadable(ObjectName objectName, String attributeName, String message, Throwable cause) {
+    Set<String> attributes = unreadableAttributes.get(objectName);
+    if (attributes == null) {
+      attributes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      Set<String> existing = unreadableAttributes.putIfAbsent(objectName, attributes);
+      if (existing != null) {
+        attributes = existing;
+      }
+    }
+    if (attributes.add(attributeName)) {
+      LOGGER.warn(message + ", reported only once", cause);
+    } else {
+      LOGGER.debug(message, cause);
     }
-    return attributeValues;
   }
 
   /**
@@ -200,15 +820,27 @@ public class JmxStats {
    * @throws IOException in case the connection cannot be established
    */
   protected MBeanServerConnection getConnection() throws IOException {
-    if (connection == null) {
-      Map<String, Object> environment = new HashMap<String,Object>();
-      if( username != null && password != null ) {
-        environment.put(JMXConnector.CREDENTIALS, new String[] {username, password});
+    return getManagedConnection().getConnection();
+  }
+
+  /**
+   * Get the connection to the target, shared with all other targets with the same service URL and credentials.
+   *
+   * @return the managed connection, not necessarily connected yet
+   */
+  protected synchronized ManagedConnection getManagedConnection() {
+    if (managedConnection == null) {
+      if (connectionManager == null) {
+        connectionManager = new ConnectionManager();
       }
-      connector = JMXConnectorFactory.connect(serviceUrl, environment);
-      connection = connector.getMBeanServerConnection();
+      managedConnection = connectionManager.acquire(serviceUrl, username, password);
+      if (objectNameIndex != null) {
+        // lost notifications make the index query the MBean server again
+        managedConnection.addConnectionListener(objectNameIndex);
+      }
+      managedConnection.addConnectionListener(metadataCache);
     }
-    return connection;
+    return managedConnection;
   }
 
   /**
@@ -217,10 +849,80 @@ public class JmxStats {
    * @throws IOException in case something goes wrong while closing the JMX connection
    */
   protected void shutdown() throws IOException {
+    stop();
+    closeOutputs(Collections.newSetFromMap(new IdentityHashMap<OutputSink, Boolean>()));
+  }
+
+  /**
+   * Finish the output and the alerts and close their sinks, unless done already for another target sharing them.
+   * Only called once stopped.
+   *
+   * @param closedSinks the sinks closed so far, the sinks closed are added
+   * @throws IOException in case something goes wrong while closing the output
+   */
+  protected void closeOutputs(Set<OutputSink> closedSinks) throws IOException {
+    if (outputSink != null && closedSinks.add(outputSink)) {
+      if (outputFormat != null) {
+        outputFormat.finish(outputSink);
+      }
+      outputSink.close();
+    }
+    if (alertEngine != null && closedSinks.add(alertEngine.getSink())) {
+      alertEngine.close();
+    }
+  }
+
+  /**
+   * Stop sampling and release the JMX connection, but leave the output open as it may be shared with other targets.
+   * The connection is only closed if no other target uses it, so all listeners of this target are removed from it.
+   */
+  protected void stop() {
     started = false;
-    if (connector != null) {
-      LOGGER.info("Closed connection " + connector);
-      connector.close();
+    writeLastWindows();
+    metrics.unregister();
+    if (schedule != null && (schedule.getMissedTicks() > 0 || schedule.getLateTicks() > 0)) {
+      LOGGER.info("Missed " + schedule.getMissedTicks() + " ticks, " + schedule.getLateTicks() + " ticks ran late");
+    }
+    if (fetchExecutor != null) {
+      fetchExecutor.shutdownNow();
+    }
+    synchronized (this) {
+      if (managedConnection != null) {
+        if (objectNameIndex != null) {
+          managedConnection.removeConnectionListener(objectNameIndex);
+          objectNameIndex.unbind();
+        }
+        managedConnection.removeConnectionListener(metadataCache);
+        metadataCache.unbind();
+        LOGGER.info("Connection to " + serviceUrl + ": " + managedConnection.getReconnects() + " reconnects, last connect took "
+            + TimeUnit.NANOSECONDS.toMillis(managedConnection.getConnectLatencyNanos()) + "ms");
+        connectionManager.release(managedConnection);
+        managedConnection = null;
+      }
+    }
+  }
+
+  /**
+   * Wait for the sample in flight, then write the last aggregation windows. Done while stopping, as the output may be
+   * finished right after.
+   */
+  private void writeLastWindows() {
+    boolean locked = false;
+    try {
+      locked = sampleLock.tryLock(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!locked) {
+      LOGGER.warn("Sample still in progress, last windows not written");
+      return;
+    }
+    try {
+      outputWindows();
+    } catch (IOException e) {
+      LOGGER.error("Unable to write the last windows", e);
+    } finally {
+      sampleLock.unlock();
     }
   }
 
@@ -242,82 +944,489 @@ public class JmxStats {
       }
     });
 
+    validate();
     outputHeader();
+    metrics.register();
+    if (highFrequency && objectNameIndex != null) {
+      fetchExecutor = Executors.newFixedThreadPool(HIGH_FREQUENCY_FETCH_THREADS, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "fetch");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
     if (intervalMilliseconds > 0) {
       // output statistics on a regular basis
+      schedule = new FixedRateSchedule(TimeUnit.MILLISECONDS.toNanos(intervalMilliseconds), overrunPolicy);
+      if (maximumIntervalMilliseconds > intervalMilliseconds) {
+        adaptiveInterval = new AdaptiveInterval(TimeUnit.MILLISECONDS.toNanos(intervalMilliseconds),
+            TimeUnit.MILLISECONDS.toNanos(maximumIntervalMilliseconds));
+        watchedColumnIndex = getColumnIndex(watchedColumn);
+      }
+      schedule.start();
+      startTime = System.currentTimeMillis();
+      long nextSummary = schedule.getStartNanos() + TimeUnit.MILLISECONDS.toNanos(summaryMilliseconds);
       while (started) {
-        long currentRun = System.currentTimeMillis();
-        if (startTime == 0) {
-          startTime = System.currentTimeMillis();
+        long tick = schedule.awaitNextTick();
+        if (!started) {
+          break;
         }
-        long timeSinceStart = currentRun - startTime;
+        // in high-frequency mode use the actual time of the sample rather than the nominal time of the tick
+        long timeSinceStart = (highFrequency ? System.nanoTime() : tick) - schedule.getStartNanos();
         if (linesHeading > 0 && counter++ >= linesHeading) {
           // TODO: probably does not work as expected for linesHeading == 1
           outputHeader();
           counter = 0;
         }
         // get value and output it
-        outputStatistics(timeSinceStart);
-        // wait
-        long timeTaken = System.currentTimeMillis() - currentRun;
-        long timeToSleep = intervalMilliseconds - timeTaken;
-        // if fetching the value takes longer than the desired interval, wait at least 250ms
-        if (timeToSleep <= MINIMUM_WAIT_BETWEEN_STATISTICS_OUTPUT) {
-          timeToSleep = MINIMUM_WAIT_BETWEEN_STATISTICS_OUTPUT;
+        try {
+          outputStatistics(timeSinceStart);
+          if (adaptiveInterval != null) {
+            adaptInterval(adaptiveInterval.sampled(lastFetchNanos));
+          }
+        } catch (IOException e) {
+          if (!getManagedConnection().hasConnected()) {
+            // never connected, most likely the service URL is wrong
+            throw e;
+          }
+          // keep going, the connection is reestablished in the background of the next samples
+          LOGGER.debug("Sample skipped: " + e.getMessage());
+          if (adaptiveInterval != null) {
+            adaptInterval(adaptiveInterval.failed());
+          }
+        }
+        if (summaryMilliseconds > 0 && tick - nextSummary >= 0) {
+          Output.ERR.println(metrics.getSummary());
+          nextSummary = tick + TimeUnit.MILLISECONDS.toNanos(summaryMilliseconds);
         }
-        Thread.sleep(timeToSleep);
       }
     } else {
       // just a one-off
       outputStatistics(0);
+      outputWindows();
+    }
+  }
+
+  /**
+   * Change the interval of the schedule, if it has been adapted.
+   *
+   * @param intervalNanos the new interval in nanoseconds
+   */
+  private void adaptInterval(long intervalNanos) {
+    if (intervalNanos != schedule.getPeriodNanos()) {
+      LOGGER.debug("Interval adapted from " + TimeUnit.NANOSECONDS.toMillis(schedule.getPeriodNanos()) + "ms to "
+          + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + "ms, fetch took " + TimeUnit.NANOSECONDS.toMicros(lastFetchNanos) + "us");
+      schedule.setPeriodNanos(intervalNanos);
     }
   }
 
+  /**
+   * Find a column by its name.
+   *
+   * @param columnName the name as given in the attribute names, or <code>null</code>
+   * @return the index of the column, or <code>-1</code> if no name is given
+   * @throws IllegalArgumentException if there is no such column
+   */
+  private int getColumnIndex(String columnName) {
+    if (columnName == null) {
+      return -1;
+    }
+    for (int i = 0; i < columnDefinitions.length; i++) {
+      if (columnDefinitions[i].getName().equals(columnName)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("No such column: " + columnName);
+  }
+
   /**
    * Output the header for the statistics.
+   *
+   * @throws IOException in case the header cannot be written
    */
-  protected void outputHeader() {
-    if (header == null) {
-    List<String> headerValues = new ArrayList<String>();
+  protected void outputHeader() throws IOException {
+    getOutputFormat().writeHeader(getColumns(), getOutputSink());
+  }
+
+  /**
+   * Get the columns of the statistics.
+   *
+   * @return the column names
+   */
+  protected String[] getColumns() {
+    if (columns == null) {
+      List<String> headerValues = new ArrayList<String>();
       if (showTimestamp) {
-        headerValues.add("time");
+        headerValues.add(highFrequency ? "time_ns" : "time");
       }
-      for (String attributeName : attributeNames) {
-        headerValues.add(attributeName);
+      if (targetName != null) {
+        headerValues.add("target");
       }
-      header = StringUtils.join(headerValues, SEPARATOR_CHAR);
+      if (objectNameIndex != null) {
+        headerValues.add("objectName");
+      }
+      for (ColumnDefinition definition : columnDefinitions) {
+        headerValues.add(definition.getName());
+      }
+      columns = headerValues.toArray(new String[headerValues.size()]);
+      cells = new Object[columns.length];
     }
-    Output.OUT.println(header);
+    return columns;
   }
 
   /**
-   * Fetch a value for the statistics and output a new row.
+   * Fetch a value for the statistics and output a new row for each MBean. A communication problem marks the
+   * connection as failed, it is opened again on next use.
    *
-   * @param timeSinceStart the time in milliseconds since tool has been started
+   * @param timeSinceStart the time in nanoseconds since tool has been started
+   * @throws IOException in case of a communication problem, or if the connection is waiting to be reestablished
+   * @throws InstanceNotFoundException
+   * @throws ReflectionException
+   */
+  protected void outputStatistics(long timeSinceStart) throws IOException, InstanceNotFoundException, ReflectionException {
+    sampleLock.lock();
+    try {
+      if (!started) {
+        // stopped meanwhile, the last windows have been written already
+        return;
+      }
+      sample(timeSinceStart);
+    } finally {
+      sampleLock.unlock();
+    }
+  }
+
+  /**
+   * Fetch a value for the statistics and output a new row for each MBean, while holding the {@link #sampleLock}.
+   *
+   * @param timeSinceStart the time in nanoseconds since tool has been started
+   * @throws IOException in case of a communication problem, or if the connection is waiting to be reestablished
+   * @throws InstanceNotFoundException
+   * @throws ReflectionException
+   */
+  private void sample(long timeSinceStart) throws IOException, InstanceNotFoundException, ReflectionException {
+    long start = System.nanoTime();
+    MBeanServerConnection usedConnection;
+    try {
+      usedConnection = getConnection();
+    } catch (IOException e) {
+      metrics.failed();
+      throw e;
+    }
+    long connected = System.nanoTime();
+    sampleRowNanos = 0;
+    sampleOutputNanos = 0;
+    try {
+      outputRows(timeSinceStart);
+    } catch (IOException e) {
+      metrics.failed();
+      getManagedConnection().failed(usedConnection);
+      throw e;
+    }
+    // everything but the rows is fetching
+    long fetchNanos = System.nanoTime() - connected - sampleRowNanos;
+    lastFetchNanos = fetchNanos;
+    metrics.sampled(connected - start, fetchNanos, sampleRowNanos - sampleOutputNanos, sampleOutputNanos);
+  }
+
+  /**
+   * Fetch a value for the statistics and output a new row for each MBean.
+   *
+   * @param timeSinceStart the time in nanoseconds since tool has been started
    * @throws IOException
    * @throws InstanceNotFoundException
    * @throws ReflectionException
-   * @throws AttributeNotFoundException
-   * @throws MBeanException
    */
-  protected void outputStatistics(long timeSinceStart) throws IOException, InstanceNotFoundException, ReflectionException, AttributeNotFoundException, MBeanException {
-    List<String> outputValues = new ArrayList<String>();
+  private void outputRows(long timeSinceStart) throws IOException, InstanceNotFoundException, ReflectionException {
+    Set<ObjectName> names = getObjectNames();
+    if (fetchExecutor != null && names.size() > 1) {
+      // issue the requests for all MBeans at once, then output the rows in order
+      ObjectName[] snapshot = names.toArray(new ObjectName[0]);
+      FetchTask[] tasks = getFetchTasks(snapshot.length);
+      CountDownLatch done = new CountDownLatch(snapshot.length);
+      for (int i = 0; i < snapshot.length; i++) {
+        tasks[i].start(snapshot[i], done);
+        fetchExecutor.execute(tasks[i]);
+      }
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      for (int i = 0; i < snapshot.length; i++) {
+        Throwable failure = tasks[i].failure;
+        if (failure == null) {
+          outputRow(timeSinceStart, snapshot[i], tasks[i].attributeValueList);
+        } else if (failure instanceof InstanceNotFoundException) {
+          // the MBean matching the pattern has just been unregistered
+          LOGGER.debug("MBean " + snapshot[i] + " disappeared");
+        } else if (failure instanceof IOException) {
+          throw (IOException) failure;
+        } else if (failure instanceof ReflectionException) {
+          throw (ReflectionException) failure;
+        } else if (failure instanceof RuntimeException) {
+          throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+          throw (Error) failure;
+        } else {
+          throw new IllegalStateException("Unable to read " + snapshot[i], failure);
+        }
+      }
+    } else {
+      for (ObjectName name : names) {
+        List<Object> attributeValues;
+        try {
+          attributeValues = getAttributeValues(name);
+        } catch (InstanceNotFoundException e) {
+          if (objectNameIndex == null) {
+            throw e;
+          }
+          // the MBean matching the pattern has just been unregistered
+          LOGGER.debug("MBean " + name + " disappeared");
+          continue;
+        }
+        outputRow(timeSinceStart, name, attributeValues);
+      }
+    }
+    if (counterStates.size() > names.size()) {
+      // forget the previous samples of MBeans that have been unregistered
+      counterStates.keySet().retainAll(names);
+    }
+    if (windowAggregates.size() > names.size()) {
+      Iterator<Map.Entry<ObjectName, WindowAggregate>> iterator = windowAggregates.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<ObjectName, WindowAggregate> entry = iterator.next();
+        if (!names.contains(entry.getKey())) {
+          // the last window of an unregistered MBean is not completed by another sample
+          outputWindow(entry.getKey(), entry.getValue());
+          iterator.remove();
+        }
+      }
+    }
+    if (alertEngine != null) {
+      alertEngine.retainAll(names);
+    }
+    if (adaptiveInterval != null) {
+      adaptiveInterval.retainAll(names);
+    }
+    if (describedMBeans.size() > names.size()) {
+      describedMBeans.keySet().retainAll(names);
+    }
+    if (unreadableAttributes.size() > names.size()) {
+      unreadableAttributes.keySet().retainAll(names);
+    }
+  }
+
+  /**
+   * Get the fetch tasks for the given number of MBeans, creates more tasks if needed.
+   *
+   * @param count the number of MBeans to fetch
+   * @return the tasks, at least as many as MBeans
+   */
+  private FetchTask[] getFetchTasks(int count) {
+    if (fetchTasks.length < count) {
+      FetchTask[] tasks = Arrays.copyOf(fetchTasks, count);
+      for (int i = fetchTasks.length; i < count; i++) {
+        tasks[i] = new FetchTask();
+      }
+      fetchTasks = tasks;
+    }
+    return fetchTasks;
+  }
+
+  /**
+   * Output a new row.
+   *
+   * @param timeSinceStart the time in nanoseconds since tool has been started
+   * @param name the name of the MBean the values have been read from
+   * @param attributeValues the values read
+   * @throws IOException in case the row cannot be written
+   */
+  protected void outputRow(long timeSinceStart, ObjectName name, List<Object> attributeValues) throws IOException {
+    long nowNanos = System.nanoTime();
+    try {
+      outputRow(timeSinceStart, name, attributeValues, nowNanos);
+    } finally {
+      sampleRowNanos += System.nanoTime() - nowNanos;
+    }
+  }
+
+  /**
+   * Calculate the column values of a new row and output them, or add them to the aggregation window.
+   *
+   * @param timeSinceStart the time in nanoseconds since tool has been started
+   * @param name the name of the MBean the values have been read from
+   * @param attributeValues the values read
+   * @param nowNanos the time the values are processed, as returned by {@link System#nanoTime()}
+   * @throws IOException in case the row cannot be written
+   */
+  private void outputRow(long timeSinceStart, ObjectName name, List<Object> attributeValues, long nowNanos) throws IOException {
+    getColumns();
+    CounterState counterState = derivedColumns ? getCounterState(name) : null;
+    ColumnType[] valueTypes = this.valueTypes;
+    for (int i = 0; i < columnDefinitions.length; i++) {
+      Object attributeValue = attributeValues.get(columnAttributes[i]);
+      AttributePath path = columnDefinitions[i].getPath();
+      if (path != null) {
+        attributeValue = path.resolve(attributeValue);
+      }
+      ColumnFunction function = columnDefinitions[i].getFunction();
+      sampleValues[i] = function.isDerived() ? counterState.derive(i, function, valueTypes != null ? valueTypes[i] : ColumnType.OTHER, attributeValue, nowNanos) : attributeValue;
+    }
+    if (watchedColumnIndex >= 0) {
+      adaptiveInterval.watch(name, sampleValues[watchedColumnIndex]);
+    }
+    if (alertEngine != null) {
+      alertEngine.evaluate(name, sampleValues, nowNanos);
+    }
+    if (!aggregateColumns && windowMilliseconds <= 0) {
+      writeRow(timeSinceStart, false, name, sampleValues);
+      return;
+    }
+    WindowAggregate windowAggregate = getWindowAggregate(name);
+    if (windowMilliseconds <= 0) {
+      windowAggregate.record(0, sampleValues);
+      windowAggregate.summarize(windowValues);
+      writeRow(timeSinceStart, false, name, windowValues);
+      return;
+    }
+    long window = timeSinceStart / TimeUnit.MILLISECONDS.toNanos(windowMilliseconds);
+    if (windowAggregate.getWindow() != window) {
+      // the first sample of a new window completes the previous one
+      outputWindow(name, windowAggregate);
+    }
+    windowAggregate.record(window, sampleValues);
+  }
+
+  /**
+   * Output the summary of the current aggregation window of each MBean. Called when sampling ends, so that the last
+   * windows are not lost even though they are incomplete. Must not run concurrently with a sample.
+   *
+   * @throws IOException in case a row cannot be written
+   */
+  private void outputWindows() throws IOException {
+    for (Map.Entry<ObjectName, WindowAggregate> entry : windowAggregates.entrySet()) {
+      outputWindow(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Output the summary of the current aggregation window of an MBean and start a new one, unless the window is empty.
+   *
+   * @param name the name of the MBean
+   * @param windowAggregate the current window of the MBean
+   * @throws IOException in case the row cannot be written
+   */
+  private void outputWindow(ObjectName name, WindowAggregate windowAggregate) throws IOException {
+    if (!windowAggregate.isEmpty()) {
+      long windowStart = windowAggregate.getWindow() * TimeUnit.MILLISECONDS.toNanos(windowMilliseconds);
+      windowAggregate.summarize(windowValues);
+      writeRow(windowStart, true, name, windowValues);
+    }
+  }
+
+  /**
+   * Write a row of values.
+   *
+   * @param timeSinceStart the time in nanoseconds since tool has been started, the start of the window if aggregated
+   * @param aggregated whether the row summarizes an aggregation window
+   * @param name the name of the MBean the values have been read from
+   * @param values the value of each column
+   * @throws IOException in case the row cannot be written
+   */
+  private void writeRow(long timeSinceStart, boolean aggregated, ObjectName name, Object[] values) throws IOException {
+    String[] columns = getColumns();
+    int cell = 0;
     if (showTimestamp) {
-      if (showUnixTime) {
-        outputValues.add(Long.toString(System.currentTimeMillis()));
+      if (highFrequency) {
+        cells[cell++] = showUnixTime ? TimeUnit.MILLISECONDS.toNanos(startTime) + timeSinceStart : timeSinceStart;
+      } else if (showUnixTime) {
+        cells[cell++] = aggregated ? startTime + TimeUnit.NANOSECONDS.toMillis(timeSinceStart) : System.currentTimeMillis();
       } else {
-        outputValues.add(Long.toString(timeSinceStart));
+        cells[cell++] = TimeUnit.NANOSECONDS.toMillis(timeSinceStart);
       }
     }
-    // read actual values
-    List<Object> attributeValues = getAttributeValues();
-    for (Object attributeValue : attributeValues) {
-      // convert the value read
-      String value = converter.convert(attributeValue);
-      outputValues.add(value);
+    if (targetName != null) {
+      cells[cell++] = targetName;
+    }
+    if (objectNameIndex != null) {
+      cells[cell++] = name.toString();
+    }
+    System.arraycopy(values, 0, cells, cell, values.length);
+    // the format converts the values read and outputs them
+    long outputStart = System.nanoTime();
+    getOutputFormat().writeRow(columns, cells, getOutputSink());
+    sampleOutputNanos += System.nanoTime() - outputStart;
+  }
+
+  /**
+   * Get the current aggregation window of an MBean.
+   *
+   * @param name the name of the MBean
+   * @return the current window, empty for a new MBean
+   */
+  private WindowAggregate getWindowAggregate(ObjectName name) {
+    WindowAggregate windowAggregate = windowAggregates.get(name);
+    if (windowAggregate == null) {
+      ColumnFunction[] functions = new ColumnFunction[columnDefinitions.length];
+      for (int i = 0; i < functions.length; i++) {
+        functions[i] = columnDefinitions[i].getFunction();
+      }
+      windowAggregate = new WindowAggregate(functions);
+      windowAggregates.put(name, windowAggregate);
+    }
+    return windowAggregate;
+  }
+
+  /**
+   * Get the previous sample of an MBean, to calculate the derived columns from.
+   *
+   * @param name the name of the MBean
+   * @return the previous sample, empty for a new MBean
+   */
+  private CounterState getCounterState(ObjectName name) {
+    CounterState counterState = counterStates.get(name);
+    if (counterState == null) {
+      counterState = new CounterState(columnDefinitions.length);
+      counterStates.put(name, counterState);
+    }
+    return counterState;
+  }
+
+  /**
+   * Fetches the attributes of a single MBean in high-frequency mode. The task and its arrays are reused from sample
+   * to sample, so that fetching does not allocate more than the request itself.
+   */
+  private class FetchTask implements Runnable {
+    private final Object[] attributeValues = new Object[attributeNamesArray.length];
+    private final boolean[] found = new boolean[attributeNamesArray.length];
+    private final List<Object> attributeValueList = Arrays.asList(attributeValues);
+    private ObjectName name;
+    private CountDownLatch done;
+    private Throwable failure;
+
+    /**
+     * Prepare the task for the next sample.
+     *
+     * @param name the name of the MBean to fetch
+     * @param done counted down when the task has finished
+     */
+    void start(ObjectName name, CountDownLatch done) {
+      this.name = name;
+      this.done = done;
+      this.failure = null;
+    }
+
+    public void run() {
+      try {
+        fetchAttributeValues(name, attributeValues, found);
+      } catch (Throwable e) {
+        failure = e;
+      } finally {
+        done.countDown();
+      }
     }
-    // and output the value
-    String output = StringUtils.join(outputValues, SEPARATOR_CHAR);
-    Output.OUT.println(output);
   }
 }
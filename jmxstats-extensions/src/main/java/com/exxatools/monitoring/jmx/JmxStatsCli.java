@@ -16,6 +16,7 @@
 
 package com.exxatools.monitoring.jmx;
 
+import com.exxatools.monitoring.jmx.output.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,21 +26,55 @@ import org.springframework.shell.core.annotation.CliCommand;
 import org.springframework.shell.core.annotation.CliOption;
 import org.springframework.stereotype.Component;
 
+import javax.management.JMException;
 import javax.management.MalformedObjectNameException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.util.*;
 
 /**
  * Parameters
  * <ul>
  * <li>serviceUrl</li>
- * <li>objectName</li>
- * <li>attributeName</li>
+ * <li>pid - instead of a service URL, the process id of a local JVM to attach to</li>
+ * <li>objectName - may be a pattern matching several MBeans, one row per MBean is outputted</li>
+ * <li>attributeName - comma-separated, an attribute can be wrapped in delta(...) or rate(...) to output the change of a counter per interval or per second,
+ * or in min(...), max(...), mean(...), p50(...), p90(...) or p99(...) to summarize its values per window</li>
  * <li>username</li>
  * <li>password</li>
  * <li>heading - number indicates after how many lines the heading should be outputted</li>
  * <li>interval - every how many seconds to query and output the value</li>
+ * <li>window - the length of the aggregation window in milliseconds, one summary row per window is outputted</li>
+ * <li>maxInterval - stretch the interval up to that many milliseconds while the target is under stress</li>
+ * <li>watch - a column whose quick changes tighten a stretched interval right away</li>
+ * <li>alerts - alert rules evaluated on each sample, e.g. <code>Usage.used / Usage.max &gt; 90% for 3</code></li>
+ * <li>alertOutput - the file to append firing and resolved alerts to, instead of the standard error</li>
+ * <li>overrun - what to do when a sample takes longer than the interval: SKIP, CATCH_UP or COALESCE</li>
  * <li>timestamp (boolean) - output the time in milliseconds since start of the tool</li>
  * <li>unixtime (boolean) - output the time in milliseconds from begin of unix time</li>
+ * <li>output - the file to append the statistics to, instead of the standard output</li>
+ * <li>format - the output format: TEXT (tab-separated), CSV, JSON (one object per line) or BINARY</li>
+ * <li>flush - when to pass buffered output on: after each ROW, after a number of ROWS, or after a time WINDOW</li>
+ * <li>flushEvery - the number of rows or milliseconds between flushes</li>
+ * <li>record - the directory to record the statistics to in memory-mapped segment files, for a later replay</li>
+ * <li>segmentSize - the size of each recording segment in megabytes</li>
+ * <li>segments - the number of recording segments to keep</li>
+ * <li>exporter - the port to serve the latest values at in OpenMetrics text format, nothing else is outputted unless
+ * an output file or a recording directory is given</li>
+ * <li>fields - the notification fields to output by the listen command, which outputs notifications as they arrive</li>
+ * <li>queue - the maximum number of notifications waiting to be output by the listen command</li>
+ * <li>pipeline - the maximum number of rows waiting to be written by a thread of their own, so that a slow consumer of the
+ * output does not delay sampling</li>
+ * <li>overflow - what to do with a row when the pipeline is full: DROP_OLDEST, DROP_NEWEST or BLOCK</li>
+ * <li>summary - every how many milliseconds to print a summary of the tool's own metrics to the standard error</li>
+ * <li>parallelism - the maximum number of MBeans read at the same time by the snapshot command, which writes all readable
+ * attributes of all matching MBeans once to a gzip compressed file of JSON lines</li>
+ * <li>highFrequency (boolean) - allow intervals down to 10ms, timestamps are outputted in nanoseconds</li>
+ * <li>targets - the properties file describing the targets of the collect command, with serviceUrl or pid,
+ * objectName, attributeName, alerts, username, password, interval, window, output and format per target; changes to the file
+ * are applied while collecting</li>
  * </ul>
  *
  * @author Malte Franken
@@ -52,13 +87,18 @@ public class JmxStatsCli implements CommandMarker {
   private static final String OPT_SERVICE_URL = "s";
   private static final String HELP_SERVICE_URL = "The full JMX service URL";
 
+  private static final String LONG_OPT_PID = "pid";
+  private static final String OPT_PID = "pi";
+  private static final String HELP_PID = "Instead of a service URL, the process id of a local JVM to attach to, no remote JMX port needed";
+
   private static final String LONG_OPT_OBJECT_NAME = "objectName";
   private static final String OPT_OBJECT_NAME = "o";
-  private static final String HELP_OBJECT_NAME = "The object name";
+  private static final String HELP_OBJECT_NAME = "The object name, or an object name pattern such as java.lang:type=GarbageCollector,*";
 
   private static final String LONG_OPT_ATTRIBUTE_NAME = "attributeName";
   private static final String OPT_ATTRIBUTE_NAME = "a";
-  private static final String HELP_ATTRIBUTE_NAME = "The attribute name, or a list of comma-separated attribute names";
+  private static final String HELP_ATTRIBUTE_NAME = "The attribute name, or a list of comma-separated attribute names. Wrap counters in delta(...) or rate(...) for the change per interval or per second, "
+      + "wrap values in min(...), max(...), mean(...), p50(...), p90(...) or p99(...) to summarize them per window. Quote attribute names containing dots, like 'Cache.Hits'";
 
   private static final String LONG_OPT_USERNAME = "username";
   private static final String OPT_USERNAME = "u";
@@ -70,7 +110,31 @@ public class JmxStatsCli implements CommandMarker {
 
   private static final String LONG_OPT_INTERVAL = "interval";
   private static final String OPT_INTERVAL = "i";
-  private static final String HELP_INTERVAL = "Sampling interval in milliseconds (minimum is 250ms)";
+  private static final String HELP_INTERVAL = "Sampling interval in milliseconds (minimum is 250ms, or 10ms in high-frequency mode)";
+
+  private static final String LONG_OPT_WINDOW = "window";
+  private static final String OPT_WINDOW = "w";
+  private static final String HELP_WINDOW = "Aggregation window in milliseconds, outputs one summary row per window instead of a row per sample";
+
+  private static final String LONG_OPT_OVERRUN = "overrun";
+  private static final String OPT_OVERRUN = "r";
+  private static final String HELP_OVERRUN = "What to do when a sample takes longer than the interval: SKIP the passed samples, CATCH_UP on them, or COALESCE them into one";
+
+  private static final String LONG_OPT_MAX_INTERVAL = "maxInterval";
+  private static final String OPT_MAX_INTERVAL = "mi";
+  private static final String HELP_MAX_INTERVAL = "Adapt the interval to the target: stretch it up to this many milliseconds while fetching takes unusually long, tighten it again when the target has recovered";
+
+  private static final String LONG_OPT_WATCH = "watch";
+  private static final String OPT_WATCH = "wa";
+  private static final String HELP_WATCH = "A column whose quick changes tighten an adapted interval right away, e.g. rate(CollectionTime)";
+
+  private static final String LONG_OPT_ALERTS = "alerts";
+  private static final String OPT_ALERTS = "al";
+  private static final String HELP_ALERTS = "Alert rules evaluated on each sample, separated by commas, e.g. \"Usage.used / Usage.max > 90% for 3, rate(CollectionTime) > 100 for 30s\"";
+
+  private static final String LONG_OPT_ALERT_OUTPUT = "alertOutput";
+  private static final String OPT_ALERT_OUTPUT = "ao";
+  private static final String HELP_ALERT_OUTPUT = "File to append firing and resolved alerts to, instead of the standard error";
 
   private static final String LONG_OPT_LINES = "lines";
   private static final String OPT_LINES = "l";
@@ -84,42 +148,183 @@ public class JmxStatsCli implements CommandMarker {
   private static final String OPT_UNIXTIME = "unix";
   private static final String HELP_UNIXTIME = "Display the timestamp in unix time (milliseconds since 1 Jan 1970)";
 
+  private static final String LONG_OPT_OUTPUT = "output";
+  private static final String OPT_OUTPUT = "out";
+  private static final String HELP_OUTPUT = "File to append the statistics to, instead of the standard output";
+
+  private static final String LONG_OPT_FORMAT = "format";
+  private static final String OPT_FORMAT = "fmt";
+  private static final String HELP_FORMAT = "Output format: TEXT (tab-separated), CSV, JSON (one object per line) or BINARY (compact columnar)";
+
+  private static final String LONG_OPT_FLUSH = "flush";
+  private static final String OPT_FLUSH = "fl";
+  private static final String HELP_FLUSH = "When to pass buffered output on: after each ROW, after a number of ROWS, or after a time WINDOW";
+
+  private static final String LONG_OPT_FLUSH_EVERY = "flushEvery";
+  private static final String OPT_FLUSH_EVERY = "fe";
+  private static final String HELP_FLUSH_EVERY = "Number of rows, or milliseconds, between flushes";
+
+  private static final String LONG_OPT_RECORD = "record";
+  private static final String OPT_RECORD = "rec";
+  private static final String HELP_RECORD = "Directory to record the statistics to, in binary format and rolling segment files";
+
+  private static final String LONG_OPT_SEGMENT_SIZE = "segmentSize";
+  private static final String OPT_SEGMENT_SIZE = "ss";
+  private static final String HELP_SEGMENT_SIZE = "Size of each recording segment in megabytes";
+
+  private static final String LONG_OPT_SEGMENTS = "segments";
+  private static final String OPT_SEGMENTS = "sn";
+  private static final String HELP_SEGMENTS = "Number of recording segments to keep, older segments are deleted";
+
+  private static final String LONG_OPT_INPUT = "input";
+  private static final String OPT_INPUT = "in";
+  private static final String HELP_INPUT = "Recording directory, segment file or binary output file to replay";
+
+  private static final String LONG_OPT_REAL_TIME = "realtime";
+  private static final String OPT_REAL_TIME = "rt";
+  private static final String HELP_REAL_TIME = "Replay at the pace the statistics have been recorded at, instead of at full speed";
+
+  private static final String LONG_OPT_EXPORTER = "exporter";
+  private static final String OPT_EXPORTER = "x";
+  private static final String HELP_EXPORTER = "Port to serve the latest values at, in OpenMetrics text format at /metrics";
+
+  private static final String LONG_OPT_FIELDS = "fields";
+  private static final String OPT_FIELDS = "fi";
+  private static final String HELP_FIELDS = "Comma-separated notification fields to output: type, sequence, timeStamp, message, source, attributeName, attributeType, "
+      + "oldValue, newValue, userData, or a dotted path into the user data like userData.gcInfo.duration";
+
+  private static final String LONG_OPT_QUEUE = "queue";
+  private static final String OPT_QUEUE = "q";
+  private static final String HELP_QUEUE = "Maximum number of notifications waiting to be output, further notifications are dropped";
+
+  private static final String LONG_OPT_PIPELINE = "pipeline";
+  private static final String OPT_PIPELINE = "pl";
+  private static final String HELP_PIPELINE = "Write the output on a thread of its own through a queue of up to that many rows, so that a slow consumer does not delay sampling";
+
+  private static final String LONG_OPT_OVERFLOW = "overflow";
+  private static final String OPT_OVERFLOW = "of";
+  private static final String HELP_OVERFLOW = "What to do with a row when the pipeline queue is full: DROP_OLDEST or DROP_NEWEST row, or BLOCK sampling until there is room";
+
+  private static final String LONG_OPT_SUMMARY = "summary";
+  private static final String OPT_SUMMARY = "sum";
+  private static final String HELP_SUMMARY = "Print a summary of the tool's own metrics to the standard error every that many milliseconds, they are always available as MBean";
+
+  private static final String LONG_OPT_PARALLELISM = "parallelism";
+  private static final String OPT_PARALLELISM = "par";
+  private static final String HELP_PARALLELISM = "Maximum number of MBeans read at the same time";
+
+  private static final String HELP_SNAPSHOT_OBJECT_NAME = "The object name pattern of the MBeans to read, all MBeans if not given";
+
+  private static final String HELP_SNAPSHOT_OUTPUT = "File to write the snapshot to, as gzip compressed JSON lines with one MBean per line";
+
+  private static final String LONG_OPT_HIGH_FREQUENCY = "highFrequency";
+  private static final String OPT_HIGH_FREQUENCY = "hf";
+  private static final String HELP_HIGH_FREQUENCY = "Sample in high-frequency mode, allows intervals down to 10ms and outputs timestamps in nanoseconds";
+
+  private static final String LONG_OPT_TARGETS = "targets";
+  private static final String OPT_TARGETS = "f";
+  private static final String HELP_TARGETS = "Properties file describing the targets, with serviceUrl or pid, objectName, attributeName, alerts, username, password, interval, window, output and format per target, e.g. broker1.serviceUrl=... Changes are picked up while running";
+
+  private static final String LONG_OPT_THREADS = "threads";
+  private static final String OPT_THREADS = "n";
+  private static final String HELP_THREADS = "Maximum number of targets sampled at the same time";
+
   private static final String MAIN_BEAN_NAME = "jmxStats";
 
+  private static final String COLLECTOR_BEAN_NAME = "jmxCollector";
+
+  private static final String REPLAY_BEAN_NAME = "recordingReplay";
+
   @Autowired
   private ApplicationContext applicationContext;
 
   @CliCommand(value = "stats", help = "Collect statistics information from a JMX source")
-  public void stats(@CliOption(key = {LONG_OPT_SERVICE_URL, OPT_SERVICE_URL}, mandatory = true, help = HELP_SERVICE_URL) String serviceUrl,
+  public void stats(@CliOption(key = {LONG_OPT_SERVICE_URL, OPT_SERVICE_URL}, mandatory = false, help = HELP_SERVICE_URL) String serviceUrl,
+                    @CliOption(key = {LONG_OPT_PID, OPT_PID}, mandatory = false, help = HELP_PID) String pid,
                     @CliOption(key = {LONG_OPT_OBJECT_NAME, OPT_OBJECT_NAME}, mandatory = true, help = HELP_OBJECT_NAME) String objectName,
                     @CliOption(key = {LONG_OPT_ATTRIBUTE_NAME, OPT_ATTRIBUTE_NAME}, mandatory = true, help = HELP_ATTRIBUTE_NAME) String attributeName,
                     @CliOption(key = {LONG_OPT_USERNAME, OPT_USERNAME}, mandatory = false, help = HELP_USERNAME, specifiedDefaultValue = "", unspecifiedDefaultValue = "") String username,
                     @CliOption(key = {LONG_OPT_PASSWORD, OPT_PASSWORD}, mandatory = false, help = HELP_PASSWORD, specifiedDefaultValue = "", unspecifiedDefaultValue = "") String password,
                     @CliOption(key = {LONG_OPT_INTERVAL, OPT_INTERVAL}, mandatory = false, help = HELP_INTERVAL, specifiedDefaultValue = "250", unspecifiedDefaultValue = "250") long interval,
+                    @CliOption(key = {LONG_OPT_WINDOW, OPT_WINDOW}, mandatory = false, help = HELP_WINDOW, specifiedDefaultValue = "0", unspecifiedDefaultValue = "0") long window,
+                    @CliOption(key = {LONG_OPT_MAX_INTERVAL, OPT_MAX_INTERVAL}, mandatory = false, help = HELP_MAX_INTERVAL, unspecifiedDefaultValue = "0") long maxInterval,
+                    @CliOption(key = {LONG_OPT_WATCH, OPT_WATCH}, mandatory = false, help = HELP_WATCH) String watch,
+                    @CliOption(key = {LONG_OPT_ALERTS, OPT_ALERTS}, mandatory = false, help = HELP_ALERTS) String alerts,
+                    @CliOption(key = {LONG_OPT_ALERT_OUTPUT, OPT_ALERT_OUTPUT}, mandatory = false, help = HELP_ALERT_OUTPUT) String alertOutput,
+                    @CliOption(key = {LONG_OPT_OVERRUN, OPT_OVERRUN}, mandatory = false, help = HELP_OVERRUN, specifiedDefaultValue = "SKIP", unspecifiedDefaultValue = "SKIP") OverrunPolicy overrunPolicy,
                     @CliOption(key = {LONG_OPT_LINES, OPT_LINES}, mandatory = false, help = HELP_LINES, specifiedDefaultValue = "0", unspecifiedDefaultValue = "0") int linesHeading,
                     @CliOption(key = {LONG_OPT_TIMESTAMP, OPT_TIMESTAMP}, mandatory = false, help = HELP_TIMESTAMP, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean showTimestamp,
-                    @CliOption(key = {LONG_OPT_UNIXTIME, OPT_UNIXTIME}, mandatory = false, help = HELP_UNIXTIME, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean showUnixTime) {
+                    @CliOption(key = {LONG_OPT_UNIXTIME, OPT_UNIXTIME}, mandatory = false, help = HELP_UNIXTIME, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean showUnixTime,
+                    @CliOption(key = {LONG_OPT_HIGH_FREQUENCY, OPT_HIGH_FREQUENCY}, mandatory = false, help = HELP_HIGH_FREQUENCY, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean highFrequency,
+                    @CliOption(key = {LONG_OPT_OUTPUT, OPT_OUTPUT}, mandatory = false, help = HELP_OUTPUT) String outputFile,
+                    @CliOption(key = {LONG_OPT_FORMAT, OPT_FORMAT}, mandatory = false, help = HELP_FORMAT, specifiedDefaultValue = "TEXT", unspecifiedDefaultValue = "TEXT") OutputFormatType format,
+                    @CliOption(key = {LONG_OPT_FLUSH, OPT_FLUSH}, mandatory = false, help = HELP_FLUSH, specifiedDefaultValue = "ROW", unspecifiedDefaultValue = "ROW") FlushPolicy flushPolicy,
+                    @CliOption(key = {LONG_OPT_FLUSH_EVERY, OPT_FLUSH_EVERY}, mandatory = false, help = HELP_FLUSH_EVERY, specifiedDefaultValue = "1", unspecifiedDefaultValue = "1") long flushEvery,
+                    @CliOption(key = {LONG_OPT_RECORD, OPT_RECORD}, mandatory = false, help = HELP_RECORD) String recordDirectory,
+                    @CliOption(key = {LONG_OPT_SEGMENT_SIZE, OPT_SEGMENT_SIZE}, mandatory = false, help = HELP_SEGMENT_SIZE, specifiedDefaultValue = "16", unspecifiedDefaultValue = "16") int segmentSize,
+                    @CliOption(key = {LONG_OPT_SEGMENTS, OPT_SEGMENTS}, mandatory = false, help = HELP_SEGMENTS, specifiedDefaultValue = "16", unspecifiedDefaultValue = "16") int segments,
+                    @CliOption(key = {LONG_OPT_EXPORTER, OPT_EXPORTER}, mandatory = false, help = HELP_EXPORTER) Integer exporterPort,
+                    @CliOption(key = {LONG_OPT_PIPELINE, OPT_PIPELINE}, mandatory = false, help = HELP_PIPELINE, unspecifiedDefaultValue = "0") int pipeline,
+                    @CliOption(key = {LONG_OPT_OVERFLOW, OPT_OVERFLOW}, mandatory = false, help = HELP_OVERFLOW, specifiedDefaultValue = "DROP_OLDEST", unspecifiedDefaultValue = "DROP_OLDEST") OverflowPolicy overflowPolicy,
+                    @CliOption(key = {LONG_OPT_SUMMARY, OPT_SUMMARY}, mandatory = false, help = HELP_SUMMARY, unspecifiedDefaultValue = "0") long summary) {
     try {
       // a few more sanity checks
-      if (interval < 250) {
-        Output.OUT.println("Warning: interval value too small, setting to 250");
-        interval = 250;
+      int minimumInterval = highFrequency ? JmxStats.MINIMUM_WAIT_BETWEEN_HIGH_FREQUENCY_OUTPUT : JmxStats.MINIMUM_WAIT_BETWEEN_STATISTICS_OUTPUT;
+      if (interval < minimumInterval) {
+        Output.OUT.println("Warning: interval value too small, setting to " + minimumInterval);
+        interval = minimumInterval;
       }
       if (linesHeading < 0) {
         Output.OUT.println("Warning: lines value too small, setting to 0");
         interval = 0;
       }
+      if (watch != null && maxInterval <= interval) {
+        Output.OUT.println("Warning: watch has no effect unless the maxInterval is longer than the interval");
+      }
+      if ((serviceUrl == null) == (pid == null)) {
+        Output.OUT.println("Either a service URL or a process id is required");
+        return;
+      }
       // finally, find and start the tool
       JmxStats jmxStats = (JmxStats) applicationContext.getBean(MAIN_BEAN_NAME);
-      jmxStats.setServiceUrl(serviceUrl);
+      if (serviceUrl != null) {
+        jmxStats.setServiceUrl(serviceUrl);
+      } else {
+        jmxStats.setPid(pid);
+      }
       jmxStats.setObjectName(objectName);
       jmxStats.setAttributeName(attributeName);
       jmxStats.setUsername(username);
       jmxStats.setPassword(password);
       jmxStats.setIntervalMilliseconds(interval);
+      jmxStats.setMaximumIntervalMilliseconds(maxInterval);
+      jmxStats.setWatchedColumn(watch);
+      if (alerts != null) {
+        OutputSink alertSink = createAlertSink(alertOutput);
+        try {
+          jmxStats.setAlerts(alerts, alertSink, createAlertFormat(format, alertSink));
+        } catch (IllegalArgumentException e) {
+          Output.OUT.println("Alert rule incorrect: " + e.getMessage());
+          LOGGER.error("Alert rule incorrect: " + alerts, e);
+          return;
+        }
+      }
+      jmxStats.setOverrunPolicy(overrunPolicy);
+      jmxStats.setWindowMilliseconds(window);
       jmxStats.setLinesHeading(linesHeading);
-      jmxStats.setShowTimestamp(showTimestamp);
+      // recordings always contain a timestamp, so that they can be replayed in real time
+      jmxStats.setShowTimestamp(showTimestamp || recordDirectory != null);
       jmxStats.setShowUnixTime(showUnixTime);
+      jmxStats.setHighFrequency(highFrequency);
+      jmxStats.setSummaryMilliseconds(summary);
+      jmxStats.setOutputSink(createOutputSink(outputFile, flushPolicy, flushEvery, recordDirectory, segmentSize, segments));
+      OutputFormat outputFormat = createOutputFormat(format, outputFile, recordDirectory, exporterPort);
+      if (pipeline > 0) {
+        PipelinedOutputFormat pipelinedFormat = new PipelinedOutputFormat(outputFormat, pipeline, overflowPolicy);
+        pipelinedFormat.start();
+        outputFormat = pipelinedFormat;
+      }
+      jmxStats.setOutputFormat(outputFormat);
       jmxStats.run();
     } catch (MalformedURLException e) {
       Output.OUT.println("Service URL incorrect: " + e.getMessage());
@@ -127,10 +332,385 @@ public class JmxStatsCli implements CommandMarker {
     } catch (MalformedObjectNameException e) {
       Output.OUT.println("Object name incorrect: " + e.getMessage());
       LOGGER.error("Object name malformed: " + objectName, e);
+    } catch (IllegalArgumentException e) {
+      // also covers attribute names, columns to watch and formats that cannot be parsed
+      Output.OUT.println("Option incorrect: " + e.getMessage());
+      LOGGER.error("Option incorrect", e);
+    } catch (Exception e) {
+      Output.OUT.println("Unexpected error occurred: " + e.getMessage());
+      LOGGER.error("Unexpected error occurred", e);
+    }
+  }
+
+  @CliCommand(value = "collect", help = "Collect statistics information from several JMX sources concurrently")
+  public void collect(@CliOption(key = {LONG_OPT_TARGETS, OPT_TARGETS}, mandatory = true, help = HELP_TARGETS) String targetsFile,
+                      @CliOption(key = {LONG_OPT_INTERVAL, OPT_INTERVAL}, mandatory = false, help = HELP_INTERVAL, specifiedDefaultValue = "250", unspecifiedDefaultValue = "250") long interval,
+                      @CliOption(key = {LONG_OPT_WINDOW, OPT_WINDOW}, mandatory = false, help = HELP_WINDOW, specifiedDefaultValue = "0", unspecifiedDefaultValue = "0") long window,
+                      @CliOption(key = {LONG_OPT_ALERT_OUTPUT, OPT_ALERT_OUTPUT}, mandatory = false, help = HELP_ALERT_OUTPUT) String alertOutput,
+                      @CliOption(key = {LONG_OPT_THREADS, OPT_THREADS}, mandatory = false, help = HELP_THREADS, specifiedDefaultValue = "16", unspecifiedDefaultValue = "16") int threads,
+                      @CliOption(key = {LONG_OPT_TIMESTAMP, OPT_TIMESTAMP}, mandatory = false, help = HELP_TIMESTAMP, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean showTimestamp,
+                      @CliOption(key = {LONG_OPT_UNIXTIME, OPT_UNIXTIME}, mandatory = false, help = HELP_UNIXTIME, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean showUnixTime,
+                      @CliOption(key = {LONG_OPT_OUTPUT, OPT_OUTPUT}, mandatory = false, help = HELP_OUTPUT) String outputFile,
+                      @CliOption(key = {LONG_OPT_FORMAT, OPT_FORMAT}, mandatory = false, help = HELP_FORMAT, specifiedDefaultValue = "TEXT", unspecifiedDefaultValue = "TEXT") OutputFormatType format,
+                      @CliOption(key = {LONG_OPT_FLUSH, OPT_FLUSH}, mandatory = false, help = HELP_FLUSH, specifiedDefaultValue = "ROW", unspecifiedDefaultValue = "ROW") FlushPolicy flushPolicy,
+                      @CliOption(key = {LONG_OPT_FLUSH_EVERY, OPT_FLUSH_EVERY}, mandatory = false, help = HELP_FLUSH_EVERY, specifiedDefaultValue = "1", unspecifiedDefaultValue = "1") long flushEvery,
+                      @CliOption(key = {LONG_OPT_RECORD, OPT_RECORD}, mandatory = false, help = HELP_RECORD) String recordDirectory,
+                      @CliOption(key = {LONG_OPT_SEGMENT_SIZE, OPT_SEGMENT_SIZE}, mandatory = false, help = HELP_SEGMENT_SIZE, specifiedDefaultValue = "16", unspecifiedDefaultValue = "16") int segmentSize,
+                      @CliOption(key = {LONG_OPT_SEGMENTS, OPT_SEGMENTS}, mandatory = false, help = HELP_SEGMENTS, specifiedDefaultValue = "16", unspecifiedDefaultValue = "16") int segments,
+                      @CliOption(key = {LONG_OPT_EXPORTER, OPT_EXPORTER}, mandatory = false, help = HELP_EXPORTER) Integer exporterPort,
+                      @CliOption(key = {LONG_OPT_SUMMARY, OPT_SUMMARY}, mandatory = false, help = HELP_SUMMARY, unspecifiedDefaultValue = "0") long summary) {
+    try {
+      // a few more sanity checks
+      if (interval < 250) {
+        Output.OUT.println("Warning: interval value too small, setting to 250");
+        interval = 250;
+      }
+      if (threads < 1) {
+        Output.OUT.println("Warning: threads value too small, setting to 1");
+        threads = 1;
+      }
+      CollectorTargetFactory targetFactory = new CollectorTargetFactory();
+      targetFactory.interval = interval;
+      targetFactory.window = window;
+      targetFactory.showTimestamp = showTimestamp || recordDirectory != null;
+      targetFactory.showUnixTime = showUnixTime;
+      targetFactory.flushPolicy = flushPolicy;
+      targetFactory.flushEvery = flushEvery;
+      targetFactory.alertOutput = alertOutput;
+      targetFactory.alertFormat = format;
+      // finally, find and start the collector
+      JmxCollector jmxCollector = (JmxCollector) applicationContext.getBean(COLLECTOR_BEAN_NAME);
+      jmxCollector.setTargetsFile(new File(targetsFile), targetFactory);
+      jmxCollector.setIntervalMilliseconds(interval);
+      jmxCollector.setThreads(threads);
+      jmxCollector.setSummaryMilliseconds(summary);
+      jmxCollector.setOutputSink(createOutputSink(outputFile, flushPolicy, flushEvery, recordDirectory, segmentSize, segments));
+      jmxCollector.setOutputFormat(createOutputFormat(format, outputFile, recordDirectory, exporterPort));
+      jmxCollector.run();
+    } catch (IOException e) {
+      Output.OUT.println("Targets file cannot be read: " + e.getMessage());
+      LOGGER.error("Targets file cannot be read: " + targetsFile, e);
+    } catch (IllegalArgumentException e) {
+      Output.OUT.println("Targets file incorrect: " + e.getMessage());
+      LOGGER.error("Targets file incorrect: " + targetsFile, e);
+    } catch (MalformedObjectNameException e) {
+      Output.OUT.println("Object name incorrect: " + e.getMessage());
+      LOGGER.error("Object name malformed", e);
+    } catch (Exception e) {
+      Output.OUT.println("Unexpected error occurred: " + e.getMessage());
+      LOGGER.error("Unexpected error occurred", e);
+    }
+  }
+
+  @CliCommand(value = "listen", help = "Output the notifications of a JMX source as they arrive")
+  public void listen(@CliOption(key = {LONG_OPT_SERVICE_URL, OPT_SERVICE_URL}, mandatory = true, help = HELP_SERVICE_URL) String serviceUrl,
+                     @CliOption(key = {LONG_OPT_OBJECT_NAME, OPT_OBJECT_NAME}, mandatory = true, help = HELP_OBJECT_NAME) String objectName,
+                     @CliOption(key = {LONG_OPT_FIELDS, OPT_FIELDS}, mandatory = false, help = HELP_FIELDS, specifiedDefaultValue = JmxEventStream.DEFAULT_FIELDS, unspecifiedDefaultValue = JmxEventStream.DEFAULT_FIELDS) String fields,
+                     @CliOption(key = {LONG_OPT_USERNAME, OPT_USERNAME}, mandatory = false, help = HELP_USERNAME, specifiedDefaultValue = "", unspecifiedDefaultValue = "") String username,
+                     @CliOption(key = {LONG_OPT_PASSWORD, OPT_PASSWORD}, mandatory = false, help = HELP_PASSWORD, specifiedDefaultValue = "", unspecifiedDefaultValue = "") String password,
+                     @CliOption(key = {LONG_OPT_TIMESTAMP, OPT_TIMESTAMP}, mandatory = false, help = HELP_TIMESTAMP, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean showTimestamp,
+                     @CliOption(key = {LONG_OPT_UNIXTIME, OPT_UNIXTIME}, mandatory = false, help = HELP_UNIXTIME, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean showUnixTime,
+                     @CliOption(key = {LONG_OPT_QUEUE, OPT_QUEUE}, mandatory = false, help = HELP_QUEUE, specifiedDefaultValue = "4096", unspecifiedDefaultValue = "4096") int queueCapacity,
+                     @CliOption(key = {LONG_OPT_OUTPUT, OPT_OUTPUT}, mandatory = false, help = HELP_OUTPUT) String outputFile,
+                     @CliOption(key = {LONG_OPT_FORMAT, OPT_FORMAT}, mandatory = false, help = HELP_FORMAT, specifiedDefaultValue = "TEXT", unspecifiedDefaultValue = "TEXT") OutputFormatType format,
+                     @CliOption(key = {LONG_OPT_FLUSH, OPT_FLUSH}, mandatory = false, help = HELP_FLUSH, specifiedDefaultValue = "ROW", unspecifiedDefaultValue = "ROW") FlushPolicy flushPolicy,
+                     @CliOption(key = {LONG_OPT_FLUSH_EVERY, OPT_FLUSH_EVERY}, mandatory = false, help = HELP_FLUSH_EVERY, specifiedDefaultValue = "1", unspecifiedDefaultValue = "1") long flushEvery) {
+    try {
+      if (queueCapacity < 1) {
+        Output.OUT.println("Warning: queue value too small, setting to 1");
+        queueCapacity = 1;
+      }
+      // the tool provides the connection and the output
+      JmxStats jmxStats = (JmxStats) applicationContext.getBean(MAIN_BEAN_NAME);
+      jmxStats.setServiceUrl(serviceUrl);
+      jmxStats.setObjectName(objectName);
+      jmxStats.setUsername(username);
+      jmxStats.setPassword(password);
+      jmxStats.setOutputSink(createOutputSink(outputFile, flushPolicy, flushEvery, null, 0, 0));
+      jmxStats.setOutputFormat(format.create());
+      JmxEventStream eventStream = new JmxEventStream(jmxStats);
+      eventStream.setFields(fields);
+      eventStream.setShowTimestamp(showTimestamp);
+      eventStream.setShowUnixTime(showUnixTime);
+      eventStream.setQueueCapacity(queueCapacity);
+      eventStream.run();
+    } catch (MalformedURLException e) {
+      Output.OUT.println("Service URL incorrect: " + e.getMessage());
+      LOGGER.error("Service URL malformed: " + serviceUrl, e);
+    } catch (MalformedObjectNameException e) {
+      Output.OUT.println("Object name incorrect: " + e.getMessage());
+      LOGGER.error("Object name malformed: " + objectName, e);
+    } catch (IllegalArgumentException e) {
+      Output.OUT.println("Fields incorrect: " + e.getMessage());
+      LOGGER.error("Fields incorrect: " + fields, e);
+    } catch (Exception e) {
+      Output.OUT.println("Unexpected error occurred: " + e.getMessage());
+      LOGGER.error("Unexpected error occurred", e);
+    }
+  }
+
+  @CliCommand(value = "snapshot", help = "Write all readable attributes of all MBeans of a JMX source to a compressed file at once")
+  public void snapshot(@CliOption(key = {LONG_OPT_SERVICE_URL, OPT_SERVICE_URL}, mandatory = false, help = HELP_SERVICE_URL) String serviceUrl,
+                       @CliOption(key = {LONG_OPT_PID, OPT_PID}, mandatory = false, help = HELP_PID) String pid,
+                       @CliOption(key = {LONG_OPT_OBJECT_NAME, OPT_OBJECT_NAME}, mandatory = false, help = HELP_SNAPSHOT_OBJECT_NAME, unspecifiedDefaultValue = "*:*") String objectName,
+                       @CliOption(key = {LONG_OPT_OUTPUT, OPT_OUTPUT}, mandatory = true, help = HELP_SNAPSHOT_OUTPUT) String outputFile,
+                       @CliOption(key = {LONG_OPT_PARALLELISM, OPT_PARALLELISM}, mandatory = false, help = HELP_PARALLELISM, specifiedDefaultValue = "8", unspecifiedDefaultValue = "8") int parallelism,
+                       @CliOption(key = {LONG_OPT_USERNAME, OPT_USERNAME}, mandatory = false, help = HELP_USERNAME, specifiedDefaultValue = "", unspecifiedDefaultValue = "") String username,
+                       @CliOption(key = {LONG_OPT_PASSWORD, OPT_PASSWORD}, mandatory = false, help = HELP_PASSWORD, specifiedDefaultValue = "", unspecifiedDefaultValue = "") String password) {
+    try {
+      if (parallelism < 1) {
+        Output.OUT.println("Warning: parallelism value too small, setting to 1");
+        parallelism = 1;
+      }
+      if ((serviceUrl == null) == (pid == null)) {
+        Output.OUT.println("Either a service URL or a process id is required");
+        return;
+      }
+      // the tool provides the connection and the output
+      JmxStats jmxStats = (JmxStats) applicationContext.getBean(MAIN_BEAN_NAME);
+      if (serviceUrl != null) {
+        jmxStats.setServiceUrl(serviceUrl);
+      } else {
+        jmxStats.setPid(pid);
+      }
+      jmxStats.setObjectName(objectName);
+      jmxStats.setUsername(username);
+      jmxStats.setPassword(password);
+      ChannelOutputSink outputSink = ChannelOutputSink.gzipFile(outputFile);
+      // rows are only passed on to the compression in batches
+      outputSink.setFlushPolicy(FlushPolicy.ROWS);
+      outputSink.setFlushEvery(256);
+      jmxStats.setOutputSink(outputSink);
+      jmxStats.setOutputFormat(OutputFormatType.JSON.create());
+      JmxSnapshot snapshot = new JmxSnapshot(jmxStats);
+      snapshot.setParallelism(parallelism);
+      long start = System.nanoTime();
+      snapshot.run();
+      Output.OUT.println("Snapshot of " + snapshot.getWritten() + " MBeans written to " + outputFile + " in "
+          + (System.nanoTime() - start) / 1000000 + "ms" + (snapshot.getFailed() > 0 ? ", " + snapshot.getFailed() + " MBeans could not be read" : ""));
+    } catch (MalformedURLException e) {
+      Output.OUT.println("Service URL incorrect: " + e.getMessage());
+      LOGGER.error("Service URL malformed: " + serviceUrl, e);
+    } catch (MalformedObjectNameException e) {
+      Output.OUT.println("Object name incorrect: " + e.getMessage());
+      LOGGER.error("Object name malformed: " + objectName, e);
+    } catch (IOException e) {
+      Output.OUT.println("Snapshot failed: " + e.getMessage());
+      LOGGER.error("Snapshot failed: " + outputFile, e);
+    } catch (Exception e) {
+      Output.OUT.println("Unexpected error occurred: " + e.getMessage());
+      LOGGER.error("Unexpected error occurred", e);
+    }
+  }
+
+  @CliCommand(value = "replay", help = "Replay recorded statistics")
+  public void replay(@CliOption(key = {LONG_OPT_INPUT, OPT_INPUT}, mandatory = true, help = HELP_INPUT) String input,
+                     @CliOption(key = {LONG_OPT_REAL_TIME, OPT_REAL_TIME}, mandatory = false, help = HELP_REAL_TIME, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false") boolean realTime,
+                     @CliOption(key = {LONG_OPT_OUTPUT, OPT_OUTPUT}, mandatory = false, help = HELP_OUTPUT) String outputFile,
+                     @CliOption(key = {LONG_OPT_FORMAT, OPT_FORMAT}, mandatory = false, help = HELP_FORMAT, specifiedDefaultValue = "TEXT", unspecifiedDefaultValue = "TEXT") OutputFormatType format,
+                     @CliOption(key = {LONG_OPT_FLUSH, OPT_FLUSH}, mandatory = false, help = HELP_FLUSH, specifiedDefaultValue = "ROW", unspecifiedDefaultValue = "ROW") FlushPolicy flushPolicy,
+                     @CliOption(key = {LONG_OPT_FLUSH_EVERY, OPT_FLUSH_EVERY}, mandatory = false, help = HELP_FLUSH_EVERY, specifiedDefaultValue = "1", unspecifiedDefaultValue = "1") long flushEvery) {
+    try {
+      RecordingReplay recordingReplay = (RecordingReplay) applicationContext.getBean(REPLAY_BEAN_NAME);
+      recordingReplay.setInput(input);
+      recordingReplay.setRealTime(realTime);
+      recordingReplay.setOutputSink(createOutputSink(outputFile, flushPolicy, flushEvery, null, 0, 0));
+      recordingReplay.setOutputFormat(format.create());
+      recordingReplay.run();
+    } catch (IOException e) {
+      Output.OUT.println("Recording cannot be replayed: " + e.getMessage());
+      LOGGER.error("Recording cannot be replayed: " + input, e);
     } catch (Exception e) {
       Output.OUT.println("Unexpected error occurred: " + e.getMessage());
       LOGGER.error("Unexpected error occurred", e);
     }
   }
 
+  /**
+   * Create the format to output the statistics in.
+   *
+   * @param format the format chosen
+   * @param outputFile the file to append to, or <code>null</code> for the standard output
+   * @param recordDirectory the directory to record to, or <code>null</code>
+   * @param exporterPort the port to serve the latest values at, or <code>null</code>
+   * @return the output format
+   * @throws IOException in case the exporter cannot be started
+   */
+  private OutputFormat createOutputFormat(OutputFormatType format, String outputFile, String recordDirectory, Integer exporterPort) throws IOException {
+    // recordings are always binary
+    OutputFormat outputFormat = recordDirectory != null ? new BinaryOutputFormat() : format.create();
+    if (exporterPort == null) {
+      return outputFormat;
+    }
+    // when exporting, rows are only outputted if asked for explicitly
+    OpenMetricsOutputFormat exporter = new OpenMetricsOutputFormat(outputFile != null || recordDirectory != null ? outputFormat : null);
+    exporter.start(new InetSocketAddress(exporterPort));
+    Output.OUT.println("Serving metrics at http://localhost:" + exporter.getAddress().getPort() + OpenMetricsOutputFormat.PATH);
+    return exporter;
+  }
+
+  /**
+   * Create the sink to write the statistics to.
+   *
+   * @param outputFile the file to append to, or <code>null</code> for the standard output
+   * @param flushPolicy when to flush the output
+   * @param flushEvery the number of rows or milliseconds between flushes
+   * @param recordDirectory the directory to record to instead, or <code>null</code>
+   * @param segmentSize the size of each recording segment in megabytes
+   * @param segments the number of recording segments to keep
+   * @return the output sink
+   * @throws IOException in case the output file or recording directory cannot be opened
+   */
+  private OutputSink createOutputSink(String outputFile, FlushPolicy flushPolicy, long flushEvery, String recordDirectory, int segmentSize, int segments) throws IOException {
+    if (recordDirectory != null) {
+      return new RecordingSink(new File(recordDirectory), segmentSize * 1024 * 1024, Math.max(1, segments));
+    }
+    ChannelOutputSink outputSink = outputFile != null ? ChannelOutputSink.file(outputFile) : ChannelOutputSink.stdout();
+    outputSink.setFlushPolicy(flushPolicy);
+    outputSink.setFlushEvery(flushEvery);
+    return outputSink;
+  }
+
+  /**
+   * Create the sink to write alerts to. Alerts are flushed as they fire or resolve.
+   *
+   * @param alertOutput the file to append to, or <code>null</code> for the standard error
+   * @return the alert sink
+   * @throws IOException in case the file cannot be opened
+   */
+  private OutputSink createAlertSink(String alertOutput) throws IOException {
+    return alertOutput != null ? ChannelOutputSink.file(alertOutput) : ChannelOutputSink.stderr();
+  }
+
+  /**
+   * Create the format of the alerts and write its header.
+   *
+   * @param format the format of the statistics, alerts are written as text rather than binary
+   * @param alertSink the sink the alerts are written to
+   * @return the alert format
+   * @throws IOException in case the header cannot be written
+   */
+  private OutputFormat createAlertFormat(OutputFormatType format, OutputSink alertSink) throws IOException {
+    OutputFormat alertFormat = format == OutputFormatType.BINARY ? OutputFormatType.TEXT.create() : format.create();
+    alertFormat.writeHeader(AlertEngine.COLUMNS, alertSink);
+    return alertFormat;
+  }
+
+  /**
+   * Get a mandatory property of a target.
+   *
+   * @param definition the properties of the target
+   * @param name the name of the property
+   * @return the property value
+   * @throws IllegalArgumentException if the property is missing
+   */
+  private String getTargetProperty(Properties definition, String name) {
+    String value = definition.getProperty(name);
+    if (value == null) {
+      throw new IllegalArgumentException("Missing " + name);
+    }
+    return value;
+  }
+
+  /**
+   * Creates the targets of the collect command. The options of the command are the defaults for all targets. Targets
+   * writing to the same output file share its sink and format, which are closed once the last of them is removed.
+   */
+  private class CollectorTargetFactory implements TargetFactory {
+    private long interval;
+    private long window;
+    private boolean showTimestamp;
+    private boolean showUnixTime;
+    private FlushPolicy flushPolicy;
+    private long flushEvery;
+    private String alertOutput;
+    private OutputFormatType alertFormat;
+
+    /**
+     * The sink and format shared by the alerts of all targets, opened with the first target that has alert rules.
+     */
+    private OutputSink alertSink;
+    private OutputFormat alertOutputFormat;
+
+    /**
+     * The outputs opened for targets, by file name.
+     */
+    private final Map<String, TargetOutput> outputs = new HashMap<String, TargetOutput>();
+
+    /**
+     * The output file of each target with an output of its own.
+     */
+    private final Map<JmxStats, String> outputFiles = new IdentityHashMap<JmxStats, String>();
+
+    public synchronized JmxStats createTarget(String targetName, Properties definition) throws IOException, JMException {
+      JmxStats jmxStats = (JmxStats) applicationContext.getBean(MAIN_BEAN_NAME);
+      jmxStats.setTargetName(targetName);
+      if (definition.getProperty(LONG_OPT_PID) != null) {
+        jmxStats.setPid(definition.getProperty(LONG_OPT_PID));
+      } else {
+        jmxStats.setServiceUrl(getTargetProperty(definition, LONG_OPT_SERVICE_URL));
+      }
+      jmxStats.setObjectName(getTargetProperty(definition, LONG_OPT_OBJECT_NAME));
+      jmxStats.setAttributeName(getTargetProperty(definition, LONG_OPT_ATTRIBUTE_NAME));
+      jmxStats.setUsername(definition.getProperty(LONG_OPT_USERNAME));
+      jmxStats.setPassword(definition.getProperty(LONG_OPT_PASSWORD));
+      jmxStats.setIntervalMilliseconds(Long.parseLong(definition.getProperty(LONG_OPT_INTERVAL, String.valueOf(interval))));
+      jmxStats.setWindowMilliseconds(Long.parseLong(definition.getProperty(LONG_OPT_WINDOW, String.valueOf(window))));
+      jmxStats.setShowTimestamp(showTimestamp);
+      jmxStats.setShowUnixTime(showUnixTime);
+      String alerts = definition.getProperty(LONG_OPT_ALERTS);
+      if (alerts != null) {
+        if (alertSink == null) {
+          alertSink = createAlertSink(alertOutput);
+          alertOutputFormat = createAlertFormat(alertFormat, alertSink);
+        }
+        jmxStats.setAlerts(alerts, alertSink, alertOutputFormat);
+      }
+      String outputFile = definition.getProperty(LONG_OPT_OUTPUT);
+      if (outputFile != null) {
+        OutputFormatType format = OutputFormatType.valueOf(definition.getProperty(LONG_OPT_FORMAT, OutputFormatType.TEXT.name()));
+        TargetOutput output = outputs.get(outputFile);
+        if (output == null) {
+          output = new TargetOutput(createOutputSink(outputFile, flushPolicy, flushEvery, null, 0, 0), format);
+          outputs.put(outputFile, output);
+        } else if (output.format != format) {
+          throw new IllegalArgumentException("Output " + outputFile + " is already written in format " + output.format);
+        }
+        output.targets++;
+        outputFiles.put(jmxStats, outputFile);
+        jmxStats.setOutputSink(output.outputSink);
+        jmxStats.setOutputFormat(output.outputFormat);
+      }
+      return jmxStats;
+    }
+
+    public synchronized void releaseTarget(JmxStats target) throws IOException {
+      String outputFile = outputFiles.remove(target);
+      if (outputFile != null) {
+        TargetOutput output = outputs.get(outputFile);
+        if (--output.targets == 0) {
+          outputs.remove(outputFile);
+          output.outputFormat.finish(output.outputSink);
+          output.outputSink.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * An output file shared by targets.
+   */
+  private static class TargetOutput {
+    private final OutputSink outputSink;
+    private final OutputFormatType format;
+    private final OutputFormat outputFormat;
+    private int targets;
+
+    private TargetOutput(OutputSink outputSink, OutputFormatType format) {
+      this.outputSink = outputSink;
+      this.format = format;
+      this.outputFormat = format.create();
+    }
+  }
+
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import com.exxatools.monitoring.jmx.converters.*;
+import com.exxatools.monitoring.jmx.output.ChannelOutputSink;
+import com.exxatools.monitoring.jmx.output.OutputFormatType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MalformedObjectNameException;
+import java.net.MalformedURLException;
+import java.util.*;
+
+/**
+ * A plain entry point for the stats command, for scripts and cron jobs launching the tool many times an hour. It
+ * wires {@link JmxStats} and the converters directly, the same way <code>spring-shell-plugin.xml</code> does, instead
+ * of booting Spring Shell and scanning for components, which saves most of the startup time and heap. It takes the
+ * long options of the stats command, e.g.
+ * <pre>
+ * jmxstats --serviceUrl service:jmx:rmi:///jndi/rmi://localhost:9999/jmxrmi --objectName java.lang:type=Memory
+ *   --attributeName HeapMemoryUsage.used
+ * </pre>
+ * Unlike the stats command, a single sample is taken unless an interval is given. The exit status is <code>0</code>
+ * after sampling, <code>1</code> if sampling failed and <code>2</code> if the options are incorrect.
+ *
+ * @author Malte Franken
+ */
+public class JmxStatsLauncher {
+  private final static Logger LOGGER = LoggerFactory.getLogger(JmxStatsLauncher.class);
+
+  private static final String USAGE = "Usage: jmxstats (--serviceUrl <url> | --pid <pid>) --objectName <name> --attributeName <names> "
+      + "[--username <username>] [--password <password>] [--interval <ms>] [--window <ms>] [--lines <lines>] [--timestamp] "
+      + "[--unixtime] [--output <file>] [--format TEXT|CSV|JSON|BINARY]";
+
+  /**
+   * The options taking a value.
+   */
+  private static final Set<String> VALUE_OPTIONS = new HashSet<String>(Arrays.asList("serviceUrl", "pid", "objectName",
+      "attributeName", "username", "password", "interval", "window", "lines", "output", "format"));
+
+  /**
+   * The options switched on by just naming them.
+   */
+  private static final Set<String> FLAG_OPTIONS = new HashSet<String>(Arrays.asList("timestamp", "unixtime"));
+
+  public static void main(String[] args) {
+    System.exit(run(args));
+  }
+
+  /**
+   * Sample as told by the options.
+   *
+   * @param args the command line options
+   * @return the exit status
+   */
+  static int run(String[] args) {
+    Map<String, String> options;
+    try {
+      options = parse(args);
+    } catch (IllegalArgumentException e) {
+      Output.OUT.println(e.getMessage());
+      Output.OUT.println(USAGE);
+      return 2;
+    }
+    String serviceUrl = options.get("serviceUrl");
+    String pid = options.get("pid");
+    if ((serviceUrl == null) == (pid == null) || !options.containsKey("objectName") || !options.containsKey("attributeName")) {
+      Output.OUT.println(USAGE);
+      return 2;
+    }
+    try {
+      long interval = Long.parseLong(getOption(options, "interval", "0"));
+      if (interval > 0 && interval < JmxStats.MINIMUM_WAIT_BETWEEN_STATISTICS_OUTPUT) {
+        Output.OUT.println("Warning: interval value too small, setting to " + JmxStats.MINIMUM_WAIT_BETWEEN_STATISTICS_OUTPUT);
+        interval = JmxStats.MINIMUM_WAIT_BETWEEN_STATISTICS_OUTPUT;
+      }
+      JmxStats jmxStats = new JmxStats();
+      jmxStats.setConverter(createConverter());
+      if (serviceUrl != null) {
+        jmxStats.setServiceUrl(serviceUrl);
+      } else {
+        jmxStats.setPid(pid);
+      }
+      jmxStats.setObjectName(options.get("objectName"));
+      jmxStats.setAttributeName(options.get("attributeName"));
+      jmxStats.setUsername(getOption(options, "username", ""));
+      jmxStats.setPassword(getOption(options, "password", ""));
+      jmxStats.setIntervalMilliseconds(interval);
+      jmxStats.setWindowMilliseconds(Long.parseLong(getOption(options, "window", "0")));
+      jmxStats.setLinesHeading(Integer.parseInt(getOption(options, "lines", "0")));
+      jmxStats.setShowTimestamp(Boolean.parseBoolean(getOption(options, "timestamp", "false")));
+      jmxStats.setShowUnixTime(Boolean.parseBoolean(getOption(options, "unixtime", "false")));
+      if (options.containsKey("output")) {
+        jmxStats.setOutputSink(ChannelOutputSink.file(options.get("output")));
+      }
+      jmxStats.setOutputFormat(OutputFormatType.valueOf(getOption(options, "format", "TEXT")).create());
+      jmxStats.run();
+      return 0;
+    } catch (MalformedURLException e) {
+      Output.OUT.println("Service URL incorrect: " + e.getMessage());
+      LOGGER.error("Service URL malformed: " + serviceUrl, e);
+    } catch (MalformedObjectNameException e) {
+      Output.OUT.println("Object name incorrect: " + e.getMessage());
+      LOGGER.error("Object name malformed: " + options.get("objectName"), e);
+    } catch (IllegalArgumentException e) {
+      // also covers numbers and formats that cannot be parsed
+      Output.OUT.println("Option incorrect: " + e.getMessage());
+      LOGGER.error("Option incorrect", e);
+      return 2;
+    } catch (Exception e) {
+      Output.OUT.println("Unexpected error occurred: " + e.getMessage());
+      LOGGER.error("Unexpected error occurred", e);
+    }
+    return 1;
+  }
+
+  /**
+   * Create the converter chain, most specific converter first, as in <code>spring-shell-plugin.xml</code>.
+   *
+   * @return the converter delegating to the chain
+   */
+  public static DelegatingConverter createConverter() {
+    DelegatingConverter delegatingConverter = new DelegatingConverter();
+    DefaultConverter defaultConverter = new DefaultConverter();
+    CompositeDataConverter compositeDataConverter = new CompositeDataConverter();
+    compositeDataConverter.setValueConverter(delegatingConverter);
+    // tabular data is a map as well, so it has to be converted before any map
+    TabularDataConverter tabularDataConverter = new TabularDataConverter();
+    tabularDataConverter.setValueConverter(delegatingConverter);
+    GenericMapConverter genericMapConverter = new GenericMapConverter();
+    genericMapConverter.setKeyConverter(defaultConverter);
+    genericMapConverter.setValueConverter(delegatingConverter);
+    List<Converter> converters = new ArrayList<Converter>();
+    converters.add(new LongConverter());
+    converters.add(new DoubleConverter());
+    converters.add(compositeDataConverter);
+    converters.add(tabularDataConverter);
+    converters.add(genericMapConverter);
+    converters.add(new CalendarConverter());
+    converters.add(defaultConverter);
+    delegatingConverter.setConverters(converters);
+    return delegatingConverter;
+  }
+
+  /**
+   * Parse the command line options.
+   *
+   * @param args the command line options
+   * @return the value of each option given, <code>true</code> for flags
+   * @throws IllegalArgumentException in case of an unknown option or a missing value
+   */
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new HashMap<String, String>();
+    for (int i = 0; i < args.length; i++) {
+      String name = args[i].startsWith("--") ? args[i].substring(2) : null;
+      if (FLAG_OPTIONS.contains(name)) {
+        options.put(name, "true");
+      } else if (VALUE_OPTIONS.contains(name)) {
+        if (i + 1 == args.length) {
+          throw new IllegalArgumentException("Missing value of option " + args[i]);
+        }
+        options.put(name, args[++i]);
+      } else {
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+    return options;
+  }
+
+  private static String getOption(Map<String, String> options, String name, String defaultValue) {
+    String value = options.get(name);
+    return value != null ? value : defaultValue;
+  }
+}
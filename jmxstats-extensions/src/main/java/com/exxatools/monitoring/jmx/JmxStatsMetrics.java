@@ -0,0 +1,236 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import com.exxatools.monitoring.jmx.converters.DelegatingConverter;
+import com.exxatools.monitoring.jmx.output.OutputFormat;
+import com.exxatools.monitoring.jmx.output.PipelinedOutputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the metrics of a {@link JmxStats} instance and exposes them as an MBean in the JVM running the tool, named
+ * <code>com.exxatools.jmxstats:type=JmxStats,name=...</code> after the target. Timings are recorded by the sampling
+ * thread only, so plain volatile fields are sufficient.
+ *
+ * @author Malte Franken
+ */
+public class JmxStatsMetrics implements JmxStatsMetricsMBean {
+  private final static Logger LOGGER = LoggerFactory.getLogger(JmxStatsMetrics.class);
+
+  /**
+   * The domain the metrics MBeans are registered in.
+   */
+  public static final String DOMAIN = "com.exxatools.jmxstats";
+
+  private final JmxStats stats;
+
+  private ObjectName objectName;
+
+  private volatile long samples;
+  private volatile long failedSamples;
+  private volatile long skippedSamples;
+
+  private volatile long lastConnectNanos;
+  private volatile long lastFetchNanos;
+  private volatile long lastConvertNanos;
+  private volatile long lastOutputNanos;
+
+  private volatile long totalSampleNanos;
+  private volatile long totalFetchNanos;
+
+  public JmxStatsMetrics(JmxStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Register the MBean in the platform MBean server. A failure is only logged, the tool keeps working without.
+   */
+  public synchronized void register() {
+    if (objectName != null) {
+      return;
+    }
+    try {
+      ObjectName name = new ObjectName(DOMAIN + ":type=JmxStats,name=" + ObjectName.quote(getTarget()));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      objectName = name;
+    } catch (JMException e) {
+      LOGGER.warn("Unable to register metrics MBean for " + getTarget() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Unregister the MBean, if registered.
+   */
+  public synchronized void unregister() {
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        LOGGER.debug("Unable to unregister metrics MBean " + objectName + ": " + e.getMessage());
+      }
+      objectName = null;
+    }
+  }
+
+  /**
+   * Record a completed sample.
+   *
+   * @param connectNanos the time spent getting the connection
+   * @param fetchNanos the time spent fetching
+   * @param convertNanos the time spent calculating the column values
+   * @param outputNanos the time spent formatting and writing
+   */
+  void sampled(long connectNanos, long fetchNanos, long convertNanos, long outputNanos) {
+    lastConnectNanos = connectNanos;
+    lastFetchNanos = fetchNanos;
+    lastConvertNanos = convertNanos;
+    lastOutputNanos = outputNanos;
+    totalSampleNanos += connectNanos + fetchNanos + convertNanos + outputNanos;
+    totalFetchNanos += fetchNanos;
+    samples++;
+  }
+
+  /**
+   * Record a failed sample.
+   */
+  void failed() {
+    failedSamples++;
+  }
+
+  /**
+   * Record a sample skipped by a collector, as the previous one was still running.
+   */
+  void skipped() {
+    skippedSamples++;
+  }
+
+  public String getTarget() {
+    return stats.getTargetName() != null ? stats.getTargetName() : String.valueOf(stats.getObjectName());
+  }
+
+  public long getIntervalMilliseconds() {
+    // the interval may be adapted while running
+    FixedRateSchedule schedule = stats.getSchedule();
+    return schedule != null ? TimeUnit.NANOSECONDS.toMillis(schedule.getPeriodNanos()) : stats.getIntervalMilliseconds();
+  }
+
+  public long getSamples() {
+    return samples;
+  }
+
+  public long getFailedSamples() {
+    return failedSamples;
+  }
+
+  public long getMissedTicks() {
+    FixedRateSchedule schedule = stats.getSchedule();
+    return skippedSamples + (schedule != null ? schedule.getMissedTicks() : 0);
+  }
+
+  public long getLateTicks() {
+    FixedRateSchedule schedule = stats.getSchedule();
+    return schedule != null ? schedule.getLateTicks() : 0;
+  }
+
+  public long getLastSampleMicros() {
+    return micros(lastConnectNanos + lastFetchNanos + lastConvertNanos + lastOutputNanos);
+  }
+
+  public long getLastConnectMicros() {
+    return micros(lastConnectNanos);
+  }
+
+  public long getLastFetchMicros() {
+    return micros(lastFetchNanos);
+  }
+
+  public long getLastConvertMicros() {
+    return micros(lastConvertNanos);
+  }
+
+  public long getLastOutputMicros() {
+    return micros(lastOutputNanos);
+  }
+
+  public double getMeanSampleMicros() {
+    long samples = this.samples;
+    return samples > 0 ? totalSampleNanos / 1000d / samples : 0;
+  }
+
+  public double getMeanFetchMicros() {
+    long samples = this.samples;
+    return samples > 0 ? totalFetchNanos / 1000d / samples : 0;
+  }
+
+  public long getBytesWritten() {
+    return stats.getOutputSink().getBytesWritten();
+  }
+
+  public int getQueueDepth() {
+    PipelinedOutputFormat pipeline = getPipeline();
+    return pipeline != null ? pipeline.getQueueDepth() : 0;
+  }
+
+  public long getDroppedRows() {
+    PipelinedOutputFormat pipeline = getPipeline();
+    return pipeline != null ? pipeline.getDropped() : 0;
+  }
+
+  public long getReconnects() {
+    ManagedConnection connection = stats.getCurrentConnection();
+    return connection != null ? connection.getReconnects() : 0;
+  }
+
+  public long getConverterCacheMisses() {
+    if (stats.getConverter() instanceof DelegatingConverter) {
+      return ((DelegatingConverter) stats.getConverter()).getCacheMisses();
+    }
+    return 0;
+  }
+
+  public String getSummary() {
+    String summary = String.format(Locale.ROOT, "%s: %d samples, %d failed, %d missed, %d late, last sample %dus "
+            + "(connect %dus, fetch %dus, convert %dus, output %dus), mean %.0fus, %d bytes, %d reconnects, %d converter cache misses",
+        getTarget(), getSamples(), getFailedSamples(), getMissedTicks(), getLateTicks(), getLastSampleMicros(),
+        getLastConnectMicros(), getLastFetchMicros(), getLastConvertMicros(), getLastOutputMicros(), getMeanSampleMicros(),
+        getBytesWritten(), getReconnects(), getConverterCacheMisses());
+    if (getPipeline() != null) {
+      summary += ", " + getQueueDepth() + " rows queued, " + getDroppedRows() + " dropped";
+    }
+    return summary;
+  }
+
+  /**
+   * Get the pipeline decoupling the output from sampling.
+   *
+   * @return the pipeline, or <code>null</code> if the output is written by the sampling thread
+   */
+  private PipelinedOutputFormat getPipeline() {
+    OutputFormat format = stats.getCurrentOutputFormat();
+    return format instanceof PipelinedOutputFormat ? (PipelinedOutputFormat) format : null;
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
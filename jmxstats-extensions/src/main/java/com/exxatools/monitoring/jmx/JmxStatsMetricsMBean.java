@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+/**
+ * The metrics of the tool itself, to tell whether it keeps up with its interval. The time of each sample is broken
+ * down into connect, fetch, convert and output: slow connects or fetches point at the network or the target JVM,
+ * slow converts or outputs at the tool.
+ *
+ * @author Malte Franken
+ */
+public interface JmxStatsMetricsMBean {
+  /**
+   * @return the name of the target, or of the MBeans read
+   */
+  String getTarget();
+
+  /**
+   * @return the configured interval in milliseconds
+   */
+  long getIntervalMilliseconds();
+
+  /**
+   * @return the number of samples taken
+   */
+  long getSamples();
+
+  /**
+   * @return the number of samples that failed, e.g. while the connection was down
+   */
+  long getFailedSamples();
+
+  /**
+   * @return the number of samples skipped because the previous one was still running
+   */
+  long getMissedTicks();
+
+  /**
+   * @return the number of samples started late
+   */
+  long getLateTicks();
+
+  /**
+   * @return the time the last sample took in microseconds
+   */
+  long getLastSampleMicros();
+
+  /**
+   * @return the time spent getting the connection during the last sample in microseconds, including any reconnect
+   */
+  long getLastConnectMicros();
+
+  /**
+   * @return the time spent fetching MBeans and attributes during the last sample in microseconds
+   */
+  long getLastFetchMicros();
+
+  /**
+   * @return the time spent calculating the column values during the last sample in microseconds
+   */
+  long getLastConvertMicros();
+
+  /**
+   * @return the time spent formatting and writing the rows during the last sample in microseconds
+   */
+  long getLastOutputMicros();
+
+  /**
+   * @return the mean time of all samples in microseconds
+   */
+  double getMeanSampleMicros();
+
+  /**
+   * @return the mean time spent fetching in microseconds
+   */
+  double getMeanFetchMicros();
+
+  /**
+   * @return the number of bytes written to the output
+   */
+  long getBytesWritten();
+
+  /**
+   * @return the number of rows waiting to be written, if the output is pipelined
+   */
+  int getQueueDepth();
+
+  /**
+   * @return the number of rows dropped as the output queue was full, if the output is pipelined
+   */
+  long getDroppedRows();
+
+  /**
+   * @return the number of times the connection has been reestablished
+   */
+  long getReconnects();
+
+  /**
+   * @return the number of attribute values whose converter was not found in the cache, about one per class of values
+   */
+  long getConverterCacheMisses();
+
+  /**
+   * @return a one-line summary of the metrics
+   */
+  String getSummary();
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+
+/**
+ * Finds the JMX service URL of a local JVM by its process id, through the Attach API. The local management agent is
+ * started in the target JVM if it is not running yet, no remote JMX port has to be opened. The Attach API is accessed
+ * by reflection, as it is only available when running on a JDK.
+ *
+ * @author Malte Franken
+ */
+public final class LocalAttach {
+  private final static Logger LOGGER = LoggerFactory.getLogger(LocalAttach.class);
+
+  private static final String VIRTUAL_MACHINE_CLASS = "com.sun.tools.attach.VirtualMachine";
+
+  /**
+   * The agent property holding the service URL of the local management agent.
+   */
+  private static final String LOCAL_CONNECTOR_ADDRESS = "com.sun.management.jmxremote.localConnectorAddress";
+
+  /**
+   * The class of the Attach API, once found.
+   */
+  private static Class<?> attachApiClass;
+
+  private LocalAttach() {
+  }
+
+  /**
+   * Get the process id of the JVM running the tool.
+   *
+   * @return the process id
+   */
+  public static String getOwnPid() {
+    // the name of the runtime is "pid@host" on all common JVMs
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int at = name.indexOf('@');
+    return at > 0 ? name.substring(0, at) : name;
+  }
+
+  /**
+   * Check whether a process id is the one of the JVM running the tool.
+   *
+   * @param pid the process id
+   * @return <code>true</code> if it is the own JVM
+   */
+  public static boolean isOwnPid(String pid) {
+    return getOwnPid().equals(pid.trim());
+  }
+
+  /**
+   * Attach to a local JVM and get the service URL of its local management agent, starting the agent if necessary.
+   *
+   * @param pid the process id of the JVM
+   * @return the service URL
+   * @throws IOException in case the JVM cannot be attached to, or the Attach API is not available
+   */
+  public static String getServiceUrl(String pid) throws IOException {
+    Class<?> virtualMachineClass = getVirtualMachineClass();
+    try {
+      Object virtualMachine = virtualMachineClass.getMethod("attach", String.class).invoke(null, pid.trim());
+      try {
+        String address = getLocalConnectorAddress(virtualMachineClass, virtualMachine);
+        LOGGER.info("Attached to process " + pid + ", local management agent at " + address);
+        return address;
+      } finally {
+        virtualMachineClass.getMethod("detach").invoke(virtualMachine);
+      }
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      throw new IOException("Unable to attach to process " + pid + ": " + cause.getMessage(), cause);
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Attach API not usable: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Get the class of the Attach API. Up to Java 8 it is not on the class path of the JDK, but in the tools.jar next to
+   * the JRE.
+   *
+   * @return the virtual machine class
+   * @throws IOException in case the Attach API is not available
+   */
+  private static synchronized Class<?> getVirtualMachineClass() throws IOException {
+    if (attachApiClass != null) {
+      return attachApiClass;
+    }
+    try {
+      attachApiClass = Class.forName(VIRTUAL_MACHINE_CLASS);
+      return attachApiClass;
+    } catch (ClassNotFoundException e) {
+      // fall back to the tools.jar
+    }
+    File toolsJar = new File(System.getProperty("java.home"), ".." + File.separator + "lib" + File.separator + "tools.jar");
+    if (!toolsJar.isFile()) {
+      throw new IOException("Attach API not available, the tool has to run on a JDK");
+    }
+    try {
+      ClassLoader classLoader = new URLClassLoader(new URL[]{toolsJar.toURI().toURL()}, LocalAttach.class.getClassLoader());
+      attachApiClass = Class.forName(VIRTUAL_MACHINE_CLASS, true, classLoader);
+      return attachApiClass;
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Attach API not found in " + toolsJar.getCanonicalPath());
+    }
+  }
+
+  /**
+   * Get the address of the local management agent, start it if it is not running yet.
+   *
+   * @param virtualMachineClass the class of the attached virtual machine
+   * @param virtualMachine the attached virtual machine
+   * @return the service URL
+   * @throws ReflectiveOperationException in case the Attach API cannot be called
+   * @throws IOException in case the agent cannot be started
+   */
+  private static String getLocalConnectorAddress(Class<?> virtualMachineClass, Object virtualMachine) throws ReflectiveOperationException, IOException {
+    Properties agentProperties = (Properties) virtualMachineClass.getMethod("getAgentProperties").invoke(virtualMachine);
+    String address = agentProperties.getProperty(LOCAL_CONNECTOR_ADDRESS);
+    if (address != null) {
+      return address;
+    }
+    Method startLocalManagementAgent;
+    try {
+      startLocalManagementAgent = virtualMachineClass.getMethod("startLocalManagementAgent");
+    } catch (NoSuchMethodException e) {
+      // before Java 8 the agent is loaded from the management agent jar of the target JVM
+      return loadManagementAgent(virtualMachineClass, virtualMachine);
+    }
+    return (String) startLocalManagementAgent.invoke(virtualMachine);
+  }
+
+  /**
+   * Start the local management agent by loading the management agent jar of the attached JVM.
+   *
+   * @param virtualMachineClass the class of the attached virtual machine
+   * @param virtualMachine the attached virtual machine
+   * @return the service URL
+   * @throws ReflectiveOperationException in case the Attach API cannot be called
+   * @throws IOException in case the agent cannot be found or does not tell its address
+   */
+  private static String loadManagementAgent(Class<?> virtualMachineClass, Object virtualMachine) throws ReflectiveOperationException, IOException {
+    Properties systemProperties = (Properties) virtualMachineClass.getMethod("getSystemProperties").invoke(virtualMachine);
+    File agentJar = new File(systemProperties.getProperty("java.home"), "lib" + File.separator + "management-agent.jar");
+    if (!agentJar.isFile()) {
+      throw new IOException("Local management agent not running, and " + agentJar + " not found to start it");
+    }
+    virtualMachineClass.getMethod("loadAgent", String.class, String.class).invoke(virtualMachine, agentJar.getPath(), "com.sun.management.jmxremote");
+    Properties agentProperties = (Properties) virtualMachineClass.getMethod("getAgentProperties").invoke(virtualMachine);
+    String address = agentProperties.getProperty(LOCAL_CONNECTOR_ADDRESS);
+    if (address == null) {
+      throw new IOException("Local management agent started, but its address is unknown");
+    }
+    return address;
+  }
+}
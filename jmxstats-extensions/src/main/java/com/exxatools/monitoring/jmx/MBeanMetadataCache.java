@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import javax.management.relation.MBeanServerNotificationFilter;
+import javax.management.remote.JMXConnectionNotification;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the metadata of each MBean read from. The metadata of an MBean is only fetched once, it is dropped when the
+ * MBean server delegate notifies about the unregistration of the MBean, so that an MBean registered again under the
+ * same name is described anew. All metadata is dropped when notifications have been lost or the connection has
+ * changed.
+ *
+ * @author Malte Franken
+ */
+public class MBeanMetadataCache implements NotificationListener {
+  private final static Logger LOGGER = LoggerFactory.getLogger(MBeanMetadataCache.class);
+
+  /**
+   * The metadata by MBean.
+   */
+  private final ConcurrentMap<ObjectName, MBeanInfo> infos = new ConcurrentHashMap<ObjectName, MBeanInfo>();
+
+  /**
+   * The connection the cache is listening on.
+   */
+  private volatile MBeanServerConnection connection;
+
+  /**
+   * Get the metadata of an MBean. Only queries the MBean server the first time the MBean is seen, after it has been
+   * registered again, or when called with a different connection than before.
+   *
+   * @param connection the connection to read from
+   * @param objectName the name of the MBean
+   * @return the metadata
+   * @throws IOException in case of a communication problem
+   * @throws InstanceNotFoundException in case the MBean does not exist
+   * @throws IntrospectionException in case the MBean cannot describe itself
+   * @throws ReflectionException in case the metadata cannot be requested from the MBean
+   */
+  public MBeanInfo getMBeanInfo(MBeanServerConnection connection, ObjectName objectName) throws IOException,
+      InstanceNotFoundException, IntrospectionException, ReflectionException {
+    if (connection != this.connection) {
+      bind(connection);
+    }
+    MBeanInfo info = infos.get(objectName);
+    if (info == null) {
+      info = connection.getMBeanInfo(objectName);
+      infos.put(objectName, info);
+    }
+    return info;
+  }
+
+  /**
+   * Drop all metadata, so that it is queried again on next access.
+   */
+  public void invalidate() {
+    infos.clear();
+  }
+
+  /**
+   * Start listening for unregistration notifications on the given connection.
+   *
+   * @param connection the connection to listen on
+   * @throws IOException in case of a communication problem
+   */
+  private synchronized void bind(MBeanServerConnection connection) throws IOException {
+    if (connection == this.connection) {
+      return;
+    }
+    // the filter starts with all object names disabled
+    MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+    filter.enableAllObjectNames();
+    filter.disableType(MBeanServerNotification.REGISTRATION_NOTIFICATION);
+    try {
+      connection.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+    } catch (InstanceNotFoundException e) {
+      // the delegate is always registered
+      throw new IllegalStateException("MBean server delegate not found", e);
+    }
+    invalidate();
+    this.connection = connection;
+  }
+
+  /**
+   * Stop listening for notifications on the connection bound to, so that nothing is left behind on a connection shared
+   * with other targets. The connection may be gone already.
+   */
+  public synchronized void unbind() {
+    MBeanServerConnection bound = connection;
+    connection = null;
+    if (bound != null) {
+      try {
+        bound.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+      } catch (Exception e) {
+        LOGGER.debug("Unable to remove listener from the MBean server delegate: " + e.getMessage());
+      }
+    }
+  }
+
+  public void handleNotification(Notification notification, Object handback) {
+    if (notification instanceof MBeanServerNotification) {
+      if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+        infos.remove(((MBeanServerNotification) notification).getMBeanName());
+      }
+    } else if (JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType())) {
+      LOGGER.info("Notifications lost, describing all MBeans again");
+      invalidate();
+    }
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connection to a single JMX service URL, shared by all targets using the same URL and credentials. The connection
+ * is opened on first use. Once it fails, either reported by the connector or by a caller running into an
+ * {@link IOException}, it is closed and opened again on next use. Failed attempts to connect are repeated with
+ * exponential backoff and jitter, until then callers fail fast with a {@link ConnectionUnavailableException}.
+ * Without a service URL the connection is the platform MBean server of the JVM running the tool, which never fails.
+ *
+ * @author Malte Franken
+ */
+public class ManagedConnection implements NotificationListener {
+  private final static Logger LOGGER = LoggerFactory.getLogger(ManagedConnection.class);
+
+  private final ConnectionManager connectionManager;
+
+  private final String key;
+
+  private final JMXServiceURL serviceUrl;
+
+  private final Map<String, Object> environment;
+
+  /**
+   * Listeners for the notifications of each connector, e.g. lost notifications.
+   */
+  private final List<NotificationListener> connectionListeners = new CopyOnWriteArrayList<NotificationListener>();
+
+  /**
+   * The number of targets using the connection.
+   */
+  private int references;
+
+  private JMXConnector connector;
+
+  private volatile MBeanServerConnection connection;
+
+  /**
+   * Whether a caller is connecting at the moment, outside the monitor.
+   */
+  private boolean connecting;
+
+  /**
+   * The number of failed attempts to connect since the last successful one.
+   */
+  private int failedAttempts;
+
+  /**
+   * The earliest time of the next attempt to connect, as returned by {@link System#nanoTime()}.
+   */
+  private long nextAttemptNanos;
+
+  private volatile boolean connected;
+
+  private volatile long reconnects;
+
+  private volatile long connectLatencyNanos;
+
+  ManagedConnection(ConnectionManager connectionManager, String key, JMXServiceURL serviceUrl, Map<String, Object> environment) {
+    this.connectionManager = connectionManager;
+    this.key = key;
+    this.serviceUrl = serviceUrl;
+    this.environment = environment;
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  /**
+   * Get the service URL connected to.
+   *
+   * @return the service URL, <code>null</code> for the platform MBean server
+   */
+  public JMXServiceURL getServiceUrl() {
+    return serviceUrl;
+  }
+
+  /**
+   * Whether a connection has ever been established.
+   *
+   * @return <code>true</code> after the first successful connect
+   */
+  public boolean hasConnected() {
+    return connected;
+  }
+
+  /**
+   * Whether the connection is currently open.
+   *
+   * @return <code>true</code> if open
+   */
+  public boolean isOpen() {
+    return connection != null;
+  }
+
+  public long getReconnects() {
+    return reconnects;
+  }
+
+  /**
+   * Get the time the last successful connect took.
+   *
+   * @return the latency in nanoseconds
+   */
+  public long getConnectLatencyNanos() {
+    return connectLatencyNanos;
+  }
+
+  /**
+   * Add a listener for the notifications of the connector, kept across reconnects.
+   *
+   * @param listener the listener to add
+   */
+  public synchronized void addConnectionListener(NotificationListener listener) {
+    connectionListeners.add(listener);
+    if (connector != null) {
+      connector.addConnectionNotificationListener(listener, null, null);
+    }
+  }
+
+  /**
+   * Remove a listener added before, also from the current connector.
+   *
+   * @param listener the listener to remove
+   */
+  public synchronized void removeConnectionListener(NotificationListener listener) {
+    connectionListeners.remove(listener);
+    if (connector != null) {
+      try {
+        connector.removeConnectionNotificationListener(listener);
+      } catch (ListenerNotFoundException e) {
+        // not added to this connector
+      }
+    }
+  }
+
+  /**
+   * Get the MBean server connection, connects if not connected. The connect itself happens outside the monitor, so
+   * that a slow or hanging server does not block the callers that only report failures or notifications; callers
+   * asking for the connection meanwhile wait for the attempt in progress.
+   *
+   * @return the open connection
+   * @throws ConnectionUnavailableException in case the connection has failed and the backoff has not passed yet
+   * @throws IOException in case the connection cannot be established
+   */
+  public MBeanServerConnection getConnection() throws IOException {
+    if (serviceUrl == null) {
+      // in-process, no serialization and no round trip
+      connected = true;
+      return ManagementFactory.getPlatformMBeanServer();
+    }
+    MBeanServerConnection current = connection;
+    if (current != null) {
+      return current;
+    }
+    long now;
+    synchronized (this) {
+      while (connecting) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while connecting to " + serviceUrl);
+        }
+      }
+      if (connection != null) {
+        return connection;
+      }
+      now = System.nanoTime();
+      if (failedAttempts > 0 && now - nextAttemptNanos < 0) {
+        throw new ConnectionUnavailableException("Not connected to " + serviceUrl + ", next attempt in "
+            + TimeUnit.NANOSECONDS.toMillis(nextAttemptNanos - now) + "ms");
+      }
+      connecting = true;
+    }
+    JMXConnector newConnector = null;
+    MBeanServerConnection newConnection;
+    try {
+      newConnector = JMXConnectorFactory.connect(serviceUrl, environment);
+      newConnection = newConnector.getMBeanServerConnection();
+    } catch (IOException e) {
+      long backoffNanos = failedToConnect(newConnector);
+      LOGGER.debug("Unable to connect to " + serviceUrl + ", next attempt in "
+          + TimeUnit.NANOSECONDS.toMillis(backoffNanos) + "ms: " + e.getMessage());
+      throw e;
+    } catch (RuntimeException e) {
+      failedToConnect(newConnector);
+      throw e;
+    }
+    return publish(newConnector, newConnection, now);
+  }
+
+  /**
+   * Record a failed attempt to connect and back off, then let the callers waiting for the attempt continue.
+   *
+   * @param newConnector the connector opened by the attempt, or <code>null</code>
+   * @return the time until the next attempt, in nanoseconds
+   */
+  private long failedToConnect(JMXConnector newConnector) {
+    if (newConnector != null) {
+      closeQuietly(newConnector);
+    }
+    synchronized (this) {
+      failedAttempts++;
+      long backoffNanos = connectionManager.getBackoffNanos(failedAttempts);
+      nextAttemptNanos = System.nanoTime() + backoffNanos;
+      connecting = false;
+      notifyAll();
+      return backoffNanos;
+    }
+  }
+
+  /**
+   * Make a newly opened connector the current one, unless the connection has been released meanwhile.
+   *
+   * @param newConnector the connector just opened
+   * @param newConnection its MBean server connection
+   * @param startNanos the time the attempt to connect has started
+   * @return the connection
+   * @throws ConnectionUnavailableException in case the connection has been released while connecting
+   */
+  private synchronized MBeanServerConnection publish(JMXConnector newConnector, MBeanServerConnection newConnection,
+      long startNanos) throws ConnectionUnavailableException {
+    connecting = false;
+    notifyAll();
+    if (references <= 0) {
+      closeQuietly(newConnector);
+      throw new ConnectionUnavailableException("Connection to " + serviceUrl + " released while connecting");
+    }
+    newConnector.addConnectionNotificationListener(this, null, null);
+    for (NotificationListener listener : connectionListeners) {
+      newConnector.addConnectionNotificationListener(listener, null, null);
+    }
+    connectLatencyNanos = System.nanoTime() - startNanos;
+    if (connected) {
+      reconnects++;
+      LOGGER.info("Reconnected to " + serviceUrl + " after " + failedAttempts + " failed attempts");
+    }
+    connector = newConnector;
+    connection = newConnection;
+    connected = true;
+    failedAttempts = 0;
+    return newConnection;
+  }
+
+  /**
+   * Report that a request on a connection has failed with an {@link IOException}. The connection is closed and opened
+   * again on next use, unless it has been replaced already.
+   *
+   * @param failedConnection the connection the request has been sent on
+   */
+  public synchronized void failed(MBeanServerConnection failedConnection) {
+    if (failedConnection != null && failedConnection == connection) {
+      LOGGER.warn("Connection to " + serviceUrl + " failed, reconnecting");
+      close();
+    }
+  }
+
+  public void handleNotification(Notification notification, Object handback) {
+    String type = notification.getType();
+    if (JMXConnectionNotification.FAILED.equals(type) || JMXConnectionNotification.CLOSED.equals(type)) {
+      synchronized (this) {
+        if (connector != null && notification.getSource() == connector) {
+          LOGGER.warn("Connection to " + serviceUrl + " " + (JMXConnectionNotification.FAILED.equals(type) ? "failed" : "closed") + ", reconnecting");
+          close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Take another reference on the connection.
+   */
+  synchronized void retain() {
+    references++;
+  }
+
+  /**
+   * Drop a reference on the connection.
+   *
+   * @return <code>true</code> if the connection is not used anymore and has been closed
+   */
+  synchronized boolean release() {
+    if (--references > 0) {
+      return false;
+    }
+    if (connector != null) {
+      LOGGER.info("Closed connection to " + serviceUrl);
+    }
+    close();
+    return true;
+  }
+
+  /**
+   * Close the current connector, the next use opens a new one. The first attempt is made right away.
+   */
+  private void close() {
+    JMXConnector closing = connector;
+    connector = null;
+    connection = null;
+    failedAttempts = 0;
+    if (closing != null) {
+      try {
+        closing.removeConnectionNotificationListener(this);
+      } catch (ListenerNotFoundException e) {
+        // not added to this connector
+      }
+      closeQuietly(closing);
+    }
+  }
+
+  private void closeQuietly(JMXConnector closing) {
+    try {
+      closing.close();
+    } catch (Exception e) {
+      // the connection is gone anyway
+      LOGGER.debug("Error while closing connection to " + serviceUrl + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Thrown while a failed connection waits for its next attempt to connect.
+   */
+  public static class ConnectionUnavailableException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ConnectionUnavailableException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import javax.management.relation.MBeanServerNotificationFilter;
+import javax.management.remote.JMXConnectionNotification;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps track of all MBeans matching an object name pattern. The MBean server is queried once, after that the index
+ * is kept up to date from the registration and unregistration notifications of the MBean server delegate. The index
+ * is only queried again when notifications have been lost or the connection has changed.
+ *
+ * @author Malte Franken
+ */
+public class ObjectNameIndex implements NotificationListener {
+  private final static Logger LOGGER = LoggerFactory.getLogger(ObjectNameIndex.class);
+
+  /**
+   * The object name pattern to match.
+   */
+  private final ObjectName pattern;
+
+  /**
+   * The object names currently matching the pattern, in their natural order.
+   */
+  private final Set<ObjectName> objectNames = new ConcurrentSkipListSet<ObjectName>();
+
+  /**
+   * The notifications received while querying, <code>null</code> if not querying. Guarded by {@link #objectNames}.
+   */
+  private List<MBeanServerNotification> pendingNotifications;
+
+  /**
+   * The connection the index is listening on.
+   */
+  private volatile MBeanServerConnection connection;
+
+  /**
+   * Indicates whether the index needs to be queried again.
+   */
+  private volatile boolean stale = true;
+
+  public ObjectNameIndex(ObjectName pattern) {
+    this.pattern = pattern;
+  }
+
+  public ObjectName getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Get the object names currently matching the pattern. Only queries the MBean server the first time, when
+   * notifications have been lost, or when called with a different connection than before.
+   *
+   * @param connection the connection to read from
+   * @return a read-only view on the matching object names
+   * @throws IOException in case of a communication problem
+   */
+  public Set<ObjectName> getObjectNames(MBeanServerConnection connection) throws IOException {
+    if (connection != this.connection) {
+      bind(connection);
+    }
+    if (stale) {
+      // reset the flag first, so that notifications lost during the query make the index query again
+      stale = false;
+      synchronized (objectNames) {
+        pendingNotifications = new ArrayList<MBeanServerNotification>();
+      }
+      Set<ObjectName> queriedNames;
+      try {
+        queriedNames = connection.queryNames(pattern, null);
+      } catch (IOException e) {
+        synchronized (objectNames) {
+          pendingNotifications = null;
+        }
+        stale = true;
+        throw e;
+      }
+      synchronized (objectNames) {
+        objectNames.retainAll(queriedNames);
+        objectNames.addAll(queriedNames);
+        // the query may or may not reflect the notifications that arrived meanwhile, applying them again settles it
+        for (MBeanServerNotification notification : pendingNotifications) {
+          apply(notification);
+        }
+        pendingNotifications = null;
+      }
+      LOGGER.info("Found " + objectNames.size() + " MBeans matching " + pattern);
+    }
+    return Collections.unmodifiableSet(objectNames);
+  }
+
+  /**
+   * Mark the index as stale, so that it is queried again on next access.
+   */
+  public void invalidate() {
+    stale = true;
+  }
+
+  /**
+   * Start listening for registration and unregistration notifications on the given connection.
+   *
+   * @param connection the connection to listen on
+   * @throws IOException in case of a communication problem
+   */
+  private synchronized void bind(MBeanServerConnection connection) throws IOException {
+    // the filter starts with all object names disabled
+    MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+    filter.enableAllObjectNames();
+    try {
+      connection.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+    } catch (InstanceNotFoundException e) {
+      // the delegate is always registered
+      throw new IllegalStateException("MBean server delegate not found", e);
+    }
+    this.connection = connection;
+    this.stale = true;
+  }
+
+  /**
+   * Stop listening for notifications on the connection bound to, so that nothing is left behind on a connection shared
+   * with other targets. The connection may be gone already.
+   */
+  public synchronized void unbind() {
+    MBeanServerConnection bound = connection;
+    connection = null;
+    if (bound != null) {
+      try {
+        bound.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+      } catch (Exception e) {
+        LOGGER.debug("Unable to remove listener from the MBean server delegate: " + e.getMessage());
+      }
+    }
+  }
+
+  public void handleNotification(Notification notification, Object handback) {
+    if (notification instanceof MBeanServerNotification) {
+      MBeanServerNotification serverNotification = (MBeanServerNotification) notification;
+      if (pattern.apply(serverNotification.getMBeanName())) {
+        synchronized (objectNames) {
+          if (pendingNotifications != null) {
+            // applied once the query has been merged
+            pendingNotifications.add(serverNotification);
+          } else {
+            apply(serverNotification);
+          }
+        }
+      }
+    } else if (JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType())) {
+      LOGGER.info("Notifications lost, querying " + pattern + " again");
+      invalidate();
+    }
+  }
+
+  /**
+   * Add or remove the MBean a notification is about.
+   *
+   * @param notification the registration or unregistration notification
+   */
+  private void apply(MBeanServerNotification notification) {
+    if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+      objectNames.add(notification.getMBeanName());
+    } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+      objectNames.remove(notification.getMBeanName());
+    }
+  }
+}
@@ -29,4 +29,9 @@ public class Output {
   //public static final PrintWriter OUT = new PrintWriter(new OutputStreamWriter(System.out));
   public static final PrintStream OUT = System.out;
 
+  /**
+   * Where to output diagnostics, kept apart from the statistics.
+   */
+  public static final PrintStream ERR = System.err;
+
 }
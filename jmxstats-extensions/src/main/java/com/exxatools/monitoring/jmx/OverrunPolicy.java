@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+/**
+ * Determines what a {@link FixedRateSchedule} does when a sample took longer than the interval and one or more ticks
+ * have already passed.
+ *
+ * @author Malte Franken
+ */
+public enum OverrunPolicy {
+  /**
+   * Drop all ticks that have passed and wait for the next tick on the grid.
+   */
+  SKIP,
+  /**
+   * Run all ticks that have passed back to back until the schedule has caught up.
+   */
+  CATCH_UP,
+  /**
+   * Run a single tick immediately in place of all ticks that have passed, then continue on the grid.
+   */
+  COALESCE
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import com.exxatools.monitoring.jmx.converters.Converter;
+import com.exxatools.monitoring.jmx.output.*;
+import org.springframework.beans.factory.annotation.Required;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recording made with the {@link RecordingSink}, or a file written in the binary format, through the
+ * converters and an output format. The rows are replayed either as fast as possible or at the pace they have been
+ * recorded at, based on their time column.
+ *
+ * @author Malte Franken
+ */
+public class RecordingReplay implements BinaryFormatReader.RowHandler {
+
+  /**
+   * The recording directory, a single segment, or a binary file.
+   */
+  private File input;
+
+  /**
+   * Whether to replay at the pace of the recording. Default is <code>false</code>.
+   */
+  private boolean realTime = false;
+
+  /**
+   * The attribute value converter.
+   */
+  private Converter<Object> converter;
+
+  private OutputSink outputSink;
+
+  private OutputFormat outputFormat;
+
+  /**
+   * The columns of the previous row, a header is written whenever they change.
+   */
+  private String[] columns;
+
+  /**
+   * The index of the time column of the current columns, or <code>-1</code> if there is none.
+   */
+  private int timeColumn = -1;
+
+  /**
+   * The number of nanoseconds per unit of the time column.
+   */
+  private long nanosPerTimeUnit;
+
+  /**
+   * The recorded time and the actual time in nanoseconds of the first replayed row.
+   */
+  private long firstRecordedNanos;
+  private long firstReplayedNanos;
+
+  public void setInput(String input) {
+    this.input = new File(input);
+  }
+
+  public void setRealTime(boolean realTime) {
+    this.realTime = realTime;
+  }
+
+  @Required
+  public void setConverter(Converter<Object> converter) {
+    this.converter = converter;
+  }
+
+  public void setOutputSink(OutputSink outputSink) {
+    this.outputSink = outputSink;
+  }
+
+  public void setOutputFormat(OutputFormat outputFormat) {
+    this.outputFormat = outputFormat;
+  }
+
+  /**
+   * Replay the whole input.
+   *
+   * @throws IOException in case the input cannot be read or the output cannot be written
+   * @throws InterruptedException in case the replay is interrupted while waiting for the next row
+   */
+  protected void run() throws IOException, InterruptedException {
+    if (outputSink == null) {
+      outputSink = ChannelOutputSink.stdout();
+    }
+    if (outputFormat == null) {
+      outputFormat = new TextOutputFormat();
+    }
+    outputFormat.setConverter(converter);
+    BinaryFormatReader reader = new BinaryFormatReader();
+    try {
+      File[] files = input.isDirectory() ? RecordingSink.listSegments(input) : new File[]{input};
+      for (File file : files) {
+        reader.read(map(file), this);
+      }
+      outputFormat.finish(outputSink);
+    } finally {
+      outputSink.close();
+    }
+  }
+
+  /**
+   * Map a file into memory and position the buffer on its records.
+   *
+   * @param file the segment or binary file
+   * @return a buffer containing the records of the file
+   * @throws IOException in case the file cannot be read
+   */
+  private ByteBuffer map(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    ByteBuffer buffer;
+    try {
+      buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+    } finally {
+      randomAccessFile.close();
+    }
+    byte[] magic = new byte[RecordingSink.MAGIC.length];
+    if (buffer.remaining() >= RecordingSink.PREAMBLE_SIZE) {
+      buffer.get(magic);
+      if (Arrays.equals(magic, RecordingSink.MAGIC)) {
+        // only the used part of a segment contains records
+        buffer.limit((int) buffer.getLong(RecordingSink.USED_POSITION));
+        buffer.position(RecordingSink.PREAMBLE_SIZE);
+        return buffer;
+      }
+      buffer.rewind();
+    }
+    return buffer;
+  }
+
+  public void row(String[] columns, Object[] cells) throws IOException, InterruptedException {
+    if (!Arrays.equals(columns, this.columns)) {
+      this.columns = columns;
+      timeColumn = -1;
+      for (int i = 0; i < columns.length && timeColumn < 0; i++) {
+        if ("time".equals(columns[i])) {
+          timeColumn = i;
+          nanosPerTimeUnit = TimeUnit.MILLISECONDS.toNanos(1);
+        } else if ("time_ns".equals(columns[i])) {
+          timeColumn = i;
+          nanosPerTimeUnit = 1;
+        }
+      }
+      firstReplayedNanos = 0;
+      outputFormat.writeHeader(columns, outputSink);
+    }
+    if (realTime && timeColumn >= 0 && cells[timeColumn] instanceof Long) {
+      long recordedNanos = (Long) cells[timeColumn] * nanosPerTimeUnit;
+      if (firstReplayedNanos == 0) {
+        firstRecordedNanos = recordedNanos;
+        firstReplayedNanos = System.nanoTime();
+      } else {
+        long delay = firstReplayedNanos + (recordedNanos - firstRecordedNanos) - System.nanoTime();
+        if (delay > 0) {
+          TimeUnit.NANOSECONDS.sleep(delay);
+        }
+      }
+    }
+    outputFormat.writeRow(columns, cells, outputSink);
+  }
+}
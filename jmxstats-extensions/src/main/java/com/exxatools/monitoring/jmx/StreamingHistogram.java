@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+/**
+ * A fixed-memory histogram of the values recorded during an aggregation window. Minimum, maximum and mean are exact.
+ * Percentiles are taken from logarithmic buckets: each power of two between {@link #MIN_EXPONENT} and
+ * {@link #MAX_EXPONENT} is split into {@link #SUB_BUCKETS} linear buckets, so that a percentile is off by less than
+ * one percent of its value. Values outside of that range, including negative values, are only counted, percentiles
+ * falling there are reported as the exact minimum or maximum.
+ *
+ * @author Malte Franken
+ */
+public class StreamingHistogram {
+
+  /**
+   * The exponent of the smallest power of two with its own buckets.
+   */
+  public static final int MIN_EXPONENT = -20;
+
+  /**
+   * The exponent of the largest power of two with its own buckets.
+   */
+  public static final int MAX_EXPONENT = 63;
+
+  /**
+   * The number of buckets per power of two.
+   */
+  public static final int SUB_BUCKETS = 64;
+
+  private static final int SUB_BUCKET_BITS = 6;
+
+  private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+  /**
+   * The number of values per bucket.
+   */
+  private final int[] counts = new int[BUCKETS];
+
+  /**
+   * The lowest and highest bucket used since the last reset, to keep resetting and walking the buckets short.
+   */
+  private int lowestBucket = BUCKETS;
+  private int highestBucket = -1;
+
+  /**
+   * The number of values below and above the buckets.
+   */
+  private long underflow;
+  private long overflow;
+
+  private long count;
+  private double sum;
+  private double min;
+  private double max;
+
+  /**
+   * Record a value. NaN is ignored.
+   *
+   * @param value the value to record
+   */
+  public void record(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    if (count == 0 || value < min) {
+      min = value;
+    }
+    if (count == 0 || value > max) {
+      max = value;
+    }
+    count++;
+    sum += value;
+    int exponent = value > 0 ? Math.getExponent(value) : Integer.MIN_VALUE;
+    if (exponent < MIN_EXPONENT) {
+      underflow++;
+    } else if (exponent > MAX_EXPONENT) {
+      overflow++;
+    } else {
+      // the top bits of the mantissa select the linear bucket within the power of two
+      long mantissa = Double.doubleToRawLongBits(value) & 0x000fffffffffffffL;
+      int bucket = (exponent - MIN_EXPONENT) * SUB_BUCKETS + (int) (mantissa >>> (52 - SUB_BUCKET_BITS));
+      counts[bucket]++;
+      if (bucket < lowestBucket) {
+        lowestBucket = bucket;
+      }
+      if (bucket > highestBucket) {
+        highestBucket = bucket;
+      }
+    }
+  }
+
+  /**
+   * Forget all values recorded, to start a new window.
+   */
+  public void reset() {
+    for (int bucket = lowestBucket; bucket <= highestBucket; bucket++) {
+      counts[bucket] = 0;
+    }
+    lowestBucket = BUCKETS;
+    highestBucket = -1;
+    underflow = 0;
+    overflow = 0;
+    count = 0;
+    sum = 0;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMin() {
+    return count > 0 ? min : Double.NaN;
+  }
+
+  public double getMax() {
+    return count > 0 ? max : Double.NaN;
+  }
+
+  public double getMean() {
+    return count > 0 ? sum / count : Double.NaN;
+  }
+
+  /**
+   * Get the value below which the given share of the recorded values fall.
+   *
+   * @param percentile the share between 0 and 100
+   * @return the percentile, or NaN if no values have been recorded
+   */
+  public double getPercentile(double percentile) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = underflow;
+    if (rank <= seen) {
+      return min;
+    }
+    for (int bucket = lowestBucket; bucket <= highestBucket; bucket++) {
+      seen += counts[bucket];
+      if (rank <= seen) {
+        return Math.max(min, Math.min(max, getBucketMiddle(bucket)));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Get the value in the middle of a bucket.
+   *
+   * @param bucket the index of the bucket
+   * @return the middle of the range of values the bucket counts
+   */
+  private static double getBucketMiddle(int bucket) {
+    int exponent = bucket / SUB_BUCKETS + MIN_EXPONENT;
+    int subBucket = bucket % SUB_BUCKETS;
+    return Math.scalb(1 + (subBucket + 0.5) / SUB_BUCKETS, exponent);
+  }
+}
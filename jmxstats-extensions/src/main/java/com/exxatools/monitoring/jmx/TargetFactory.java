@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Creates the targets of a {@link JmxCollector} from their definitions in a targets file, when the collector is
+ * started and whenever the file changes.
+ *
+ * @author Malte Franken
+ */
+public interface TargetFactory {
+  /**
+   * Create a target, ready to be sampled.
+   *
+   * @param targetName the name of the target
+   * @param definition the properties of the target, without the target name prefix, e.g. <code>serviceUrl</code>
+   * @return the new target
+   * @throws IOException in case the service URL is malformed, or the output of the target cannot be opened
+   * @throws JMException in case the object name is malformed
+   * @throws IllegalArgumentException in case the definition is incomplete or incorrect
+   */
+  JmxStats createTarget(String targetName, Properties definition) throws IOException, JMException;
+
+  /**
+   * Release whatever has been opened for a target only, once the target has been removed from the collector and
+   * stopped.
+   *
+   * @param target the removed target
+   * @throws IOException in case the output of the target cannot be closed
+   */
+  void releaseTarget(JmxStats target) throws IOException;
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx;
+
+/**
+ * Collects the samples of a single MBean during an aggregation window. Columns with an aggregate function keep a
+ * {@link StreamingHistogram} of their numeric values, all other columns keep their last value. Memory stays the same
+ * however many samples the window contains.
+ *
+ * @author Malte Franken
+ */
+public class WindowAggregate {
+
+  /**
+   * The function of each column.
+   */
+  private final ColumnFunction[] functions;
+
+  /**
+   * The histogram of each aggregate column, <code>null</code> for all other columns.
+   */
+  private final StreamingHistogram[] histograms;
+
+  /**
+   * The last value of each other column.
+   */
+  private final Object[] lastValues;
+
+  /**
+   * The index of the current window.
+   */
+  private long window;
+
+  /**
+   * The number of samples recorded in the current window.
+   */
+  private long samples;
+
+  public WindowAggregate(ColumnFunction[] functions) {
+    this.functions = functions;
+    this.histograms = new StreamingHistogram[functions.length];
+    this.lastValues = new Object[functions.length];
+    for (int i = 0; i < functions.length; i++) {
+      if (functions[i].isAggregate()) {
+        histograms[i] = new StreamingHistogram();
+      }
+    }
+  }
+
+  public long getWindow() {
+    return window;
+  }
+
+  public boolean isEmpty() {
+    return samples == 0;
+  }
+
+  /**
+   * Record a sample.
+   *
+   * @param window the index of the window the sample belongs to
+   * @param values the value of each column
+   */
+  public void record(long window, Object[] values) {
+    this.window = window;
+    samples++;
+    for (int i = 0; i < values.length; i++) {
+      if (histograms[i] != null) {
+        if (values[i] instanceof Number) {
+          histograms[i].record(((Number) values[i]).doubleValue());
+        }
+      } else {
+        lastValues[i] = values[i];
+      }
+    }
+  }
+
+  /**
+   * Summarize the current window and start a new one.
+   *
+   * @param values receives the value of each column, <code>null</code> if a column had no numeric values
+   */
+  public void summarize(Object[] values) {
+    for (int i = 0; i < values.length; i++) {
+      StreamingHistogram histogram = histograms[i];
+      if (histogram == null) {
+        values[i] = lastValues[i];
+        lastValues[i] = null;
+      } else {
+        values[i] = histogram.getCount() > 0 ? summarize(functions[i], histogram) : null;
+        histogram.reset();
+      }
+    }
+    samples = 0;
+  }
+
+  private static Double summarize(ColumnFunction function, StreamingHistogram histogram) {
+    switch (function) {
+      case MIN:
+        return histogram.getMin();
+      case MAX:
+        return histogram.getMax();
+      case MEAN:
+        return histogram.getMean();
+      case P50:
+        return histogram.getPercentile(50);
+      case P90:
+        return histogram.getPercentile(90);
+      default:
+        return histogram.getPercentile(99);
+    }
+  }
+}
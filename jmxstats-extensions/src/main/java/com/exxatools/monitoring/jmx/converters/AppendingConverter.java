@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.converters;
+
+/**
+ * A converter that can append the readable format directly to a {@link StringBuilder}, without creating an
+ * intermediate string for each value.
+ *
+ * @author Malte Franken
+ */
+public interface AppendingConverter<S> extends Converter<S> {
+  /**
+   * Append the incoming value in its readable format.
+   *
+   * @param value the incoming value to convert
+   * @param builder the builder to append to
+   */
+  void append(S value, StringBuilder builder);
+}
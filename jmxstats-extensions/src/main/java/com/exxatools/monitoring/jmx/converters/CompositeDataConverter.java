@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.converters;
+
+import org.springframework.beans.factory.annotation.Required;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * This converter converts composite data, like <code>HeapMemoryUsage</code>, into a readable format by getting key and
+ * value of each item. The value will be transformed using the configured {@link #valueConverter}. The whole composite
+ * data is surrounded by {...} brackets. Single items can be output in their own column with a dotted attribute path,
+ * like <code>HeapMemoryUsage.used</code>.
+ *
+ * @author Malte Franken
+ */
+public class CompositeDataConverter implements Converter<CompositeData> {
+
+  private Converter<Object> valueConverter;
+  private String keyValueSeparator = "=";
+  private String entrySeparator = ",";
+
+  @Required
+  public void setValueConverter(Converter<Object> valueConverter) {
+    this.valueConverter = valueConverter;
+  }
+
+  public void setKeyValueSeparator(String keyValueSeparator) {
+    this.keyValueSeparator = keyValueSeparator;
+  }
+
+  public void setEntrySeparator(String entrySeparator) {
+    this.entrySeparator = entrySeparator;
+  }
+
+  public boolean canConvert(Class<?> sourceClass) {
+    return CompositeData.class.isAssignableFrom(sourceClass);
+  }
+
+  public String convert(CompositeData compositeData) {
+    StringBuilder builder = new StringBuilder("{");
+    if (compositeData != null) {
+      boolean first = true;
+      // the keys of a composite type are sorted
+      for (String key : compositeData.getCompositeType().keySet()) {
+        if (!first) {
+          builder.append(entrySeparator);
+        }
+        first = false;
+        builder.append(key).append(keyValueSeparator).append(valueConverter.convert(compositeData.get(key)));
+      }
+    }
+    builder.append("}");
+    return builder.toString();
+  }
+}
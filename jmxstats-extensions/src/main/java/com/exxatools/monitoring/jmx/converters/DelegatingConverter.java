@@ -19,22 +19,47 @@ package com.exxatools.monitoring.jmx.converters;
 import org.springframework.beans.factory.annotation.Required;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This converter is delegating to its configured {@link #converters}. The first converter that matches will be used.
+ * The converter chosen for a class is cached, so that the list of converters is only walked once per class.
  *
  * @author Malte Franken
  */
-public class DelegatingConverter implements Converter<Object> {
+public class DelegatingConverter implements AppendingConverter<Object> {
 
   /**
    * The converters to delegate to.
    */
   private List<Converter> converters;
 
+  /**
+   * The converter to use by class of the incoming values, filled on first use of each class.
+   */
+  private final ConcurrentMap<Class<?>, Converter> convertersByClass = new ConcurrentHashMap<Class<?>, Converter>();
+
+  /**
+   * The number of lookups not answered by the cache. Only misses are counted, they are rare once each class has been
+   * seen, so the lookups answered by the cache stay free of shared writes.
+   */
+  private final AtomicLong misses = new AtomicLong();
+
   @Required
   public void setConverters(List<Converter> converters) {
     this.converters = converters;
+    this.convertersByClass.clear();
+  }
+
+  /**
+   * Get the number of lookups not answered by the cache of converters by class, about one per class of values.
+   *
+   * @return the number of cache misses
+   */
+  public long getCacheMisses() {
+    return misses.get();
   }
 
   public boolean canConvert(Class<?> sourceClass) {
@@ -49,11 +74,9 @@ public class DelegatingConverter implements Converter<Object> {
    */
   public String convert(Object value) {
     if (value != null) {
-      for (Converter converter : converters) {
-        if (converter.canConvert(value.getClass())) {
-          // the first converter that matches is used
-          return converter.convert(value);
-        }
+      Converter converter = getConverter(value.getClass());
+      if (converter != null) {
+        return converter.convert(value);
       }
       // fallback if no converter could be found
       return value.toString();
@@ -62,4 +85,46 @@ public class DelegatingConverter implements Converter<Object> {
       return "";
     }
   }
+
+  /**
+   * Append the incoming value in its readable format. Converters that can append directly are called without
+   * creating an intermediate string.
+   *
+   * @param value the incoming attribute value
+   * @param builder the builder to append to, nothing is appended if the incoming value is <code>null</code>
+   */
+  public void append(Object value, StringBuilder builder) {
+    if (value != null) {
+      Converter converter = getConverter(value.getClass());
+      if (converter instanceof AppendingConverter) {
+        ((AppendingConverter) converter).append(value, builder);
+      } else if (converter != null) {
+        builder.append(converter.convert(value));
+      } else {
+        builder.append(value.toString());
+      }
+    }
+  }
+
+  /**
+   * Find the converter for values of the provided class.
+   *
+   * @param sourceClass the class of the incoming value
+   * @return the first converter that matches, or <code>null</code> if none matches
+   */
+  private Converter getConverter(Class<?> sourceClass) {
+    Converter converter = convertersByClass.get(sourceClass);
+    if (converter == null) {
+      misses.incrementAndGet();
+      for (Converter candidate : converters) {
+        if (candidate.canConvert(sourceClass)) {
+          // the first converter that matches is used
+          converter = candidate;
+          convertersByClass.putIfAbsent(sourceClass, converter);
+          break;
+        }
+      }
+    }
+    return converter;
+  }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.converters;
+
+/**
+ * This converter takes care of floating point numbers, i.e. {@link Double} and {@link Float}, and appends them
+ * without going through {@link Object#toString()}. Floats are appended with float precision, so that they read the
+ * same as before.
+ *
+ * @author Malte Franken
+ */
+public class DoubleConverter implements AppendingConverter<Number> {
+
+  public boolean canConvert(Class<?> sourceClass) {
+    return sourceClass == Double.class || sourceClass == Float.class;
+  }
+
+  public String convert(Number value) {
+    return value instanceof Float ? Float.toString(value.floatValue()) : Double.toString(value.doubleValue());
+  }
+
+  public void append(Number value, StringBuilder builder) {
+    if (value instanceof Float) {
+      builder.append(value.floatValue());
+    } else {
+      builder.append(value.doubleValue());
+    }
+  }
+}
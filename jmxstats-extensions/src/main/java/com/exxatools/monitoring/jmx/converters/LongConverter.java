@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.converters;
+
+/**
+ * This converter takes care of integral numbers, i.e. {@link Long}, {@link Integer}, {@link Short} and {@link Byte},
+ * and appends their decimal digits without going through {@link Object#toString()}.
+ *
+ * @author Malte Franken
+ */
+public class LongConverter implements AppendingConverter<Number> {
+
+  public boolean canConvert(Class<?> sourceClass) {
+    return sourceClass == Long.class || sourceClass == Integer.class || sourceClass == Short.class
+        || sourceClass == Byte.class;
+  }
+
+  public String convert(Number value) {
+    return Long.toString(value.longValue());
+  }
+
+  public void append(Number value, StringBuilder builder) {
+    builder.append(value.longValue());
+  }
+}
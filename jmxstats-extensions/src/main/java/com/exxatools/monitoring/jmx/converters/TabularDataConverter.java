@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.converters;
+
+import org.springframework.beans.factory.annotation.Required;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.TabularData;
+
+/**
+ * This converter converts tabular data into a readable format. Rows with just a key and a value, as used for maps by
+ * MXBeans, are converted into key-value-pairs with the value transformed using the configured {@link #valueConverter}.
+ * All other rows are transformed as a whole using the configured {@link #valueConverter}. The whole table is
+ * surrounded by [...] brackets. Single rows can be output in their own column with a dotted attribute path, like
+ * <code>SystemProperties.java.version</code>.
+ *
+ * @author Malte Franken
+ */
+public class TabularDataConverter implements Converter<TabularData> {
+
+  private static final String KEY_ITEM = "key";
+  private static final String VALUE_ITEM = "value";
+
+  private Converter<Object> valueConverter;
+  private String keyValueSeparator = "=";
+  private String rowSeparator = ",";
+
+  @Required
+  public void setValueConverter(Converter<Object> valueConverter) {
+    this.valueConverter = valueConverter;
+  }
+
+  public void setKeyValueSeparator(String keyValueSeparator) {
+    this.keyValueSeparator = keyValueSeparator;
+  }
+
+  public void setRowSeparator(String rowSeparator) {
+    this.rowSeparator = rowSeparator;
+  }
+
+  public boolean canConvert(Class<?> sourceClass) {
+    return TabularData.class.isAssignableFrom(sourceClass);
+  }
+
+  public String convert(TabularData tabularData) {
+    StringBuilder builder = new StringBuilder("[");
+    if (tabularData != null) {
+      CompositeType rowType = tabularData.getTabularType().getRowType();
+      boolean entries = rowType.keySet().size() == 2 && rowType.containsKey(KEY_ITEM) && rowType.containsKey(VALUE_ITEM);
+      for (Object row : tabularData.values()) {
+        if (builder.length() > 1) {
+          builder.append(rowSeparator);
+        }
+        if (entries) {
+          CompositeData entry = (CompositeData) row;
+          builder.append(entry.get(KEY_ITEM)).append(keyValueSeparator);
+          builder.append(valueConverter.convert(entry.get(VALUE_ITEM)));
+        } else {
+          builder.append(valueConverter.convert(row));
+        }
+      }
+    }
+    builder.append("]");
+    return builder.toString();
+  }
+}
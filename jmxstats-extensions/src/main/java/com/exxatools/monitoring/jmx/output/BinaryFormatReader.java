@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the records written by the {@link BinaryOutputFormat} and hands out the rows they contain.
+ *
+ * @author Malte Franken
+ */
+public class BinaryFormatReader {
+
+  /**
+   * The columns of each schema id.
+   */
+  private final Map<Integer, String[]> schemas = new HashMap<Integer, String[]>();
+
+  /**
+   * Receives the rows read.
+   */
+  public interface RowHandler {
+    /**
+     * Handle a row.
+     *
+     * @param columns the column names
+     * @param cells the values, {@link Long}, {@link Double}, {@link String} or <code>null</code>
+     * @throws IOException in case the row cannot be handled
+     * @throws InterruptedException in case the thread is interrupted while handling the row
+     */
+    void row(String[] columns, Object[] cells) throws IOException, InterruptedException;
+  }
+
+  /**
+   * Read all records between position and limit of the buffer.
+   *
+   * @param records the buffer containing whole records
+   * @param handler receives the rows read
+   * @throws IOException in case the records are corrupt or the rows cannot be handled
+   * @throws InterruptedException in case the thread is interrupted while handling the rows
+   */
+  public void read(ByteBuffer records, RowHandler handler) throws IOException, InterruptedException {
+    while (records.remaining() >= 4) {
+      int length = records.getInt();
+      if (length <= 0 || length > records.remaining()) {
+        throw new IOException("Corrupt record of length " + length + " at " + (records.position() - 4));
+      }
+      ByteBuffer record = records.slice();
+      record.limit(length);
+      records.position(records.position() + length);
+      byte type = record.get();
+      if (type == BinaryOutputFormat.RECORD_HEADER) {
+        readHeader(record);
+      } else if (type == BinaryOutputFormat.RECORD_BLOCK) {
+        readBlock(record, handler);
+      } else {
+        throw new IOException("Unknown record type " + type);
+      }
+    }
+  }
+
+  private void readHeader(ByteBuffer record) {
+    int schemaId = (int) getVarint(record);
+    String[] columns = new String[(int) getVarint(record)];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = getString(record);
+    }
+    schemas.put(schemaId, columns);
+  }
+
+  private void readBlock(ByteBuffer record, RowHandler handler) throws IOException, InterruptedException {
+    int schemaId = (int) getVarint(record);
+    String[] columns = schemas.get(schemaId);
+    if (columns == null) {
+      throw new IOException("Block for unknown schema " + schemaId);
+    }
+    int rowCount = (int) getVarint(record);
+    Object[][] rows = new Object[rowCount][columns.length];
+    for (int column = 0; column < columns.length; column++) {
+      byte type = record.get();
+      boolean[] nulls = new boolean[rowCount];
+      if ((type & BinaryOutputFormat.NULLS_FLAG) != 0) {
+        type &= ~BinaryOutputFormat.NULLS_FLAG;
+        for (int row = 0; row < rowCount; row += 8) {
+          int bits = record.get();
+          for (int bit = 0; bit < 8 && row + bit < rowCount; bit++) {
+            nulls[row + bit] = (bits & (1 << bit)) != 0;
+          }
+        }
+      }
+      long previous = 0;
+      for (int row = 0; row < rowCount; row++) {
+        if (!nulls[row]) {
+          switch (type) {
+            case BinaryOutputFormat.TYPE_LONG:
+              long delta = getVarint(record);
+              previous += (delta >>> 1) ^ -(delta & 1);
+              rows[row][column] = previous;
+              break;
+            case BinaryOutputFormat.TYPE_DOUBLE:
+              rows[row][column] = record.getDouble();
+              break;
+            case BinaryOutputFormat.TYPE_STRING:
+              rows[row][column] = getString(record);
+              break;
+            default:
+              throw new IOException("Unknown column type " + type);
+          }
+        }
+      }
+    }
+    for (Object[] row : rows) {
+      handler.row(columns, row);
+    }
+  }
+
+  private static long getVarint(ByteBuffer buffer) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[(int) getVarint(buffer)];
+    buffer.get(bytes);
+    return new String(bytes, BinaryOutputFormat.UTF8);
+  }
+}
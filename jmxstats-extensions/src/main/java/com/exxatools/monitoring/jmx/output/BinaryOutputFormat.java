@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import com.exxatools.monitoring.jmx.converters.Converter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A compact binary columnar format. The output is a sequence of length-prefixed records, each starting with a
+ * big-endian 32 bit length of the rest of the record, followed by a record type byte.
+ * <ul>
+ *   <li>Header record <code>'H'</code>: schema id, number of columns, then each column name as length-prefixed
+ *   UTF-8. A header defines (or redefines) the columns of a schema id.</li>
+ *   <li>Block record <code>'B'</code>: schema id, number of rows, then each column in turn. A column starts with
+ *   its type byte ({@link #TYPE_LONG}, {@link #TYPE_DOUBLE} or {@link #TYPE_STRING}). If the type byte has
+ *   {@link #NULLS_FLAG} set, a bitmap of one bit per row follows, a set bit marks a <code>null</code> cell which
+ *   has no value in the data that follows. Long columns hold the first value and then the difference to the
+ *   previous value, all as zig-zag encoded variable-length integers, so timestamps and counters take one or two
+ *   bytes per row. Double columns hold 8 bytes per value, string columns length-prefixed UTF-8.</li>
+ * </ul>
+ * All counts and lengths are unsigned variable-length integers, 7 bits per byte, least significant group first.
+ * Rows are held back per schema until {@link #rowsPerBlock} rows have been collected or {@link #finish(OutputSink)}
+ * is called. The type of each column is taken from the values of the block, unless it has been set up front through
+ * {@link #setColumnTypes(String[], ColumnType[])} and all values of the block match it.
+ *
+ * @author Malte Franken
+ */
+public class BinaryOutputFormat implements TypedOutputFormat {
+
+  public static final byte RECORD_HEADER = 'H';
+  public static final byte RECORD_BLOCK = 'B';
+
+  public static final byte TYPE_LONG = 1;
+  public static final byte TYPE_DOUBLE = 2;
+  public static final byte TYPE_STRING = 3;
+  public static final byte NULLS_FLAG = (byte) 0x80;
+
+  /**
+   * The default number of rows per block.
+   */
+  public static final int DEFAULT_ROWS_PER_BLOCK = 64;
+
+  protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Hands out the schema ids, unique within the process.
+   */
+  private static final AtomicInteger SCHEMA_IDS = new AtomicInteger();
+
+  /**
+   * The blocks being collected, by the columns array of their schema.
+   */
+  private final Map<String[], Block> blocks = new IdentityHashMap<String[], Block>();
+
+  /**
+   * The type bytes of the columns whose types are known up front, by the columns array of their schema.
+   */
+  private final Map<String[], byte[]> columnTypes = new IdentityHashMap<String[], byte[]>();
+
+  private int rowsPerBlock = DEFAULT_ROWS_PER_BLOCK;
+
+  private Converter<Object> converter;
+
+  /**
+   * Reused for encoding each record.
+   */
+  private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+  public void setConverter(Converter<Object> converter) {
+    this.converter = converter;
+  }
+
+  public void setRowsPerBlock(int rowsPerBlock) {
+    this.rowsPerBlock = rowsPerBlock;
+  }
+
+  public synchronized void setColumnTypes(String[] columns, ColumnType[] types) {
+    byte[] typeBytes = new byte[types.length];
+    for (int i = 0; i < types.length; i++) {
+      typeBytes[i] = getTypeByte(types[i]);
+    }
+    columnTypes.put(columns, typeBytes);
+    Block block = blocks.get(columns);
+    if (block != null) {
+      block.types = typeBytes;
+    }
+  }
+
+  public synchronized void writeHeader(String[] columns, OutputSink sink) throws IOException {
+    getBlock(columns, sink);
+  }
+
+  public synchronized void writeRow(String[] columns, Object[] cells, OutputSink sink) throws IOException {
+    Block block = getBlock(columns, sink);
+    System.arraycopy(cells, 0, block.rows[block.rowCount++], 0, columns.length);
+    if (block.rowCount == rowsPerBlock) {
+      writeBlock(block, sink);
+    }
+  }
+
+  public synchronized void finish(OutputSink sink) throws IOException {
+    for (Block block : blocks.values()) {
+      if (block.rowCount > 0) {
+        writeBlock(block, sink);
+      }
+    }
+  }
+
+  /**
+   * Get the block collecting the rows of the given columns. A new schema is defined by writing its header.
+   *
+   * @param columns the column names
+   * @param sink the sink to write the header to
+   * @return the block
+   * @throws IOException in case the header cannot be written
+   */
+  private Block getBlock(String[] columns, OutputSink sink) throws IOException {
+    Block block = blocks.get(columns);
+    if (block == null) {
+      block = new Block(SCHEMA_IDS.incrementAndGet(), columns.length, rowsPerBlock);
+      block.types = columnTypes.get(columns);
+      blocks.put(columns, block);
+      buffer.clear();
+      buffer.position(4);
+      buffer.put(RECORD_HEADER);
+      putVarint(block.schemaId);
+      putVarint(columns.length);
+      for (String column : columns) {
+        putString(column);
+      }
+      writeRecord(sink);
+    }
+    return block;
+  }
+
+  /**
+   * Encode the rows of the block column by column and write them as one record.
+   *
+   * @param block the block to write
+   * @param sink the sink to write to
+   * @throws IOException in case the block cannot be written
+   */
+  private void writeBlock(Block block, OutputSink sink) throws IOException {
+    Object[][] rows = block.rows;
+    int rowCount = block.rowCount;
+    buffer.clear();
+    buffer.position(4);
+    buffer.put(RECORD_BLOCK);
+    putVarint(block.schemaId);
+    putVarint(rowCount);
+    for (int column = 0; column < block.columnCount; column++) {
+      byte type = block.types != null ? block.types[column] : 0;
+      boolean nulls = false;
+      if (type != 0) {
+        // the type is known, only look for null values and values that do not match it
+        for (int row = 0; row < rowCount && type != 0; row++) {
+          Object value = rows[row][column];
+          if (value == null) {
+            nulls = true;
+          } else if (!matches(type, value)) {
+            // e.g. a dynamic MBean returning values of another type than described, take the type from the values
+            type = 0;
+          }
+        }
+      }
+      if (type == 0) {
+        nulls = false;
+        type = TYPE_LONG;
+        for (int row = 0; row < rowCount; row++) {
+          Object value = rows[row][column];
+          if (value == null) {
+            nulls = true;
+          } else if (!isIntegral(value)) {
+            type = isFloatingPoint(value) && type != TYPE_STRING ? TYPE_DOUBLE : TYPE_STRING;
+          }
+        }
+      }
+      ensureCapacity(1 + (rowCount + 7) / 8);
+      buffer.put(nulls ? (byte) (type | NULLS_FLAG) : type);
+      if (nulls) {
+        for (int row = 0; row < rowCount; row += 8) {
+          int bits = 0;
+          for (int bit = 0; bit < 8 && row + bit < rowCount; bit++) {
+            if (rows[row + bit][column] == null) {
+              bits |= 1 << bit;
+            }
+          }
+          buffer.put((byte) bits);
+        }
+      }
+      long previous = 0;
+      for (int row = 0; row < rowCount; row++) {
+        Object value = rows[row][column];
+        if (value != null) {
+          switch (type) {
+            case TYPE_LONG:
+              long longValue = ((Number) value).longValue();
+              putZigZag(longValue - previous);
+              previous = longValue;
+              break;
+            case TYPE_DOUBLE:
+              ensureCapacity(8);
+              buffer.putDouble(((Number) value).doubleValue());
+              break;
+            default:
+              putString(converter.convert(value));
+          }
+        }
+        rows[row][column] = null;
+      }
+    }
+    block.rowCount = 0;
+    writeRecord(sink);
+  }
+
+  /**
+   * Fill in the length of the record in the buffer and write it.
+   *
+   * @param sink the sink to write to
+   * @throws IOException in case the record cannot be written
+   */
+  private void writeRecord(OutputSink sink) throws IOException {
+    buffer.putInt(0, buffer.position() - 4);
+    buffer.flip();
+    sink.write(buffer);
+  }
+
+  /**
+   * Get the type byte of a column whose type is known up front.
+   *
+   * @param type the type of the column
+   * @return the type byte, or <code>0</code> if the type of the column is taken from its values
+   */
+  private static byte getTypeByte(ColumnType type) {
+    switch (type) {
+      case LONG:
+        return TYPE_LONG;
+      case DOUBLE:
+        return TYPE_DOUBLE;
+      case STRING:
+        return TYPE_STRING;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Determine whether a value can be stored in a column of the given type without losing information.
+   *
+   * @param type the type byte of the column
+   * @param value the value to check, not <code>null</code>
+   * @return <code>true</code> if the value matches the type
+   */
+  private boolean matches(byte type, Object value) {
+    switch (type) {
+      case TYPE_LONG:
+        return isIntegral(value);
+      case TYPE_DOUBLE:
+        return isIntegral(value) || isFloatingPoint(value);
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Determine whether a value is stored in a long column.
+   *
+   * @param value the value to check
+   * @return <code>true</code> if the value is an integral number
+   */
+  protected boolean isIntegral(Object value) {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+  }
+
+  /**
+   * Determine whether a value is stored in a double column.
+   *
+   * @param value the value to check
+   * @return <code>true</code> if the value is a floating point number
+   */
+  protected boolean isFloatingPoint(Object value) {
+    return value instanceof Double || value instanceof Float;
+  }
+
+  private void putVarint(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7fL) != 0) {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void putZigZag(long value) {
+    putVarint((value << 1) ^ (value >> 63));
+  }
+
+  private void putString(String value) {
+    byte[] bytes = value.getBytes(UTF8);
+    putVarint(bytes.length);
+    ensureCapacity(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (buffer.remaining() < bytes) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+  }
+
+  /**
+   * The rows of one schema collected for the next block.
+   */
+  private static class Block {
+    private final int schemaId;
+    private final int columnCount;
+    private final Object[][] rows;
+    private int rowCount = 0;
+    private byte[] types;
+
+    private Block(int schemaId, int columnCount, int rowsPerBlock) {
+      this.schemaId = schemaId;
+      this.columnCount = columnCount;
+      this.rows = new Object[rowsPerBlock][columnCount];
+    }
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An output sink writing to a channel through a buffer. Each line is copied into a reused character buffer and
+ * encoded straight into the byte buffer, so writing a line does not allocate. The byte buffer is written to the
+ * channel when it is full, and otherwise according to the {@link FlushPolicy}. Binary records count as rows for the
+ * flush policy. With a time window, a shared background thread flushes output that has been buffered for longer than
+ * the window while no more rows arrive.
+ *
+ * @author Malte Franken
+ */
+public class ChannelOutputSink implements OutputSink {
+  private final static Logger LOGGER = LoggerFactory.getLogger(ChannelOutputSink.class);
+
+  /**
+   * The default size of the byte buffer.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+  /**
+   * Flushes the sinks with a time window while no rows arrive.
+   */
+  private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "output-flush");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * The channel to write to.
+   */
+  private final WritableByteChannel channel;
+
+  /**
+   * Whether to close the channel when the sink is closed.
+   */
+  private final boolean closeChannel;
+
+  /**
+   * Buffers the encoded output until it is flushed.
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * Encodes the lines into the byte buffer.
+   */
+  private final CharsetEncoder encoder;
+
+  /**
+   * Reused for copying each line.
+   */
+  private char[] chars = new char[256];
+
+  /**
+   * Wraps {@link #chars} for the encoder.
+   */
+  private CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+  private FlushPolicy flushPolicy = FlushPolicy.ROW;
+
+  /**
+   * The number of rows, or the number of milliseconds, between two flushes, depending on the {@link #flushPolicy}.
+   */
+  private long flushEvery = 1;
+
+  private int rowsSinceFlush = 0;
+
+  private long lastFlushNanos = System.nanoTime();
+
+  private volatile long bytesWritten;
+
+  private boolean closed = false;
+
+  /**
+   * Checks regularly whether the time window has passed, if flushed by time window.
+   */
+  private ScheduledFuture<?> flushTask;
+
+  public ChannelOutputSink(WritableByteChannel channel, boolean closeChannel, int bufferSize) {
+    this.channel = channel;
+    this.closeChannel = closeChannel;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    this.encoder = Charset.defaultCharset().newEncoder();
+  }
+
+  /**
+   * Create a sink writing to the standard output. The standard output is not closed when the sink is closed.
+   *
+   * @return the new sink
+   */
+  public static ChannelOutputSink stdout() {
+    return new ChannelOutputSink(Channels.newChannel(new FileOutputStream(FileDescriptor.out)), false, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a sink writing to the standard error. The standard error is not closed when the sink is closed.
+   *
+   * @return the new sink
+   */
+  public static ChannelOutputSink stderr() {
+    return new ChannelOutputSink(Channels.newChannel(new FileOutputStream(FileDescriptor.err)), false, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a sink appending to a file. The file is created if it does not exist.
+   *
+   * @param fileName the name of the file
+   * @return the new sink
+   * @throws IOException in case the file cannot be opened
+   */
+  public static ChannelOutputSink file(String fileName) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    return new ChannelOutputSink(channel, true, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a sink writing to a gzip compressed file. An existing file is overwritten, the file is complete once the
+   * sink has been closed.
+   *
+   * @param fileName the name of the file
+   * @return the new sink
+   * @throws IOException in case the file cannot be opened
+   */
+  public static ChannelOutputSink gzipFile(String fileName) throws IOException {
+    GZIPOutputStream stream = new GZIPOutputStream(new FileOutputStream(fileName), DEFAULT_BUFFER_SIZE);
+    return new ChannelOutputSink(Channels.newChannel(stream), true, DEFAULT_BUFFER_SIZE);
+  }
+
+  public synchronized void setFlushPolicy(FlushPolicy flushPolicy) {
+    this.flushPolicy = flushPolicy;
+    scheduleFlush();
+  }
+
+  public synchronized void setFlushEvery(long flushEvery) {
+    this.flushEvery = flushEvery;
+    scheduleFlush();
+  }
+
+  /**
+   * Check regularly whether the time window has passed, if flushed by time window, so that the delay of a row is
+   * bounded even if it is the last one for a while.
+   */
+  private void scheduleFlush() {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+    if (flushPolicy == FlushPolicy.WINDOW && flushEvery > 0 && !closed) {
+      flushTask = FLUSH_TIMER.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          try {
+            flushIfDue();
+          } catch (IOException e) {
+            LOGGER.warn("Unable to flush output: " + e.getMessage());
+          }
+        }
+      }, flushEvery, flushEvery, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Flush if flushed by time window, there is buffered output and the window has passed since the last flush.
+   *
+   * @throws IOException in case the output cannot be written
+   */
+  public synchronized void flushIfDue() throws IOException {
+    if (flushPolicy == FlushPolicy.WINDOW && buffer.position() > 0
+        && System.nanoTime() - lastFlushNanos >= TimeUnit.MILLISECONDS.toNanos(flushEvery)) {
+      flush();
+    }
+  }
+
+  public synchronized void writeLine(CharSequence line) throws IOException {
+    if (closed) {
+      // a late row while shutting down
+      return;
+    }
+    encode(line);
+    encode(LINE_SEPARATOR);
+    afterRow();
+  }
+
+  public synchronized void write(ByteBuffer record) throws IOException {
+    if (closed) {
+      return;
+    }
+    while (record.hasRemaining()) {
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      int limit = record.limit();
+      record.limit(record.position() + Math.min(record.remaining(), buffer.remaining()));
+      buffer.put(record);
+      record.limit(limit);
+    }
+    afterRow();
+  }
+
+  /**
+   * Flush according to the flush policy after a row has been written.
+   *
+   * @throws IOException in case the output cannot be written
+   */
+  private void afterRow() throws IOException {
+    rowsSinceFlush++;
+    switch (flushPolicy) {
+      case ROW:
+        flush();
+        break;
+      case ROWS:
+        if (rowsSinceFlush >= flushEvery) {
+          flush();
+        }
+        break;
+      case WINDOW:
+        if (System.nanoTime() - lastFlushNanos >= TimeUnit.MILLISECONDS.toNanos(flushEvery)) {
+          flush();
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown flush policy " + flushPolicy);
+    }
+  }
+
+  /**
+   * Encode the text into the byte buffer, draining the buffer to the channel whenever it is full.
+   *
+   * @param text the text to encode
+   * @throws IOException in case the buffer cannot be drained
+   */
+  private void encode(CharSequence text) throws IOException {
+    int length = text.length();
+    if (chars.length < length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+      charBuffer = CharBuffer.wrap(chars);
+    }
+    if (text instanceof StringBuilder) {
+      ((StringBuilder) text).getChars(0, length, chars, 0);
+    } else if (text instanceof String) {
+      ((String) text).getChars(0, length, chars, 0);
+    } else {
+      for (int i = 0; i < length; i++) {
+        chars[i] = text.charAt(i);
+      }
+    }
+    charBuffer.clear();
+    charBuffer.limit(length);
+    while (true) {
+      CoderResult result = encoder.encode(charBuffer, buffer, false);
+      if (result.isOverflow()) {
+        drain();
+      } else if (result.isUnderflow()) {
+        break;
+      } else {
+        result.throwException();
+      }
+    }
+  }
+
+  /**
+   * Write the byte buffer to the channel.
+   *
+   * @throws IOException in case the buffer cannot be written
+   */
+  private void drain() throws IOException {
+    buffer.flip();
+    bytesWritten += buffer.remaining();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  public synchronized void flush() throws IOException {
+    if (!closed) {
+      drain();
+      rowsSinceFlush = 0;
+      lastFlushNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * Flush the remaining output. Closing more than once has no effect.
+   *
+   * @throws IOException in case the output cannot be written or the channel cannot be closed
+   */
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      flush();
+      closed = true;
+      if (flushTask != null) {
+        flushTask.cancel(false);
+        flushTask = null;
+      }
+      if (closeChannel) {
+        channel.close();
+      }
+    }
+  }
+}
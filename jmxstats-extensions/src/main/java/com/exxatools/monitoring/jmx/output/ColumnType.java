@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularType;
+
+/**
+ * The type of the values of a column, as told by the metadata of the MBeans before any value has been read. Formats
+ * and calculations can rely on the type of a column instead of looking at each value, apart from <code>null</code>
+ * values which any column may contain. Columns whose type cannot be told up front are {@link #OTHER}.
+ *
+ * @author Malte Franken
+ */
+public enum ColumnType {
+  /**
+   * {@link Long}, {@link Integer}, {@link Short} or {@link Byte} values.
+   */
+  LONG,
+  /**
+   * {@link Double} or {@link Float} values.
+   */
+  DOUBLE,
+  /**
+   * {@link String} values.
+   */
+  STRING,
+  /**
+   * Composite or tabular open data.
+   */
+  COMPOSITE,
+  /**
+   * Values of any other or unknown type.
+   */
+  OTHER;
+
+  /**
+   * Get the type of a column by the class name of its values, as given by the attribute metadata of an MBean.
+   *
+   * @param className the class name, or the name of a primitive type
+   * @return the type, {@link #OTHER} if the class name is unknown
+   */
+  public static ColumnType forClassName(String className) {
+    if ("long".equals(className) || "int".equals(className) || "short".equals(className) || "byte".equals(className)
+        || Long.class.getName().equals(className) || Integer.class.getName().equals(className)
+        || Short.class.getName().equals(className) || Byte.class.getName().equals(className)) {
+      return LONG;
+    }
+    if ("double".equals(className) || "float".equals(className)
+        || Double.class.getName().equals(className) || Float.class.getName().equals(className)) {
+      return DOUBLE;
+    }
+    if (String.class.getName().equals(className)) {
+      return STRING;
+    }
+    if (className != null && className.startsWith("javax.management.openmbean.")
+        && (className.contains("CompositeData") || className.contains("TabularData"))) {
+      return COMPOSITE;
+    }
+    return OTHER;
+  }
+
+  /**
+   * Get the type of a column by the open type of its values.
+   *
+   * @param openType the open type, or <code>null</code> if unknown
+   * @return the type, {@link #OTHER} if the open type is unknown
+   */
+  public static ColumnType forOpenType(OpenType<?> openType) {
+    if (openType instanceof SimpleType) {
+      return forClassName(openType.getClassName());
+    }
+    if (openType instanceof CompositeType || openType instanceof TabularType) {
+      return COMPOSITE;
+    }
+    return OTHER;
+  }
+
+  /**
+   * Combine the types of the same column of two MBeans.
+   *
+   * @param other the type of the column of the other MBean
+   * @return this type if both are the same, {@link #OTHER} otherwise
+   */
+  public ColumnType merge(ColumnType other) {
+    return this == other ? this : OTHER;
+  }
+}
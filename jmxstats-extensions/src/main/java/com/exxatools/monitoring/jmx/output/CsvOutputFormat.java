@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+/**
+ * Outputs comma-separated values as described in RFC 4180. Cells containing commas, quotes or line breaks are
+ * surrounded by quotes, quotes within are doubled.
+ *
+ * @author Malte Franken
+ */
+public class CsvOutputFormat extends DelimitedOutputFormat {
+
+  private static final String SEPARATOR_CHAR = ",";
+
+  public CsvOutputFormat() {
+    super(SEPARATOR_CHAR);
+  }
+
+  protected void appendCell(StringBuilder line, String cell) {
+    boolean quote = false;
+    for (int i = 0; i < cell.length() && !quote; i++) {
+      char c = cell.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (quote) {
+      line.append('"');
+      for (int i = 0; i < cell.length(); i++) {
+        char c = cell.charAt(i);
+        if (c == '"') {
+          line.append('"');
+        }
+        line.append(c);
+      }
+      line.append('"');
+    } else {
+      line.append(cell);
+    }
+  }
+}
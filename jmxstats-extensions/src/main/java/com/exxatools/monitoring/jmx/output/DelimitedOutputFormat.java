@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import com.exxatools.monitoring.jmx.converters.AppendingConverter;
+import com.exxatools.monitoring.jmx.converters.Converter;
+
+import java.io.IOException;
+
+/**
+ * Outputs one line per row with the cells separated by a separator. Each line is built in a reused
+ * {@link StringBuilder}. Numbers never need quoting, so they are appended directly if the converter supports it.
+ *
+ * @author Malte Franken
+ */
+public abstract class DelimitedOutputFormat implements OutputFormat {
+
+  private final String separator;
+
+  private final StringBuilder line = new StringBuilder();
+
+  private Converter<Object> converter;
+
+  protected DelimitedOutputFormat(String separator) {
+    this.separator = separator;
+  }
+
+  public void setConverter(Converter<Object> converter) {
+    this.converter = converter;
+  }
+
+  public synchronized void writeHeader(String[] columns, OutputSink sink) throws IOException {
+    line.setLength(0);
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        line.append(separator);
+      }
+      appendCell(line, columns[i]);
+    }
+    sink.writeLine(line);
+  }
+
+  public synchronized void writeRow(String[] columns, Object[] cells, OutputSink sink) throws IOException {
+    line.setLength(0);
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        line.append(separator);
+      }
+      Object cell = cells[i];
+      if (cell instanceof Number && converter instanceof AppendingConverter) {
+        ((AppendingConverter<Object>) converter).append(cell, line);
+      } else {
+        appendCell(line, converter.convert(cell));
+      }
+    }
+    sink.writeLine(line);
+  }
+
+  public void finish(OutputSink sink) {
+    // rows are never held back
+  }
+
+  /**
+   * Append a single cell to the line.
+   *
+   * @param line the line to append to
+   * @param cell the converted cell value
+   */
+  protected abstract void appendCell(StringBuilder line, String cell);
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+/**
+ * Determines when an {@link OutputSink} passes its buffered output on.
+ *
+ * @author Malte Franken
+ */
+public enum FlushPolicy {
+  /**
+   * Flush after each row.
+   */
+  ROW,
+  /**
+   * Flush after a number of rows.
+   */
+  ROWS,
+  /**
+   * Flush once a time window in milliseconds has passed since the last flush. Checked when a row is written, and
+   * regularly in the background so that buffered rows are not held back while no more rows arrive.
+   */
+  WINDOW
+}
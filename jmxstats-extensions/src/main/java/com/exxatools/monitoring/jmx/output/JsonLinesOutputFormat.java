@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import com.exxatools.monitoring.jmx.converters.Converter;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Outputs one JSON object per row and line, keyed by column name. Numbers and booleans are written as JSON numbers
+ * and booleans, <code>null</code> as JSON null, everything else is converted into a JSON string. No header is
+ * written, each line describes itself. Cells of columns known to hold longs skip the checks for the other classes,
+ * a cell that does not match the type of its column is written by its value as usual.
+ *
+ * @author Malte Franken
+ */
+public class JsonLinesOutputFormat implements TypedOutputFormat {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final StringBuilder line = new StringBuilder();
+
+  private Converter<Object> converter;
+
+  /**
+   * The types of the columns whose types are known up front, by the columns array of their schema.
+   */
+  private final Map<String[], ColumnType[]> columnTypes = new IdentityHashMap<String[], ColumnType[]>();
+
+  public void setConverter(Converter<Object> converter) {
+    this.converter = converter;
+  }
+
+  public synchronized void setColumnTypes(String[] columns, ColumnType[] types) {
+    columnTypes.put(columns, types);
+  }
+
+  public void writeHeader(String[] columns, OutputSink sink) {
+    // each row contains the column names
+  }
+
+  public synchronized void writeRow(String[] columns, Object[] cells, OutputSink sink) throws IOException {
+    line.setLength(0);
+    line.append('{');
+    ColumnType[] types = columnTypes.get(columns);
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        line.append(',');
+      }
+      appendString(line, columns[i]);
+      line.append(':');
+      Object cell = cells[i];
+      if (types != null && types[i] == ColumnType.LONG && cell instanceof Long) {
+        line.append(((Long) cell).longValue());
+      } else {
+        appendValue(line, cell);
+      }
+    }
+    line.append('}');
+    sink.writeLine(line);
+  }
+
+  public void finish(OutputSink sink) {
+    // rows are never held back
+  }
+
+  /**
+   * Append a value in its JSON representation.
+   *
+   * @param line the line to append to
+   * @param value the value to append
+   */
+  protected void appendValue(StringBuilder line, Object value) {
+    if (value == null) {
+      line.append("null");
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      line.append(((Number) value).longValue());
+    } else if ((value instanceof Double || value instanceof Float) && !isNonFinite(((Number) value).doubleValue())) {
+      line.append(((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      line.append(((Boolean) value).booleanValue());
+    } else {
+      appendString(line, converter.convert(value));
+    }
+  }
+
+  private static boolean isNonFinite(double value) {
+    return Double.isNaN(value) || Double.isInfinite(value);
+  }
+
+  /**
+   * Append a string as a quoted and escaped JSON string.
+   *
+   * @param line the line to append to
+   * @param value the string to append
+   */
+  public static void appendString(StringBuilder line, String value) {
+    line.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          line.append("\\\"");
+          break;
+        case '\\':
+          line.append("\\\\");
+          break;
+        case '\n':
+          line.append("\\n");
+          break;
+        case '\r':
+          line.append("\\r");
+          break;
+        case '\t':
+          line.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            line.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+          } else {
+            line.append(c);
+          }
+      }
+    }
+    line.append('"');
+  }
+}
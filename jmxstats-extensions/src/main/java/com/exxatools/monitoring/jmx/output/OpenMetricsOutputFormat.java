@@ -0,0 +1,410 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import com.exxatools.monitoring.jmx.converters.Converter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest value of each numeric cell and serves them over HTTP in the OpenMetrics text format, to be scraped
+ * by a metrics stack. Each column becomes a gauge named <code>jmx_</code> followed by the column name, the target and
+ * object name columns become labels, the time columns are left out.
+ * <p>
+ * Rows only update the values of existing series, a scrape just reads them: scrapes never cause a JMX round trip and
+ * never block the sampling threads. Series that have not been updated for {@link #staleMilliseconds} are dropped, e.g.
+ * after their MBean has been unregistered. Rows can additionally be passed on to another format.
+ *
+ * @author Malte Franken
+ */
+public class OpenMetricsOutputFormat implements TypedOutputFormat {
+  private final static Logger LOGGER = LoggerFactory.getLogger(OpenMetricsOutputFormat.class);
+
+  /**
+   * The content type of the OpenMetrics text format.
+   */
+  public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  /**
+   * The path the metrics are served at.
+   */
+  public static final String PATH = "/metrics";
+
+  /**
+   * The default time after which series that have not been updated are dropped, in milliseconds.
+   */
+  public static final long DEFAULT_STALE_MILLISECONDS = 60000;
+
+  private static final String METRIC_PREFIX = "jmx_";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The format to pass the rows on to, <code>null</code> if the rows are only exported.
+   */
+  private final OutputFormat delegate;
+
+  /**
+   * The layout of each set of columns, keyed by the column array itself.
+   */
+  private final ConcurrentMap<String[], RowLayout> layouts = new ConcurrentHashMap<String[], RowLayout>();
+
+  /**
+   * The series of each row, keyed by target and object name.
+   */
+  private final ConcurrentMap<String, Row> rows = new ConcurrentHashMap<String, Row>();
+
+  private long staleMilliseconds = DEFAULT_STALE_MILLISECONDS;
+
+  private HttpServer server;
+
+  private ExecutorService executor;
+
+  /**
+   * @param delegate the format to pass the rows on to, or <code>null</code> to only export them
+   */
+  public OpenMetricsOutputFormat(OutputFormat delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setStaleMilliseconds(long staleMilliseconds) {
+    this.staleMilliseconds = staleMilliseconds;
+  }
+
+  public void setConverter(Converter<Object> converter) {
+    if (delegate != null) {
+      delegate.setConverter(converter);
+    }
+  }
+
+  /**
+   * Start serving the metrics.
+   *
+   * @param address the address to listen on
+   * @throws IOException in case the server cannot be started
+   */
+  public synchronized void start(InetSocketAddress address) throws IOException {
+    server = HttpServer.create(address, 0);
+    server.createContext(PATH, new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "metrics-http");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+    LOGGER.info("Serving metrics at " + server.getAddress() + PATH);
+  }
+
+  public InetSocketAddress getAddress() {
+    return server != null ? server.getAddress() : null;
+  }
+
+  public void setColumnTypes(String[] columns, ColumnType[] types) {
+    if (delegate instanceof TypedOutputFormat) {
+      ((TypedOutputFormat) delegate).setColumnTypes(columns, types);
+    }
+  }
+
+  public void writeHeader(String[] columns, OutputSink sink) throws IOException {
+    if (delegate != null) {
+      delegate.writeHeader(columns, sink);
+    }
+  }
+
+  public void writeRow(String[] columns, Object[] cells, OutputSink sink) throws IOException {
+    RowLayout layout = layouts.get(columns);
+    if (layout == null) {
+      layout = new RowLayout(columns);
+      RowLayout existing = layouts.putIfAbsent(columns, layout);
+      if (existing != null) {
+        layout = existing;
+      }
+    }
+    String target = layout.target >= 0 && cells[layout.target] != null ? cells[layout.target].toString() : "";
+    String objectName = layout.objectName >= 0 && cells[layout.objectName] != null ? cells[layout.objectName].toString() : "";
+    String rowKey = target + '\n' + objectName;
+    Row row = rows.get(rowKey);
+    while (row == null || !row.layout.hasMetrics(layout)) {
+      // a new row, or the attributes of the MBean have changed since its series were created
+      Row created = new Row(layout, layout.createSeries(target, objectName));
+      if (row == null ? rows.putIfAbsent(rowKey, created) == null : rows.replace(rowKey, row, created)) {
+        row = created;
+      } else {
+        row = rows.get(rowKey);
+      }
+    }
+    Series[] series = row.series;
+    long now = System.nanoTime();
+    for (int i = 0; i < series.length; i++) {
+      Object cell = cells[layout.metrics[i]];
+      if (cell instanceof Number) {
+        series[i].update(((Number) cell).doubleValue(), now);
+      } else if (cell instanceof Boolean) {
+        series[i].update(((Boolean) cell) ? 1 : 0, now);
+      }
+    }
+    if (delegate != null) {
+      delegate.writeRow(columns, cells, sink);
+    }
+  }
+
+  public synchronized void finish(OutputSink sink) throws IOException {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+    if (delegate != null) {
+      delegate.finish(sink);
+    }
+  }
+
+  /**
+   * Answer a scrape with the current values.
+   *
+   * @param exchange the HTTP request and response
+   * @throws IOException in case the response cannot be sent
+   */
+  private void serve(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = render().getBytes(UTF8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      if ("HEAD".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Render the current values in the OpenMetrics text format. All samples of a metric are grouped below its type.
+   *
+   * @return the metrics
+   */
+  protected String render() {
+    long staleBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(staleMilliseconds);
+    Map<String, StringBuilder> families = new TreeMap<String, StringBuilder>();
+    for (Map.Entry<String, Row> row : rows.entrySet()) {
+      Series[] rowSeries = row.getValue().series;
+      boolean current = false;
+      for (Series series : rowSeries) {
+        long updated = series.updated;
+        if (updated == 0 || updated - staleBefore < 0) {
+          continue;
+        }
+        current = true;
+        StringBuilder family = families.get(series.name);
+        if (family == null) {
+          family = new StringBuilder();
+          family.append("# TYPE ").append(series.name).append(" gauge\n");
+          families.put(series.name, family);
+        }
+        family.append(series.name).append(series.labels).append(' ');
+        appendValue(family, series.value);
+        family.append('\n');
+      }
+      if (!current && rowSeries.length > 0 && rowSeries[0].updated != 0) {
+        // the MBean or target has gone away
+        rows.remove(row.getKey(), row.getValue());
+      }
+    }
+    StringBuilder metrics = new StringBuilder();
+    for (StringBuilder family : families.values()) {
+      metrics.append(family);
+    }
+    metrics.append("# EOF\n");
+    return metrics.toString();
+  }
+
+  private static void appendValue(StringBuilder builder, double value) {
+    if (Double.isNaN(value)) {
+      builder.append("NaN");
+    } else if (Double.isInfinite(value)) {
+      builder.append(value > 0 ? "+Inf" : "-Inf");
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      builder.append((long) value);
+    } else {
+      builder.append(value);
+    }
+  }
+
+  /**
+   * Turn a column name into a metric name, e.g. <code>rate(CollectionCount)</code> into
+   * <code>jmx_rate_CollectionCount</code>.
+   *
+   * @param column the column name
+   * @return the metric name
+   */
+  protected static String getMetricName(String column) {
+    StringBuilder name = new StringBuilder(METRIC_PREFIX);
+    for (int i = 0; i < column.length(); i++) {
+      char c = column.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+      if (valid) {
+        name.append(c);
+      } else if (name.charAt(name.length() - 1) != '_') {
+        name.append('_');
+      }
+    }
+    while (name.charAt(name.length() - 1) == '_' && name.length() > METRIC_PREFIX.length()) {
+      name.setLength(name.length() - 1);
+    }
+    return name.toString();
+  }
+
+  private static void appendLabel(StringBuilder labels, String name, String value) {
+    labels.append(labels.length() == 0 ? "{" : ",").append(name).append("=\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' || c == '"') {
+        labels.append('\\').append(c);
+      } else if (c == '\n') {
+        labels.append("\\n");
+      } else {
+        labels.append(c);
+      }
+    }
+    labels.append('"');
+  }
+
+  /**
+   * Where the label and metric cells are within a set of columns.
+   */
+  private static class RowLayout {
+    private int target = -1;
+    private int objectName = -1;
+    private final int[] metrics;
+    private final String[] metricNames;
+
+    private RowLayout(String[] columns) {
+      int[] metrics = new int[columns.length];
+      int count = 0;
+      for (int i = 0; i < columns.length; i++) {
+        if ("target".equals(columns[i])) {
+          target = i;
+        } else if ("objectName".equals(columns[i])) {
+          objectName = i;
+        } else if (!"time".equals(columns[i]) && !"time_ns".equals(columns[i])) {
+          metrics[count++] = i;
+        }
+      }
+      this.metrics = new int[count];
+      this.metricNames = new String[count];
+      for (int i = 0; i < count; i++) {
+        this.metrics[i] = metrics[i];
+        this.metricNames[i] = getMetricName(columns[metrics[i]]);
+      }
+    }
+
+    /**
+     * Determine whether series created for this layout can take the cells of another layout, which is the case if
+     * both have the same metrics in the same order.
+     *
+     * @param other the other layout
+     * @return <code>true</code> if the layouts have the same metrics
+     */
+    private boolean hasMetrics(RowLayout other) {
+      return other == this || Arrays.equals(metricNames, other.metricNames);
+    }
+
+    private Series[] createSeries(String target, String objectName) {
+      StringBuilder labels = new StringBuilder();
+      if (target.length() > 0) {
+        appendLabel(labels, "target", target);
+      }
+      if (objectName.length() > 0) {
+        appendLabel(labels, "mbean", objectName);
+      }
+      if (labels.length() > 0) {
+        labels.append('}');
+      }
+      Series[] series = new Series[metrics.length];
+      for (int i = 0; i < series.length; i++) {
+        series[i] = new Series(metricNames[i], labels.toString());
+      }
+      return series;
+    }
+  }
+
+  /**
+   * The series of a target and MBean, together with the layout they have been created for.
+   */
+  private static class Row {
+    private final RowLayout layout;
+    private final Series[] series;
+
+    private Row(RowLayout layout, Series[] series) {
+      this.layout = layout;
+      this.series = series;
+    }
+  }
+
+  /**
+   * The latest value of a single metric and label set. Written by the sampling threads, read by the scrapes.
+   */
+  private static class Series {
+    private final String name;
+    private final String labels;
+    private volatile double value;
+    private volatile long updated;
+
+    private Series(String name, String labels) {
+      this.name = name;
+      this.labels = labels;
+    }
+
+    private void update(double value, long now) {
+      this.value = value;
+      // written last, so that a scrape seeing the update also sees the value
+      this.updated = now == 0 ? 1 : now;
+    }
+  }
+}
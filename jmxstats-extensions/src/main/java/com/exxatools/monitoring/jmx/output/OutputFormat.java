@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import com.exxatools.monitoring.jmx.converters.Converter;
+
+import java.io.IOException;
+
+/**
+ * Formats the statistics header and rows for an {@link OutputSink}. A format may be shared by several threads and
+ * several sets of columns, so every row is passed together with its column names.
+ *
+ * @author Malte Franken
+ */
+public interface OutputFormat {
+  /**
+   * Set the converter used for values the format has no native representation for.
+   *
+   * @param converter the attribute value converter
+   */
+  void setConverter(Converter<Object> converter);
+
+  /**
+   * Write the header.
+   *
+   * @param columns the column names
+   * @param sink the sink to write to
+   * @throws IOException in case the header cannot be written
+   */
+  void writeHeader(String[] columns, OutputSink sink) throws IOException;
+
+  /**
+   * Write a row. The cells may be reused by the caller once the method returns.
+   *
+   * @param columns the column names, the same array as passed to {@link #writeHeader(String[], OutputSink)}
+   * @param cells the values of the row, one per column
+   * @param sink the sink to write to
+   * @throws IOException in case the row cannot be written
+   */
+  void writeRow(String[] columns, Object[] cells, OutputSink sink) throws IOException;
+
+  /**
+   * Write any rows the format has held back.
+   *
+   * @param sink the sink to write to
+   * @throws IOException in case the rows cannot be written
+   */
+  void finish(OutputSink sink) throws IOException;
+}
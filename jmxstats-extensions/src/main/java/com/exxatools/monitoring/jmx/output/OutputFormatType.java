@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+/**
+ * The available output formats.
+ *
+ * @author Malte Franken
+ */
+public enum OutputFormatType {
+  /**
+   * Tab-separated text, the default.
+   */
+  TEXT {
+    public OutputFormat create() {
+      return new TextOutputFormat();
+    }
+  },
+  /**
+   * Comma-separated values.
+   */
+  CSV {
+    public OutputFormat create() {
+      return new CsvOutputFormat();
+    }
+  },
+  /**
+   * One JSON object per line.
+   */
+  JSON {
+    public OutputFormat create() {
+      return new JsonLinesOutputFormat();
+    }
+  },
+  /**
+   * Compact binary columnar format.
+   */
+  BINARY {
+    public OutputFormat create() {
+      return new BinaryOutputFormat();
+    }
+  };
+
+  /**
+   * Create a new instance of the format.
+   *
+   * @return the new format
+   */
+  public abstract OutputFormat create();
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The destination of the statistics output. Implementations must be safe to be used by several threads at the same
+ * time, each row is written as a whole.
+ *
+ * @author Malte Franken
+ */
+public interface OutputSink extends Flushable, Closeable {
+  /**
+   * Write a line. A line separator is appended.
+   *
+   * @param line the line to write, without line separator
+   * @throws IOException in case the line cannot be written
+   */
+  void writeLine(CharSequence line) throws IOException;
+
+  /**
+   * Write a binary record as is.
+   *
+   * @param record the bytes between position and limit are written
+   * @throws IOException in case the record cannot be written
+   */
+  void write(ByteBuffer record) throws IOException;
+
+  /**
+   * Get the number of bytes written so far.
+   *
+   * @return the number of bytes passed on to the underlying channel or file
+   */
+  long getBytesWritten();
+}
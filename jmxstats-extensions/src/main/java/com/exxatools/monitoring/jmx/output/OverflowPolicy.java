@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+/**
+ * Determines what a {@link PipelinedOutputFormat} does with a row when its queue is full.
+ *
+ * @author Malte Franken
+ */
+public enum OverflowPolicy {
+  /**
+   * Drop the oldest row waiting in the queue to make room for the new row.
+   */
+  DROP_OLDEST,
+  /**
+   * Drop the new row.
+   */
+  DROP_NEWEST,
+  /**
+   * Wait until there is room for the new row, which holds up sampling.
+   */
+  BLOCK
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import com.exxatools.monitoring.jmx.BoundedQueue;
+import com.exxatools.monitoring.jmx.converters.Converter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples the output from sampling: rows are copied into a bounded queue and written to the sink by another format
+ * on a thread of their own, so that a slow consumer of the output does not delay the samples. What happens to a row
+ * when the queue is full is up to the {@link OverflowPolicy}, a header always waits for room and is never dropped to
+ * make room for a row. The row copies are recycled through a second queue, so that passing a row on does not allocate
+ * once the queue has been filled. Until started and once finished, rows are written right away.
+ *
+ * @author Malte Franken
+ */
+public class PipelinedOutputFormat implements TypedOutputFormat {
+  private final static Logger LOGGER = LoggerFactory.getLogger(PipelinedOutputFormat.class);
+
+  /**
+   * The default maximum number of rows waiting to be written.
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * How long to wait for room in the queue before looking again. In nanoseconds.
+   */
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /**
+   * How long the idle writer waits for rows before looking again, in nanoseconds. Queuing a row or finishing wakes it
+   * up right away, this only bounds the wait should a wake-up ever get lost.
+   */
+  private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * How long to wait for the queued rows to be written when finishing. In milliseconds.
+   */
+  private static final long FINISH_TIMEOUT = 5000;
+
+  /**
+   * The format writing the rows to the sink.
+   */
+  private final OutputFormat delegate;
+
+  private final OverflowPolicy overflowPolicy;
+
+  /**
+   * The rows waiting to be written.
+   */
+  private final BoundedQueue<Row> queue;
+
+  /**
+   * Written rows, ready to be reused.
+   */
+  private final BoundedQueue<Row> freeRows;
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * The number of headers waiting to be written. While there are any, rows are not dropped from the head of the queue.
+   */
+  private final AtomicInteger queuedHeaders = new AtomicInteger();
+
+  /**
+   * The thread writing the rows, <code>null</code> until started.
+   */
+  private volatile Thread writer;
+
+  private volatile boolean started;
+
+  /**
+   * @param delegate the format writing the rows to the sink
+   * @param capacity the maximum number of rows waiting to be written
+   * @param overflowPolicy what to do with a row when the queue is full
+   */
+  public PipelinedOutputFormat(OutputFormat delegate, int capacity, OverflowPolicy overflowPolicy) {
+    this.delegate = delegate;
+    this.overflowPolicy = overflowPolicy;
+    this.queue = new BoundedQueue<Row>(capacity);
+    this.freeRows = new BoundedQueue<Row>(capacity);
+  }
+
+  public void setConverter(Converter<Object> converter) {
+    delegate.setConverter(converter);
+  }
+
+  public void setColumnTypes(String[] columns, ColumnType[] types) {
+    if (delegate instanceof TypedOutputFormat) {
+      ((TypedOutputFormat) delegate).setColumnTypes(columns, types);
+    }
+  }
+
+  /**
+   * Start the thread writing the rows.
+   */
+  public synchronized void start() {
+    if (writer != null) {
+      return;
+    }
+    started = true;
+    writer = new Thread("output") {
+      @Override
+      public void run() {
+        drain();
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Get the number of rows waiting to be written.
+   *
+   * @return the approximate queue depth
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Get the number of rows dropped as the queue was full.
+   *
+   * @return the number of dropped rows
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Get the number of rows the other format failed to write.
+   *
+   * @return the number of failed rows
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public void writeHeader(String[] columns, OutputSink sink) throws IOException {
+    if (writer == null) {
+      delegate.writeHeader(columns, sink);
+      return;
+    }
+    enqueue(getRow(columns, null, sink), OverflowPolicy.BLOCK);
+  }
+
+  public void writeRow(String[] columns, Object[] cells, OutputSink sink) throws IOException {
+    if (writer == null) {
+      delegate.writeRow(columns, cells, sink);
+      return;
+    }
+    enqueue(getRow(columns, cells, sink), overflowPolicy);
+  }
+
+  /**
+   * Wait until the queued rows have been written, stop the writing thread and let the other format write the rows it
+   * has held back.
+   *
+   * @param sink the sink to write to
+   * @throws IOException in case the rows cannot be written
+   */
+  public void finish(OutputSink sink) throws IOException {
+    Thread writer;
+    synchronized (this) {
+      writer = this.writer;
+      this.writer = null;
+    }
+    if (writer != null) {
+      started = false;
+      LockSupport.unpark(writer);
+      try {
+        writer.join(FINISH_TIMEOUT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (writer.isAlive()) {
+        LOGGER.warn("Output still busy, " + queue.size() + " rows not written");
+      }
+    }
+    if (dropped.get() > 0 || failed.get() > 0) {
+      LOGGER.info("Dropped " + dropped.get() + " rows as the output queue was full, " + failed.get() + " rows failed");
+    }
+    delegate.finish(sink);
+  }
+
+  /**
+   * Copy a row, reusing a written row if there is one.
+   *
+   * @param columns the column names
+   * @param cells the values of the row, <code>null</code> for a header
+   * @param sink the sink to write to
+   * @return the copy
+   */
+  private Row getRow(String[] columns, Object[] cells, OutputSink sink) {
+    Row row = freeRows.poll();
+    if (row == null) {
+      row = new Row();
+    }
+    row.columns = columns;
+    row.sink = sink;
+    row.header = cells == null;
+    if (cells != null) {
+      if (row.cells == null || row.cells.length != cells.length) {
+        row.cells = new Object[cells.length];
+      }
+      System.arraycopy(cells, 0, row.cells, 0, cells.length);
+    }
+    return row;
+  }
+
+  /**
+   * Pass a row on to the writing thread.
+   *
+   * @param row the row
+   * @param policy what to do if the queue is full
+   */
+  private void enqueue(Row row, OverflowPolicy policy) {
+    if (row.header) {
+      // counted before offering, so that the header is never taken for the oldest row to drop
+      queuedHeaders.incrementAndGet();
+    }
+    while (!queue.offer(row)) {
+      // while a header is queued the oldest row may be the header, so the newest row is dropped instead
+      if (policy == OverflowPolicy.DROP_NEWEST || (policy == OverflowPolicy.DROP_OLDEST && queuedHeaders.get() > 0)) {
+        dropped.incrementAndGet();
+        recycle(row);
+        return;
+      } else if (policy == OverflowPolicy.DROP_OLDEST) {
+        Row oldest = queue.poll();
+        if (oldest != null) {
+          dropped.incrementAndGet();
+          recycle(oldest);
+        }
+      } else if (writer == null) {
+        // finished meanwhile, nobody is going to make room
+        write(row);
+        return;
+      } else {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+    }
+    LockSupport.unpark(writer);
+  }
+
+  /**
+   * Write the queued rows until finished, then write the rows still queued.
+   */
+  private void drain() {
+    while (started) {
+      Row row = queue.poll();
+      if (row != null) {
+        write(row);
+      } else {
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+      }
+    }
+    Row row;
+    while ((row = queue.poll()) != null) {
+      write(row);
+    }
+  }
+
+  /**
+   * Write a row with the other format and recycle it.
+   *
+   * @param row the row
+   */
+  private void write(Row row) {
+    try {
+      if (row.header) {
+        queuedHeaders.decrementAndGet();
+        delegate.writeHeader(row.columns, row.sink);
+      } else {
+        delegate.writeRow(row.columns, row.cells, row.sink);
+      }
+    } catch (IOException e) {
+      if (failed.getAndIncrement() == 0) {
+        LOGGER.error("Unable to write output", e);
+      }
+    } finally {
+      recycle(row);
+    }
+  }
+
+  private void recycle(Row row) {
+    row.columns = null;
+    row.sink = null;
+    if (row.cells != null) {
+      Arrays.fill(row.cells, null);
+    }
+    freeRows.offer(row);
+  }
+
+  /**
+   * A copy of a row waiting to be written.
+   */
+  private static class Row {
+    private String[] columns;
+    private Object[] cells;
+    private OutputSink sink;
+    private boolean header;
+  }
+}
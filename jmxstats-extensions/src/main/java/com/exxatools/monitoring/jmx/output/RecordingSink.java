@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the output of the {@link BinaryOutputFormat} into memory-mapped segment files of a fixed size. When a
+ * record does not fit into the current segment anymore, a new segment is started and the oldest segments are
+ * deleted so that at most {@link #maxSegments} remain. Each segment starts with all header records written so far,
+ * so that every segment can be read on its own.
+ * <p>
+ * A segment consists of the {@link #MAGIC} bytes, a 32 bit version, the 64 bit number of bytes used in the segment
+ * including this preamble, and then the records.
+ *
+ * @author Malte Franken
+ */
+public class RecordingSink implements OutputSink {
+  private final static Logger LOGGER = LoggerFactory.getLogger(RecordingSink.class);
+
+  /**
+   * Identifies a segment file.
+   */
+  public static final byte[] MAGIC = {'J', 'M', 'X', 'R'};
+
+  public static final int VERSION = 1;
+
+  /**
+   * The size of the segment preamble in bytes.
+   */
+  public static final int PREAMBLE_SIZE = 16;
+
+  /**
+   * The position of the number of bytes used within the preamble.
+   */
+  public static final int USED_POSITION = 8;
+
+  public static final String SEGMENT_PREFIX = "recording-";
+  public static final String SEGMENT_SUFFIX = ".seg";
+
+  /**
+   * The default size of a segment in bytes.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * The default number of segments to keep.
+   */
+  public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+  /**
+   * The directory to write the segments to.
+   */
+  private final File directory;
+
+  private final int segmentSize;
+
+  private final int maxSegments;
+
+  /**
+   * All header records written so far, repeated at the start of each segment.
+   */
+  private final List<byte[]> headers = new ArrayList<byte[]>();
+
+  /**
+   * The sequence number of the current segment.
+   */
+  private long sequence;
+
+  /**
+   * The current segment.
+   */
+  private MappedByteBuffer segment;
+
+  private volatile long bytesWritten;
+
+  private boolean closed = false;
+
+  public RecordingSink(File directory, int segmentSize, int maxSegments) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create recording directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    File[] segments = listSegments(directory);
+    this.sequence = segments.length > 0 ? getSequence(segments[segments.length - 1]) : 0;
+  }
+
+  /**
+   * List the segment files of a recording, oldest first.
+   *
+   * @param directory the recording directory
+   * @return the segment files
+   */
+  public static File[] listSegments(File directory) {
+    File[] segments = directory.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (segments == null) {
+      return new File[0];
+    }
+    // the sequence number is zero-padded, so that the names sort by age
+    Arrays.sort(segments);
+    return segments;
+  }
+
+  private static long getSequence(File segment) {
+    String name = segment.getName();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  public void writeLine(CharSequence line) throws IOException {
+    throw new IOException("Recordings only support the binary format");
+  }
+
+  public synchronized void write(ByteBuffer record) throws IOException {
+    if (closed) {
+      return;
+    }
+    if (record.remaining() > segmentSize - PREAMBLE_SIZE) {
+      throw new IOException("Record of " + record.remaining() + " bytes does not fit into a segment");
+    }
+    if (segment == null || segment.remaining() < record.remaining()) {
+      startSegment();
+    }
+    if (record.remaining() > 4 && record.get(record.position() + 4) == BinaryOutputFormat.RECORD_HEADER) {
+      byte[] header = new byte[record.remaining()];
+      record.duplicate().get(header);
+      headers.add(header);
+    }
+    bytesWritten += record.remaining();
+    segment.put(record);
+    segment.putLong(USED_POSITION, segment.position());
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * Start a new segment, repeat all headers at its start and delete the segments beyond retention.
+   *
+   * @throws IOException in case the segment cannot be created
+   */
+  private void startSegment() throws IOException {
+    if (segment != null) {
+      segment.force();
+    }
+    File file = new File(directory, String.format("%s%012d%s", SEGMENT_PREFIX, ++sequence, SEGMENT_SUFFIX));
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      // the mapping stays valid after the channel has been closed
+      segment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    } finally {
+      randomAccessFile.close();
+    }
+    segment.put(MAGIC);
+    segment.putInt(VERSION);
+    segment.putLong(PREAMBLE_SIZE);
+    for (byte[] header : headers) {
+      if (segment.remaining() < header.length) {
+        throw new IOException("Headers do not fit into a segment");
+      }
+      segment.put(header);
+    }
+    segment.putLong(USED_POSITION, segment.position());
+    LOGGER.info("Started recording segment " + file);
+
+    File[] segments = listSegments(directory);
+    for (int i = 0; i < segments.length - maxSegments; i++) {
+      if (segments[i].delete()) {
+        LOGGER.info("Deleted recording segment " + segments[i]);
+      } else {
+        LOGGER.warn("Unable to delete recording segment " + segments[i]);
+      }
+    }
+  }
+
+  /**
+   * The segment is shared with the operating system as it is written, there is nothing to pass on.
+   */
+  public void flush() {
+  }
+
+  /**
+   * Write the current segment to disk. Closing more than once has no effect.
+   */
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      if (segment != null) {
+        segment.force();
+        segment = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+/**
+ * The default format, outputs the cells separated by tabs without any quoting.
+ *
+ * @author Malte Franken
+ */
+public class TextOutputFormat extends DelimitedOutputFormat {
+
+  private static final String SEPARATOR_CHAR = "\t";
+
+  public TextOutputFormat() {
+    super(SEPARATOR_CHAR);
+  }
+
+  protected void appendCell(StringBuilder line, String cell) {
+    line.append(cell);
+  }
+}
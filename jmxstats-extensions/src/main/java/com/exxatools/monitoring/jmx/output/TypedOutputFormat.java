@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+/**
+ * A format that can specialize on the type of each column, if the types are known up front.
+ *
+ * @author Malte Franken
+ */
+public interface TypedOutputFormat extends OutputFormat {
+  /**
+   * Set the type of each column. May be called again with other types for the same columns, the new types apply
+   * to the rows not written yet.
+   *
+   * @param columns the column names, the same array as passed to {@link #writeRow(String[], Object[], OutputSink)}
+   * @param types the type of each column
+   */
+  void setColumnTypes(String[] columns, ColumnType[] types);
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import com.exxatools.monitoring.jmx.converters.Converter;
+import com.exxatools.monitoring.jmx.converters.DelegatingConverter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Writes rows with the binary format and reads them back with the {@link BinaryFormatReader}.
+ *
+ * @author Malte Franken
+ */
+public class BinaryOutputFormatTest {
+
+  private static final String[] COLUMNS = {"time", "objectName", "HeapUsed", "Load"};
+
+  private ByteArrayOutputStream bytes;
+
+  private ChannelOutputSink sink;
+
+  private BinaryOutputFormat format;
+
+  @Before
+  public void setUp() {
+    bytes = new ByteArrayOutputStream();
+    sink = new ChannelOutputSink(Channels.newChannel(bytes), false, 1024);
+    DelegatingConverter converter = new DelegatingConverter();
+    converter.setConverters(Collections.<Converter>emptyList());
+    format = new BinaryOutputFormat();
+    format.setConverter(converter);
+  }
+
+  @Test
+  public void readsNullsAndNegativeDeltas() throws Exception {
+    Object[][] rows = {
+        {1000L, "java.lang:type=Memory", 42L, null},
+        {2000L, null, -7L, null},
+        {3000L, "java.lang:type=Memory", null, null},
+        {4000L, "java.lang:type=Memory", Long.MAX_VALUE, null},
+        {5000L, "java.lang:type=Memory", Long.MIN_VALUE, null},
+        {3500L, "", 0L, null}
+    };
+    for (Object[] row : rows) {
+      format.writeRow(COLUMNS, row, sink);
+    }
+    format.finish(sink);
+
+    assertArrayEquals(rows, read(COLUMNS).toArray());
+  }
+
+  @Test
+  public void readsMixedNumbersAsDoubles() throws Exception {
+    format.writeRow(COLUMNS, new Object[]{1000L, "a:b=c", 1, 0.5}, sink);
+    format.writeRow(COLUMNS, new Object[]{2000L, "a:b=c", 2.5, 3L}, sink);
+    format.writeRow(COLUMNS, new Object[]{3000L, "a:b=c", (short) -3, Float.valueOf(1.25f)}, sink);
+    format.finish(sink);
+
+    assertArrayEquals(new Object[][]{
+        {1000L, "a:b=c", 1.0, 0.5},
+        {2000L, "a:b=c", 2.5, 3.0},
+        {3000L, "a:b=c", -3.0, 1.25}
+    }, read(COLUMNS).toArray());
+  }
+
+  @Test
+  public void keepsValuesNotMatchingTheKnownType() throws Exception {
+    format.setColumnTypes(COLUMNS, new ColumnType[]{ColumnType.LONG, ColumnType.STRING, ColumnType.LONG, ColumnType.DOUBLE});
+    format.writeRow(COLUMNS, new Object[]{1000L, "a:b=c", 1L, 0.5}, sink);
+    // e.g. a dynamic MBean returning other values than its metadata describes
+    format.writeRow(COLUMNS, new Object[]{2000L, "a:b=c", 2.5, "n/a"}, sink);
+    format.finish(sink);
+
+    assertArrayEquals(new Object[][]{
+        {1000L, "a:b=c", 1.0, "0.5"},
+        {2000L, "a:b=c", 2.5, "n/a"}
+    }, read(COLUMNS).toArray());
+  }
+
+  @Test
+  public void readsSeveralBlocksOfSeveralSchemas() throws Exception {
+    String[] other = {"time", "target", "Count"};
+    format.setRowsPerBlock(2);
+    List<Object[]> expected = new ArrayList<Object[]>();
+    List<Object[]> expectedOther = new ArrayList<Object[]>();
+    for (int i = 0; i < 5; i++) {
+      Object[] row = {1000L * i, "a:b=" + i, (long) (i % 2 == 0 ? i : -i), i * 0.5};
+      format.writeRow(COLUMNS, row, sink);
+      expected.add(row);
+      if (i < 3) {
+        Object[] otherRow = {1000L * i, "broker" + i, i == 1 ? null : (long) i};
+        format.writeRow(other, otherRow, sink);
+        expectedOther.add(otherRow);
+      }
+    }
+    // the block in progress is only written on finish
+    assertEquals(4, read(COLUMNS).size());
+    format.finish(sink);
+
+    assertArrayEquals(expected.toArray(), read(COLUMNS).toArray());
+    assertArrayEquals(expectedOther.toArray(), read(other).toArray());
+  }
+
+  /**
+   * Read all rows written so far.
+   *
+   * @param columns the columns of the rows to return
+   * @return the rows with the given columns, in the order written
+   */
+  private List<Object[]> read(final String[] columns) throws IOException, InterruptedException {
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    new BinaryFormatReader().read(ByteBuffer.wrap(bytes.toByteArray()), new BinaryFormatReader.RowHandler() {
+      public void row(String[] readColumns, Object[] cells) {
+        if (Arrays.equals(columns, readColumns)) {
+          rows.add(cells);
+        }
+      }
+    });
+    return rows;
+  }
+}
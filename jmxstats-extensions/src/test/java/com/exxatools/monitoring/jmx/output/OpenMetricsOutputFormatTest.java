@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Malte Franken (http://exxatools.com/).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.exxatools.monitoring.jmx.output;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrapes the exporter over HTTP, as a metrics stack would.
+ *
+ * @author Malte Franken
+ */
+public class OpenMetricsOutputFormatTest {
+
+  private static final String[] COLUMNS = {"time", "target", "objectName", "HeapUsed", "rate(CollectionCount)", "Valid"};
+
+  private OpenMetricsOutputFormat format;
+
+  @Before
+  public void setUp() throws IOException {
+    format = new OpenMetricsOutputFormat(null);
+    format.start(new InetSocketAddress("127.0.0.1", 0));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    format.finish(null);
+  }
+
+  @Test
+  public void servesLatestValues() throws IOException {
+    format.writeRow(COLUMNS, new Object[]{1000L, "broker1", "java.lang:type=Memory", 41L, 0.5, false}, null);
+    format.writeRow(COLUMNS, new Object[]{2000L, "broker1", "java.lang:type=Memory", 42L, 1.5, true}, null);
+
+    HttpURLConnection connection = open();
+    assertEquals(200, connection.getResponseCode());
+    assertEquals(OpenMetricsOutputFormat.CONTENT_TYPE, connection.getContentType());
+    String labels = "{target=\"broker1\",mbean=\"java.lang:type=Memory\"}";
+    assertEquals("# TYPE jmx_HeapUsed gauge\n"
+        + "jmx_HeapUsed" + labels + " 42\n"
+        + "# TYPE jmx_Valid gauge\n"
+        + "jmx_Valid" + labels + " 1\n"
+        + "# TYPE jmx_rate_CollectionCount gauge\n"
+        + "jmx_rate_CollectionCount" + labels + " 1.5\n"
+        + "# EOF\n", read(connection));
+  }
+
+  @Test
+  public void escapesLabelValues() throws IOException {
+    format.writeRow(COLUMNS, new Object[]{1000L, "broker1", "a:name=\"x\\y\"", 1L, 1.0, true}, null);
+
+    String metrics = read(open());
+    assertTrue(metrics, metrics.contains("jmx_HeapUsed{target=\"broker1\",mbean=\"a:name=\\\"x\\\\y\\\"\"} 1\n"));
+  }
+
+  @Test
+  public void dropsStaleSeries() throws Exception {
+    format.setStaleMilliseconds(200);
+    format.writeRow(COLUMNS, new Object[]{1000L, "broker1", "java.lang:type=Memory", 1L, 1.0, true}, null);
+    format.writeRow(COLUMNS, new Object[]{1000L, "broker2", "java.lang:type=Memory", 2L, 2.0, true}, null);
+    String metrics = read(open());
+    assertTrue(metrics, metrics.contains("target=\"broker1\""));
+    assertTrue(metrics, metrics.contains("target=\"broker2\""));
+
+    Thread.sleep(400);
+    format.writeRow(COLUMNS, new Object[]{2000L, "broker2", "java.lang:type=Memory", 3L, 3.0, true}, null);
+    metrics = read(open());
+    assertFalse(metrics, metrics.contains("target=\"broker1\""));
+    assertTrue(metrics, metrics.contains("jmx_HeapUsed{target=\"broker2\",mbean=\"java.lang:type=Memory\"} 3\n"));
+    assertTrue(metrics, metrics.endsWith("# EOF\n"));
+  }
+
+  @Test
+  public void followsChangedColumns() throws IOException {
+    format.writeRow(COLUMNS, new Object[]{1000L, "broker1", "java.lang:type=Memory", 41L, 0.5, true}, null);
+    // the same MBean with an attribute less and the others in another order, e.g. after it has been re-registered
+    String[] columns = {"time", "target", "objectName", "Valid", "HeapUsed"};
+    format.writeRow(columns, new Object[]{2000L, "broker1", "java.lang:type=Memory", false, 42L}, null);
+
+    String labels = "{target=\"broker1\",mbean=\"java.lang:type=Memory\"}";
+    assertEquals("# TYPE jmx_HeapUsed gauge\n"
+        + "jmx_HeapUsed" + labels + " 42\n"
+        + "# TYPE jmx_Valid gauge\n"
+        + "jmx_Valid" + labels + " 0\n"
+        + "# EOF\n", read(open()));
+  }
+
+  @Test
+  public void rejectsOtherMethods() throws IOException {
+    HttpURLConnection connection = open();
+    connection.setRequestMethod("DELETE");
+    assertEquals(405, connection.getResponseCode());
+  }
+
+  private HttpURLConnection open() throws IOException {
+    URL url = new URL("http", "127.0.0.1", format.getAddress().getPort(), OpenMetricsOutputFormat.PATH);
+    return (HttpURLConnection) url.openConnection();
+  }
+
+  private static String read(HttpURLConnection connection) throws IOException {
+    InputStream in = connection.getInputStream();
+    try {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        body.write(buffer, 0, read);
+      }
+      return body.toString("UTF-8");
+    } finally {
+      in.close();
+      connection.disconnect();
+    }
+  }
+}